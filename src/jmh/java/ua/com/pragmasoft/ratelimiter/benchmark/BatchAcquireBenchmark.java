@@ -0,0 +1,82 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides one batched RPC of {@code batchSize} sub-operations from different tenants, either with one
+ * {@link BucketStore#tryAcquire(long, int)} per sub-operation or with one
+ * {@link BucketStore#tryAcquireAll(long[], int[], long[])} for the batch. Tenants are drawn from 1000 keys, so
+ * batches repeat keys, and the buckets are large enough that nearly every sub-operation is admitted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchAcquireBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        @Param({"map", "compact"})
+        String storeType;
+
+        @Param({"256"})
+        int batchSize;
+
+        BucketStore store;
+        long[] keys;
+        int[] tokens;
+        long[] results;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            store = storeType.equals("compact")
+                    ? new CompactBucketStore(1_000_000, 1_000_000, 1 << 12)
+                    : new ConcurrentMapBucketStore(1_000_000, 1_000_000);
+            SplittableRandom random = new SplittableRandom(42);
+            keys = new long[batchSize];
+            tokens = new int[batchSize];
+            results = new long[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                keys[i] = 1 + random.nextInt(1000);
+                tokens[i] = 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public int oneCallPerKey(Batch batch) {
+        int admitted = 0;
+        for (int i = 0; i < batch.keys.length; i++) {
+            batch.results[i] = batch.store.tryAcquire(batch.keys[i], batch.tokens[i]);
+            if (AcquireResult.isAllowed(batch.results[i])) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+
+    @Benchmark
+    public int tryAcquireAll(Batch batch) {
+        return AcquireResult.allowedCount(batch.store.tryAcquireAll(batch.keys, batch.tokens, batch.results));
+    }
+}
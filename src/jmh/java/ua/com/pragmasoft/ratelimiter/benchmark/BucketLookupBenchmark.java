@@ -0,0 +1,100 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.com.pragmasoft.ratelimiter.client_key.IpAddressParser;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucketImpl;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the bucket lookup of {@link ConcurrentMapBucketStore} (lock-free {@code get} first) with the previous
+ * {@code compute}-on-every-request lookup, for one hot key and for many keys, and the decision on a primitive key,
+ * which with {@code -prof gc} should allocate nothing per operation.
+ * <p>
+ * Run with several thread counts, e.g. {@code -Djmh.args="BucketLookup -t 1"}, {@code -t 8} and {@code -t 64}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketLookupBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Buckets {
+
+        @Param({"1", "10000"})
+        int keyCount;
+
+        String[] keys;
+        long[] keyHashes;
+        ConcurrentMapBucketStore store;
+        ConcurrentMap<String, TokenBucketImpl> computeMap;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            keys = new String[keyCount];
+            keyHashes = new long[keyCount];
+            store = new ConcurrentMapBucketStore(50, 2000);
+            computeMap = new ConcurrentHashMap<>();
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = "10.0." + (i >> 8) + "." + (i & 0xff);
+                store.getBucket(keys[i]);
+                keyHashes[i] = IpAddressParser.parse(keys[i], 0, keys[i].length(), 32, 128);
+                store.tryAcquire(keyHashes[i], 0);
+                computeLookup(computeMap, keys[i]);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String nextKey(Buckets buckets) {
+            next = (next + 1) % buckets.keyCount;
+            return buckets.keys[next];
+        }
+
+        long nextKeyHash(Buckets buckets) {
+            next = (next + 1) % buckets.keyCount;
+            return buckets.keyHashes[next];
+        }
+    }
+
+    @Benchmark
+    public TokenBucket getThenComputeIfAbsent(Buckets buckets, Cursor cursor) {
+        return buckets.store.getBucket(cursor.nextKey(buckets));
+    }
+
+    @Benchmark
+    public long primitiveKeyAcquire(Buckets buckets, Cursor cursor) {
+        return buckets.store.tryAcquire(cursor.nextKeyHash(buckets), 1);
+    }
+
+    @Benchmark
+    public TokenBucket computeBaseline(Buckets buckets, Cursor cursor) {
+        return computeLookup(buckets.computeMap, cursor.nextKey(buckets));
+    }
+
+    private static TokenBucket computeLookup(ConcurrentMap<String, TokenBucketImpl> map, String clientKey) {
+        return map.compute(clientKey, (k, existingBucket) ->
+                Objects.requireNonNullElseGet(existingBucket, () -> new TokenBucketImpl(50, 2000)));
+    }
+}
@@ -0,0 +1,59 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of extracting the client key from realistic proxy headers, as a String and as a primitive key.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientKeyBenchmark {
+
+    @Param({"xff-chain", "xff-ipv6", "real-ip", "remote-addr"})
+    String source;
+
+    private final IPClientKeyStrategy strategy = new IPClientKeyStrategy();
+    private MockHttpServletRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        request = new MockHttpServletRequest("GET", "/api/orders");
+        request.setRemoteAddr("10.12.0.7");
+        switch (source) {
+            case "xff-chain" -> request.addHeader("X-Forwarded-For", "203.0.113.195, 70.41.3.18, 150.172.238.178");
+            case "xff-ipv6" -> request.addHeader("X-Forwarded-For", "2001:db8:85a3:8d3:1319:8a2e:370:7348, 10.0.0.1");
+            case "real-ip" -> request.addHeader("X-Real-IP", " 198.51.100.23 ");
+            default -> {
+            }
+        }
+    }
+
+    @Benchmark
+    public String getClientKey() {
+        return strategy.getClientKey(request);
+    }
+
+    @Benchmark
+    public long getClientKeyHash() {
+        return strategy.getClientKeyHash(request);
+    }
+}
@@ -0,0 +1,87 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ua.com.pragmasoft.ratelimiter.LimitRateFilter;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.metrics.LimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.metrics.MicrometerLimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.metrics.TopKeysSketch;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of {@link LimitRateFilter} with mock servlet objects and a no-op downstream chain.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LimitRateFilterBenchmark {
+
+    private static final FilterChain NO_OP_CHAIN = (request, response) -> {
+    };
+
+    @Param({"map", "compact"})
+    String store;
+
+    /**
+     * {@code accept}: the limit is far above the offered load; {@code reject}: almost every request gets a 429.
+     */
+    @Param({"accept", "reject"})
+    String mix;
+
+    /**
+     * {@code on}: decisions are recorded by {@link MicrometerLimiterMetrics}, to measure the instrumentation overhead.
+     */
+    @Param({"off", "on"})
+    String metrics;
+
+    private LimitRateFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long size = "accept".equals(mix) ? 4_000_000 : 1;
+        long refillRate = "accept".equals(mix) ? Integer.MAX_VALUE : 1;
+        BucketStore bucketStore = "compact".equals(store)
+                ? new CompactBucketStore(size, refillRate, 1 << 16)
+                : new ConcurrentMapBucketStore(size, refillRate);
+        LimiterMetrics limiterMetrics = "on".equals(metrics)
+                ? new MicrometerLimiterMetrics(new SimpleMeterRegistry(), bucketStore, new TopKeysSketch(10, 4096))
+                : LimiterMetrics.NOOP;
+        filter = new LimitRateFilter(new IPClientKeyStrategy(), bucketStore, limiterMetrics);
+        request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("X-Forwarded-For", "203.0.113.195, 70.41.3.18");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public int doFilter() throws ServletException, IOException {
+        response.reset();
+        filter.doFilter(request, response, NO_OP_CHAIN);
+        return response.getStatus();
+    }
+}
@@ -0,0 +1,79 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and accuracy of the {@link LimiterAlgorithm}s on one saturated bucket.
+ * <p>
+ * Every call is reported as an operation; the {@code admitted} counter is the rate the algorithm actually let
+ * through, to be compared with the configured {@code refillRate} (plus one burst of {@code size} per measurement).
+ * A drifting algorithm shows up as an admitted rate below or above the configured one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LimiterAlgorithmBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+
+        @Param({"TOKEN_BUCKET", "GCRA", "SLIDING_WINDOW", "SLIDING_LOG"})
+        LimiterAlgorithm algorithm;
+
+        @Param({"1500", "2000", "100000"})
+        long refillRate;
+
+        @Param({"50"})
+        long size;
+
+        TokenBucket bucket;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            bucket = algorithm.create(size, refillRate);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Decisions {
+        public long admitted;
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            admitted = 0;
+            rejected = 0;
+        }
+    }
+
+    @Benchmark
+    public long saturated(Limiter limiter, Decisions decisions) {
+        long result = limiter.bucket.tryAcquire(1);
+        if (AcquireResult.isAllowed(result)) {
+            decisions.admitted++;
+        } else {
+            decisions.rejected++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,140 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ua.com.pragmasoft.ratelimiter.RejectionWriter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing a 429 response with the same four headers: the {@link RejectionWriter} against formatting every
+ * header value per request and writing the message through {@code getWriter()}, as the filter used to. The response
+ * hands every header and byte to a {@link Blackhole}, so that {@code -prof gc} shows the allocation of the writing
+ * code alone rather than that of a container.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RejectionBenchmark {
+
+    private final long result = AcquireResult.denied(0, TimeUnit.MILLISECONDS.toNanos(1500));
+    private BucketStore store;
+    private DiscardingResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        store = new ConcurrentMapBucketStore(5, 10);
+        response = new DiscardingResponse(blackhole);
+    }
+
+    @Benchmark
+    public void formatted() throws IOException {
+        long retryAfterSeconds = RejectionWriter.retryAfterSeconds(result);
+        BucketLimits limits = store.getLimits();
+        response.setStatus(429);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setHeader("RateLimit-Limit", String.valueOf(limits.size()));
+        response.setHeader("RateLimit-Remaining", String.valueOf(AcquireResult.remainingTokens(result)));
+        response.setHeader("RateLimit-Reset", String.valueOf(retryAfterSeconds));
+        PrintWriter writer = response.getWriter();
+        writer.write(RejectionWriter.REJECTION_MESSAGE);
+        writer.flush();
+    }
+
+    @Benchmark
+    public void precomputed() throws IOException {
+        RejectionWriter.write(response, result, store);
+    }
+
+    /**
+     * Response whose headers and body go to a {@link Blackhole}. The writer is created once, as containers recycle
+     * theirs between requests.
+     */
+    static final class DiscardingResponse extends HttpServletResponseWrapper {
+
+        private final Blackhole blackhole;
+        private final ServletOutputStream outputStream;
+        private final PrintWriter writer;
+
+        DiscardingResponse(Blackhole blackhole) {
+            super(new MockHttpServletResponse());
+            this.blackhole = blackhole;
+            this.outputStream = new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+
+                @Override
+                public void write(int b) {
+                    blackhole.consume(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    blackhole.consume(b);
+                }
+            };
+            this.writer = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            blackhole.consume(sc);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void setContentType(String type) {
+            blackhole.consume(type);
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            blackhole.consume(len);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketSnapshotter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one snapshot write and one restore of {@code buckets} drained buckets by {@link BucketSnapshotter}, the
+ * cost of persisting a {@link CompactBucketStore} across a deploy. Each restore fills a fresh, empty store of
+ * {@code capacity} slots; the slots must be allocated anyway at startup, so their allocation is not measured.
+ * <p>
+ * Both stores take {@code capacity * 16} bytes of heap, so the fork runs with a 3 GB heap.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SnapshotBenchmark {
+
+    private static final String NAMESPACE = "default";
+
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+
+        @Param({"5000000"})
+        int buckets;
+
+        @Param({"16777216"})
+        int capacity;
+
+        Path directory;
+        BucketSnapshotter writer;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("snapshot-benchmark");
+            // refills in 50 s, so no bucket is dropped as refilled between the write and the restores
+            CompactBucketStore store = new CompactBucketStore(50, 1, capacity);
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < buckets; i++) {
+                store.tryAcquire(random.nextLong(), 10);
+            }
+            writer = new BucketSnapshotter(Map.of(NAMESPACE, store), directory, 60_000);
+            writer.write();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(directory.resolve(NAMESPACE + ".snapshot"));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Target {
+
+        BucketSnapshotter reader;
+
+        @Setup(Level.Invocation)
+        public void setUp(Snapshot snapshot) {
+            CompactBucketStore store = new CompactBucketStore(50, 1, snapshot.capacity);
+            reader = new BucketSnapshotter(Map.of(NAMESPACE, store), snapshot.directory, 60_000);
+        }
+    }
+
+    @Benchmark
+    public long write(Snapshot snapshot) {
+        return snapshot.writer.write();
+    }
+
+    @Benchmark
+    public long restore(Target target) {
+        return target.reader.restore();
+    }
+}
@@ -0,0 +1,88 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.StripedTokenBucket;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucketImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of one bucket shared by every thread: {@link TokenBucketImpl} (one contended word) against
+ * {@link StripedTokenBucket}. Run once per thread count to get the curve, e.g. {@code -t 1}, {@code -t 2},
+ * {@code -t 4}, {@code -t 8}.
+ * <p>
+ * At {@code refillRate=100000000} the bucket practically never runs dry, so throughput measures the contention on
+ * the bucket itself. At {@code refillRate=200000} the threads saturate it and the stripes keep borrowing; the
+ * {@code admitted} counter is then the aggregate rate let through, to be compared with the configured rate (plus
+ * one burst of {@code size} per measurement) to check that striping does not overshoot.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StripedBucketBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedBucket {
+
+        /**
+         * Number of stripes; 1 is the plain {@link TokenBucketImpl}.
+         */
+        @Param({"1", "16"})
+        int stripes;
+
+        @Param({"200000", "100000000"})
+        long refillRate;
+
+        @Param({"100000"})
+        long size;
+
+        TokenBucket bucket;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            bucket = stripes == 1
+                    ? new TokenBucketImpl(size, refillRate)
+                    : new StripedTokenBucket(size, refillRate, stripes);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Decisions {
+        public long admitted;
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            admitted = 0;
+            rejected = 0;
+        }
+    }
+
+    @Benchmark
+    public long tryAcquire(SharedBucket shared, Decisions decisions) {
+        long result = shared.bucket.tryAcquire(1);
+        if (AcquireResult.isAllowed(result)) {
+            decisions.admitted++;
+        } else {
+            decisions.rejected++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,105 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.com.pragmasoft.ratelimiter.exception.RateLimitExceededException;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CachedTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucketImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of a single bucket acquisition, for one shared bucket and for many buckets, with
+ * accept-heavy and reject-heavy limits. Compares the non-throwing {@code tryAcquire} with the throwing
+ * {@code getToken} adapter, and the system clock with the {@link CachedTimeSource}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBucketBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Buckets {
+
+        @Param({"1", "10000"})
+        int keyCount;
+
+        /**
+         * {@code accept}: the limit is far above the offered load; {@code reject}: almost every call is denied.
+         */
+        @Param({"accept", "reject"})
+        String mix;
+
+        /**
+         * {@code system}: every call reads {@link System#nanoTime()}; {@code cached}: every call reads the field
+         * refreshed by a {@link CachedTimeSource} ticking every 100 µs.
+         */
+        @Param({"system", "cached"})
+        String clock;
+
+        TokenBucket[] buckets;
+        CachedTimeSource cachedTimeSource;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            TimeSource timeSource = TimeSource.SYSTEM;
+            if ("cached".equals(clock)) {
+                cachedTimeSource = new CachedTimeSource(TimeUnit.MICROSECONDS.toNanos(100));
+                cachedTimeSource.start();
+                timeSource = cachedTimeSource;
+            }
+            long size = "accept".equals(mix) ? 4_000_000 : 1;
+            long refillRate = "accept".equals(mix) ? Integer.MAX_VALUE : 1;
+            buckets = new TokenBucket[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                buckets[i] = new TokenBucketImpl(size, refillRate, timeSource);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (cachedTimeSource != null) {
+                cachedTimeSource.stop();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        TokenBucket nextBucket(Buckets buckets) {
+            next = (next + 1) % buckets.keyCount;
+            return buckets.buckets[next];
+        }
+    }
+
+    @Benchmark
+    public long tryAcquire(Buckets buckets, Cursor cursor) {
+        return cursor.nextBucket(buckets).tryAcquire(1);
+    }
+
+    @Benchmark
+    public boolean getToken(Buckets buckets, Cursor cursor) {
+        try {
+            return cursor.nextBucket(buckets).getToken(1);
+        } catch (RateLimitExceededException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ua.com.pragmasoft.ratelimiter.benchmark;
+
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ua.com.pragmasoft.ratelimiter.LimitRateFilter;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of {@link LimitRateFilter} in front of a slow downstream: each operation pushes {@code requests}
+ * concurrent requests, each blocking {@code downstreamMillis} behind the filter, and measures the time until all
+ * of them have completed.
+ * <p>
+ * {@code platform} runs them on a fixed pool of 200 threads, the Tomcat default; {@code virtual} starts a virtual
+ * thread per request, as Tomcat does with {@code spring.threads.virtual.enabled=true}. Virtual threads require
+ * Java 21, so run this with the {@code java21} profile, e.g.
+ * {@code mvn -Pbenchmark,java21 test-compile exec:exec -Djmh.args="VirtualThreadLoad -jvmArgsAppend -Djdk.tracePinnedThreads=short"};
+ * any carrier pinned by the limiter is then reported on the console.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadLoadBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+    private static final int CLIENTS = 1000;
+
+    @Param({"platform", "virtual"})
+    String threads;
+
+    @Param({"10000"})
+    int requests;
+
+    @Param({"50"})
+    long downstreamMillis;
+
+    private ExecutorService executor;
+    private LimitRateFilter filter;
+    private FilterChain slowChain;
+    private String[] clientAddresses;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        executor = "virtual".equals(threads) ? newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+        filter = new LimitRateFilter(new IPClientKeyStrategy(), new ConcurrentMapBucketStore(1_000_000, 1_000_000));
+        slowChain = (request, response) -> {
+            try {
+                Thread.sleep(downstreamMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        clientAddresses = new String[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clientAddresses[i] = "10.0." + (i >> 8) + "." + (i & 0xff);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int concurrentSlowRequests() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicInteger admitted = new AtomicInteger();
+        for (int i = 0; i < requests; i++) {
+            String clientAddress = clientAddresses[i % CLIENTS];
+            executor.execute(() -> {
+                try {
+                    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+                    request.addHeader("X-Forwarded-For", clientAddress);
+                    MockHttpServletResponse response = new MockHttpServletResponse();
+                    filter.doFilter(request, response, slowChain);
+                    if (response.getStatus() != 429) {
+                        admitted.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return admitted.get();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Throwable {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                            MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21; run with -Pjava21", e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.lang.NonNull;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ua.com.pragmasoft.ratelimiter.concurrency.AdaptiveConcurrencyLimiter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+
+import java.io.IOException;
+
+/**
+ * Servlet filter that sheds requests beyond an {@link AdaptiveConcurrencyLimiter}, protecting the application when it
+ * slows down regardless of how the load is spread across clients. It runs after the {@link LimitRateFilter}, so only
+ * requests within their client's rate count against the concurrency limit, and measures the latency around the rest
+ * of the chain. A request counts as dropped when the chain throws or answers 503 or 504.
+ * <p>
+ * Requests that go asynchronous are measured up to the return of the initial dispatch.
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final int shedStatus;
+
+    /**
+     * Constructs a {@link ConcurrencyLimitFilter}.
+     *
+     * @param limiter    the adaptive concurrency limiter
+     * @param shedStatus the status of shed requests, 503 or 429
+     */
+    public ConcurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter, int shedStatus) {
+        this.limiter = limiter;
+        this.shedStatus = shedStatus;
+    }
+
+    /**
+     * Passes the request on if the concurrency limit allows it and records its latency, or sheds it.
+     *
+     * @param request     the HTTP request
+     * @param response    the HTTP response
+     * @param filterChain the filter chain
+     * @throws IOException      if an I/O error occurs
+     * @throws ServletException if a servlet error occurs
+     */
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain) throws ServletException, IOException {
+        if (!limiter.tryAcquire()) {
+            RejectionWriter.writeShed(response, shedStatus);
+            return;
+        }
+        TimeSource clock = limiter.getTimeSource();
+        long start = clock.nanoTime();
+        boolean dropped = true;
+        try {
+            filterChain.doFilter(request, response);
+            int status = response.getStatus();
+            dropped = status == 503 || status == 504;
+        } finally {
+            limiter.release(clock.nanoTime() - start, dropped);
+        }
+    }
+}
@@ -4,43 +4,90 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
-import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy;
-import ua.com.pragmasoft.ratelimiter.exception.RateLimitExceededException;
-import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
-import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucketImpl;
+import ua.com.pragmasoft.ratelimiter.metrics.LimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RouteLimit;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.HierarchicalLimiter;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 
 /**
- * Servlet filter that applies rate limiting based on the token bucket algorithm.
+ * Servlet filter that applies rate limiting based on the token bucket algorithm. The limit and the token cost of
+ * each request are resolved by a {@link RateLimitPolicy} from its path (within the application), method and client
+ * tier. The levels of the policy, if any, are applied on top of the limit of the route, all or nothing; a rejection
+ * reports the limit of the store that rejected the request.
  */
-@Component
 public class LimitRateFilter extends OncePerRequestFilter {
 
-    @Value("${token.size:5}")
-    int size;
-
-    @Value("${token.refill:10}")
-    int refillRate;
+    /**
+     * Request attribute holding the store of the level that rejected the request, if a level did.
+     */
+    static final String REJECTING_STORE_ATTRIBUTE = LimitRateFilter.class.getName() + ".rejectingStore";
 
     private final ClientKeyStrategy clientKeyStrategy;
+    private final RateLimitPolicy policy;
+    private final LimiterMetrics metrics;
+    private final HierarchicalLimiter.LevelKeys<HttpServletRequest> levelKeys;
+
+    /**
+     * Constructs a {@link LimitRateFilter} with the specified client key strategy and bucket store, without metrics.
+     *
+     * @param clientKeyStrategy the strategy for extracting client keys
+     * @param bucketStore       the store holding the token bucket of each client
+     */
+    public LimitRateFilter(ClientKeyStrategy clientKeyStrategy, BucketStore bucketStore) {
+        this(clientKeyStrategy, bucketStore, LimiterMetrics.NOOP);
+    }
 
     /**
-     * Constructs a {@link LimitRateFilter} with the specified client key strategy.
+     * Constructs a {@link LimitRateFilter} with the specified client key strategy, bucket store and metrics.
      *
      * @param clientKeyStrategy the strategy for extracting client keys
+     * @param bucketStore       the store holding the token bucket of each client
+     * @param metrics           the metrics recording every decision
      */
-    public LimitRateFilter(ClientKeyStrategy clientKeyStrategy) {
+    public LimitRateFilter(ClientKeyStrategy clientKeyStrategy, BucketStore bucketStore, LimiterMetrics metrics) {
+        this(clientKeyStrategy, RateLimitPolicy.of(bucketStore), metrics);
+    }
+
+    /**
+     * Constructs a {@link LimitRateFilter} with the specified client key strategy, rate limit policy and metrics.
+     *
+     * @param clientKeyStrategy the strategy for extracting client keys
+     * @param policy            the policy resolving the limit of each request
+     * @param metrics           the metrics recording every decision
+     */
+    public LimitRateFilter(ClientKeyStrategy clientKeyStrategy, RateLimitPolicy policy, LimiterMetrics metrics) {
         this.clientKeyStrategy = clientKeyStrategy;
+        this.policy = policy;
+        this.metrics = metrics;
+        ClientKeyStrategy[] levelStrategies = policy.getLevels().stream()
+                .map(LimitLevel::keyStrategy)
+                .toArray(ClientKeyStrategy[]::new);
+        this.levelKeys = new HierarchicalLimiter.LevelKeys<>() {
+            @Override
+            public long keyOf(HttpServletRequest request, int level) {
+                return levelStrategies[level].getClientKeyHash(request);
+            }
+
+            @Override
+            public void rejectedBy(HttpServletRequest request, BucketStore store) {
+                request.setAttribute(REJECTING_STORE_ATTRIBUTE, store);
+            }
+        };
     }
 
     /**
      * Filters the request by checking if the client has enough tokens in the bucket.
-     * If tokens are available, the request proceeds. Otherwise, a 429 status with detailed error information is returned.
+     * If tokens are available, the request proceeds. Otherwise, a 429 status with detailed error information is returned
+     * by the {@link RejectionWriter}.
      *
      * @param request     the HTTP request
      * @param response    the HTTP response
@@ -53,16 +100,30 @@ public class LimitRateFilter extends OncePerRequestFilter {
             @NonNull HttpServletRequest request,
             @NonNull HttpServletResponse response,
             @NonNull FilterChain filterChain) throws ServletException, IOException {
-        String clientKey = clientKeyStrategy.getClientKey(request);
-        TokenBucket bucket = TokenBucketImpl.getBucket(clientKey, size, refillRate);
-
-        try {
-            bucket.getToken(1);
+        long start = System.nanoTime();
+        long clientKey = clientKeyStrategy.getClientKeyHash(request);
+        RouteLimit limit = resolve(request);
+        long result = policy.getLevels().isEmpty()
+                ? limit.store().tryAcquire(clientKey, limit.cost())
+                : policy.getHierarchy().tryAcquire(limit.store(), clientKey, request, levelKeys, limit.cost());
+        metrics.recordDecision(clientKey, result, System.nanoTime() - start);
+        if (AcquireResult.isAllowed(result)) {
             filterChain.doFilter(request, response);
-        } catch (RateLimitExceededException e) {
-            response.setStatus(429);
-            response.setHeader("Retry-After", String.valueOf(e.getRetryAfterMillis() / 1000));
-            response.getWriter().write("Rate limit exceeded: " + e.getErrorReason());
+            return;
         }
+        Object rejectingLevel = request.getAttribute(REJECTING_STORE_ATTRIBUTE);
+        RejectionWriter.write(response, result,
+                rejectingLevel instanceof BucketStore store ? store : limit.store());
+    }
+
+    private RouteLimit resolve(HttpServletRequest request) {
+        String tierHeader = policy.getTierHeader();
+        String tier = tierHeader != null ? request.getHeader(tierHeader) : null;
+        String uri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        CharSequence path = uri == null ? ""
+                : contextPath == null || contextPath.isEmpty() ? uri
+                : CharBuffer.wrap(uri, Math.min(contextPath.length(), uri.length()), uri.length());
+        return policy.resolve(path, request.getMethod(), tier);
     }
 }
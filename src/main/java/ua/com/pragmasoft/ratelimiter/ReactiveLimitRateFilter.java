@@ -0,0 +1,161 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.lang.NonNull;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ua.com.pragmasoft.ratelimiter.client_key.ReactiveClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.metrics.LimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RouteLimit;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.HierarchicalLimiter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * WebFlux filter that applies rate limiting based on the token bucket algorithm, the non-blocking counterpart of
+ * {@link LimitRateFilter}.
+ * <p>
+ * Decisions of stores that {@link BucketStore#decidesLocally() decide locally} are taken synchronously on the
+ * event-loop thread, without a future or a boxed result; other stores answer through
+ * {@link BucketStore#tryAcquireAsync(long, int)}, so the event loop is never blocked. The levels of the policy, if
+ * any, are applied on top of the limit of the route as in the servlet filter; if any of the stores involved waits on
+ * a remote store, the whole chain runs on the bounded elastic scheduler instead of the event loop. Rejections carry
+ * the same headers as those of {@link RejectionWriter}, for the store that rejected the request, and are written
+ * directly from its shared byte array.
+ */
+public class ReactiveLimitRateFilter implements WebFilter {
+
+    /**
+     * Exchange attribute holding the store of the level that rejected the request, if a level did.
+     */
+    static final String REJECTING_STORE_ATTRIBUTE = ReactiveLimitRateFilter.class.getName() + ".rejectingStore";
+
+    private final ReactiveClientKeyStrategy clientKeyStrategy;
+    private final RateLimitPolicy policy;
+    private final LimiterMetrics metrics;
+    private final HierarchicalLimiter.LevelKeys<ServerWebExchange> levelKeys;
+
+    /**
+     * Constructs a {@link ReactiveLimitRateFilter} with the specified client key strategy, bucket store and metrics.
+     *
+     * @param clientKeyStrategy the strategy for extracting client keys
+     * @param bucketStore       the store holding the token bucket of each client
+     * @param metrics           the metrics recording every decision
+     */
+    public ReactiveLimitRateFilter(ReactiveClientKeyStrategy clientKeyStrategy, BucketStore bucketStore,
+                                   LimiterMetrics metrics) {
+        this(clientKeyStrategy, RateLimitPolicy.of(bucketStore), metrics);
+    }
+
+    /**
+     * Constructs a {@link ReactiveLimitRateFilter} with the specified client key strategy, rate limit policy and
+     * metrics.
+     *
+     * @param clientKeyStrategy the strategy for extracting client keys
+     * @param policy            the policy resolving the limit of each request
+     * @param metrics           the metrics recording every decision
+     * @throws IllegalArgumentException if the key strategy of a level cannot read reactive requests
+     */
+    public ReactiveLimitRateFilter(ReactiveClientKeyStrategy clientKeyStrategy, RateLimitPolicy policy,
+                                   LimiterMetrics metrics) {
+        this.clientKeyStrategy = clientKeyStrategy;
+        this.policy = policy;
+        this.metrics = metrics;
+        ReactiveClientKeyStrategy[] levelStrategies = new ReactiveClientKeyStrategy[policy.getLevels().size()];
+        for (int i = 0; i < levelStrategies.length; i++) {
+            LimitLevel level = policy.getLevels().get(i);
+            if (!(level.keyStrategy() instanceof ReactiveClientKeyStrategy strategy)) {
+                throw new IllegalArgumentException("Level " + level.name() + ": the key strategy "
+                        + level.keyStrategy().getClass().getName() + " does not support reactive requests");
+            }
+            levelStrategies[i] = strategy;
+        }
+        this.levelKeys = new HierarchicalLimiter.LevelKeys<>() {
+            @Override
+            public long keyOf(ServerWebExchange exchange, int level) {
+                return levelStrategies[level].getClientKeyHash(exchange.getRequest());
+            }
+
+            @Override
+            public void rejectedBy(ServerWebExchange exchange, BucketStore store) {
+                exchange.getAttributes().put(REJECTING_STORE_ATTRIBUTE, store);
+            }
+        };
+    }
+
+    /**
+     * Filters the request by checking if the client has enough tokens in the bucket.
+     * If tokens are available, the request proceeds. Otherwise, a 429 status is returned.
+     *
+     * @param exchange the current server exchange
+     * @param chain    the filter chain
+     * @return completion of the request handling
+     */
+    @Override
+    @NonNull
+    public Mono<Void> filter(@NonNull ServerWebExchange exchange, @NonNull WebFilterChain chain) {
+        long start = System.nanoTime();
+        ServerHttpRequest request = exchange.getRequest();
+        long clientKey = clientKeyStrategy.getClientKeyHash(request);
+        String tierHeader = policy.getTierHeader();
+        RouteLimit limit = policy.resolve(request.getPath().pathWithinApplication().value(),
+                request.getMethod().name(), tierHeader != null ? request.getHeaders().getFirst(tierHeader) : null);
+        BucketStore store = limit.store();
+        if (!policy.getLevels().isEmpty()) {
+            HierarchicalLimiter hierarchy = policy.getHierarchy();
+            if (store.decidesLocally() && hierarchy.decidesLocally()) {
+                return apply(exchange, chain, limit, clientKey,
+                        hierarchy.tryAcquire(store, clientKey, exchange, levelKeys, limit.cost()), start);
+            }
+            return Mono.fromCallable(() -> hierarchy.tryAcquire(store, clientKey, exchange, levelKeys, limit.cost()))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(result -> apply(exchange, chain, limit, clientKey, result, start));
+        }
+        if (store.decidesLocally()) {
+            return apply(exchange, chain, limit, clientKey, store.tryAcquire(clientKey, limit.cost()), start);
+        }
+        CompletableFuture<Long> decision = store.tryAcquireAsync(clientKey, limit.cost());
+        if (decision.isDone() && !decision.isCompletedExceptionally()) {
+            return apply(exchange, chain, limit, clientKey, decision.join(), start);
+        }
+        return Mono.fromFuture(decision).flatMap(result -> apply(exchange, chain, limit, clientKey, result, start));
+    }
+
+    private Mono<Void> apply(ServerWebExchange exchange, WebFilterChain chain, RouteLimit limit, long clientKey,
+                             long result, long start) {
+        metrics.recordDecision(clientKey, result, System.nanoTime() - start);
+        if (AcquireResult.isAllowed(result)) {
+            return chain.filter(exchange);
+        }
+        String reset = RejectionWriter.decimal(RejectionWriter.retryAfterSeconds(result));
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        HttpHeaders headers = response.getHeaders();
+        headers.set("Retry-After", reset);
+        Object rejectingLevel = exchange.getAttribute(REJECTING_STORE_ATTRIBUTE);
+        BucketLimits limits = RejectionWriter.limitsOf(
+                rejectingLevel instanceof BucketStore store ? store : limit.store());
+        if (limits != null) {
+            headers.set("RateLimit-Limit", RejectionWriter.decimal(limits.size()));
+            headers.set("RateLimit-Remaining", RejectionWriter.decimal(AcquireResult.remainingTokens(result)));
+            headers.set("RateLimit-Reset", reset);
+        }
+        byte[] bytes = RejectionWriter.body();
+        headers.set(HttpHeaders.CONTENT_TYPE, RejectionWriter.CONTENT_TYPE);
+        headers.setContentLength(bytes.length);
+        DataBuffer body = response.bufferFactory().wrap(bytes);
+        return response.writeWith(Mono.just(body));
+    }
+}
@@ -0,0 +1,131 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import jakarta.servlet.http.HttpServletResponse;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the 429 responses of the rate limit filters without allocating on the request path.
+ * <p>
+ * The body is encoded once and written through {@link HttpServletResponse#getOutputStream()} with a fixed content
+ * length, so no writer or encoder is set up per rejection. Header values are taken from a table of precomputed
+ * decimal strings covering the usual range of retry delays, bucket sizes and remaining tokens; only values beyond
+ * {@link #CACHED_VALUES} are formatted per request. Besides {@code Retry-After}, rejections carry the
+ * {@code RateLimit-Limit}, {@code RateLimit-Remaining} and {@code RateLimit-Reset} headers of the IETF rate limit
+ * headers draft, the limit being the bucket size of the store that rejected the request, the matched rule or a
+ * level.
+ */
+public final class RejectionWriter {
+
+    /**
+     * The body of every rejection.
+     */
+    public static final String REJECTION_MESSAGE = "Rate limit exceeded: Exceeded the allowed rate limit.";
+
+    /**
+     * The body of every request shed by the adaptive concurrency limit.
+     */
+    public static final String SHED_MESSAGE = "Service overloaded: Exceeded the adaptive concurrency limit.";
+
+    /**
+     * The number of header values, starting at zero, whose decimal strings are precomputed.
+     */
+    public static final int CACHED_VALUES = 4096;
+
+    static final String CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final byte[] BODY = REJECTION_MESSAGE.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SHED_BODY = SHED_MESSAGE.getBytes(StandardCharsets.UTF_8);
+    private static final String[] DECIMALS = new String[CACHED_VALUES];
+
+    static {
+        for (int i = 0; i < CACHED_VALUES; i++) {
+            DECIMALS[i] = Integer.toString(i).intern();
+        }
+    }
+
+    private RejectionWriter() {
+    }
+
+    /**
+     * Writes a 429 response for a denied decision.
+     *
+     * @param response the response to write to
+     * @param result   the denied decision, as encoded by {@link AcquireResult}
+     * @param store    the store that rejected the request, whose bucket size is reported as the limit; the rate
+     *                 limit headers are left out if the store does not expose its limits
+     * @throws IOException if the body cannot be written
+     */
+    public static void write(HttpServletResponse response, long result, BucketStore store) throws IOException {
+        String reset = decimal(retryAfterSeconds(result));
+        response.setStatus(429);
+        response.setHeader("Retry-After", reset);
+        BucketLimits limits = limitsOf(store);
+        if (limits != null) {
+            response.setHeader("RateLimit-Limit", decimal(limits.size()));
+            response.setHeader("RateLimit-Remaining", decimal(AcquireResult.remainingTokens(result)));
+            response.setHeader("RateLimit-Reset", reset);
+        }
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(BODY.length);
+        response.getOutputStream().write(BODY, 0, BODY.length);
+    }
+
+    /**
+     * Writes the response to a request shed by the adaptive concurrency limit. It has no rate limit headers, as the
+     * client has not exceeded a limit of its own; {@code Retry-After} asks it to come back in a second.
+     *
+     * @param response the response to write to
+     * @param status   the status of the response, 503 or 429
+     * @throws IOException if the body cannot be written
+     */
+    public static void writeShed(HttpServletResponse response, int status) throws IOException {
+        response.setStatus(status);
+        response.setHeader("Retry-After", DECIMALS[1]);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(SHED_BODY.length);
+        response.getOutputStream().write(SHED_BODY, 0, SHED_BODY.length);
+    }
+
+    /**
+     * Returns the limits of a store, or {@code null} if it does not expose them.
+     */
+    static BucketLimits limitsOf(BucketStore store) {
+        return store.supportsLimits() ? store.getLimits() : null;
+    }
+
+    /**
+     * Rounds the retry delay of a decision up to whole seconds, as {@code Retry-After} requires.
+     *
+     * @param result the decision, as encoded by {@link AcquireResult}
+     * @return the delay in seconds
+     */
+    public static long retryAfterSeconds(long result) {
+        return (AcquireResult.retryAfterNanos(result) + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Returns the decimal string of a non-negative header value, from the precomputed table when it is small enough.
+     *
+     * @param value the value
+     * @return the decimal string
+     */
+    public static String decimal(long value) {
+        return value >= 0 && value < CACHED_VALUES ? DECIMALS[(int) value] : Long.toString(value);
+    }
+
+    /**
+     * Returns the encoded body, for responses that are not servlet responses. The array is shared and must not be
+     * modified.
+     *
+     * @return the UTF-8 encoded body
+     */
+    static byte[] body() {
+        return BODY;
+    }
+}
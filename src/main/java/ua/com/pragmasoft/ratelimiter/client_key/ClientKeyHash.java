@@ -0,0 +1,40 @@
+package ua.com.pragmasoft.ratelimiter.client_key;
+
+/**
+ * 64-bit hashing of client keys, used by stores and strategies that key buckets on a primitive.
+ */
+public final class ClientKeyHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ClientKeyHash() {
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of a client key.
+     *
+     * @param clientKey the client key
+     * @return the key hash
+     */
+    public static long of(CharSequence clientKey) {
+        return of(clientKey, 0, clientKey.length());
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of a region of a character sequence, without copying it.
+     *
+     * @param chars the character sequence
+     * @param from  the start index, inclusive
+     * @param to    the end index, exclusive
+     * @return the key hash
+     */
+    public static long of(CharSequence chars, int from, int to) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = from; i < to; i++) {
+            hash ^= chars.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
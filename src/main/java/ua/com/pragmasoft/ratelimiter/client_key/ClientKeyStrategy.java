@@ -13,4 +13,29 @@ public interface ClientKeyStrategy {
      * @return the client key
      */
     String getClientKey(HttpServletRequest request);
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the client key from the given HTTP request as a 64-bit hash.
+     * Implementations can override this to derive the key without allocating a String.
+     *
+     * @param request the HTTP request
+     * @return the client key hash
+     */
+    default long getClientKeyHash(HttpServletRequest request) {
+        return ClientKeyHash.of(getClientKey(request));
+    }
+
+    /**
+     * Derives the client key from a raw value, as this strategy would read it from a request, e.g. the client
+     * column of a recorded access log. The result must match {@link #getClientKeyHash(HttpServletRequest)} for a
+     * request carrying that value.
+     *
+     * @param value the characters holding the value
+     * @param from  the start index of the value, inclusive
+     * @param to    the end index of the value, exclusive
+     * @return the client key hash
+     */
+    default long getClientKeyHash(CharSequence value, int from, int to) {
+        return ClientKeyHash.of(value, from, to);
+    }
+}
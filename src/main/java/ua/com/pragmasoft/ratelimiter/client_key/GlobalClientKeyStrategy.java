@@ -0,0 +1,33 @@
+package ua.com.pragmasoft.ratelimiter.client_key;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+/**
+ * Implementation of {@link ClientKeyStrategy} and {@link ReactiveClientKeyStrategy} that gives every request the
+ * key of the empty string, so that all clients share one bucket, e.g. for a service-wide ceiling.
+ */
+public class GlobalClientKeyStrategy implements ClientKeyStrategy, ReactiveClientKeyStrategy {
+
+    private static final long KEY_HASH = ClientKeyHash.of("");
+
+    @Override
+    public String getClientKey(HttpServletRequest request) {
+        return "";
+    }
+
+    @Override
+    public long getClientKeyHash(HttpServletRequest request) {
+        return KEY_HASH;
+    }
+
+    @Override
+    public String getClientKey(ServerHttpRequest request) {
+        return "";
+    }
+
+    @Override
+    public long getClientKeyHash(ServerHttpRequest request) {
+        return KEY_HASH;
+    }
+}
@@ -0,0 +1,35 @@
+package ua.com.pragmasoft.ratelimiter.client_key;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+/**
+ * Implementation of {@link ClientKeyStrategy} and {@link ReactiveClientKeyStrategy} that keys clients on the value
+ * of a request header, such as an API key set by the client or the gateway. Requests without the header share the
+ * key of the empty string.
+ */
+public class HeaderClientKeyStrategy implements ClientKeyStrategy, ReactiveClientKeyStrategy {
+
+    private final String headerName;
+
+    /**
+     * Constructs a {@link HeaderClientKeyStrategy}.
+     *
+     * @param headerName the name of the header carrying the client key
+     */
+    public HeaderClientKeyStrategy(String headerName) {
+        this.headerName = headerName;
+    }
+
+    @Override
+    public String getClientKey(HttpServletRequest request) {
+        String value = request.getHeader(headerName);
+        return value != null ? value : "";
+    }
+
+    @Override
+    public String getClientKey(ServerHttpRequest request) {
+        String value = request.getHeaders().getFirst(headerName);
+        return value != null ? value : "";
+    }
+}
@@ -1,13 +1,46 @@
 package ua.com.pragmasoft.ratelimiter.client_key;
 
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import java.net.InetSocketAddress;
 
 
 /**
- * Implementation of {@link ClientKeyStrategy} that extracts the client IP address.
+ * Implementation of {@link ClientKeyStrategy} and {@link ReactiveClientKeyStrategy} that extracts the client IP
+ * address.
  */
 
-public class IPClientKeyStrategy implements ClientKeyStrategy {
+public class IPClientKeyStrategy implements ClientKeyStrategy, ReactiveClientKeyStrategy {
+
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+    private static final String REAL_IP = "X-Real-IP";
+
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+
+    /**
+     * Constructs an {@link IPClientKeyStrategy} that keys every address separately.
+     */
+    public IPClientKeyStrategy() {
+        this(32, 128);
+    }
+
+    /**
+     * Constructs an {@link IPClientKeyStrategy} that aggregates addresses by prefix in {@link #getClientKeyHash},
+     * so that all clients of a subnet share one key.
+     *
+     * @param ipv4Prefix the IPv4 prefix length to keep, between 0 and 32
+     * @param ipv6Prefix the IPv6 prefix length to keep, between 0 and 128
+     * @throws IllegalArgumentException if a prefix length is out of range
+     */
+    public IPClientKeyStrategy(int ipv4Prefix, int ipv6Prefix) {
+        if (ipv4Prefix < 0 || ipv4Prefix > 32 || ipv6Prefix < 0 || ipv6Prefix > 128) {
+            throw new IllegalArgumentException("Prefix lengths must be within 0-32 for IPv4 and 0-128 for IPv6");
+        }
+        this.ipv4Prefix = ipv4Prefix;
+        this.ipv6Prefix = ipv6Prefix;
+    }
 
     /**
      * Retrieves the client IP address from the given HTTP request.
@@ -18,7 +51,7 @@ public class IPClientKeyStrategy implements ClientKeyStrategy {
      * @return the client IP address
      */
     public String getClientKey(HttpServletRequest httpServletRequest) {
-        String ipAddress = httpServletRequest.getHeader("X-Forwarded-For");
+        String ipAddress = httpServletRequest.getHeader(FORWARDED_FOR);
         if (ipAddress != null && !ipAddress.isEmpty()) {
             int index = ipAddress.indexOf(",");
             if (index > 0) {
@@ -27,10 +60,115 @@ public class IPClientKeyStrategy implements ClientKeyStrategy {
                 return ipAddress.trim();
             }
         }
-        ipAddress = httpServletRequest.getHeader("X-Real-IP");
+        ipAddress = httpServletRequest.getHeader(REAL_IP);
         if (ipAddress != null && !ipAddress.isEmpty()) {
             return ipAddress.trim();
         }
         return httpServletRequest.getRemoteAddr();
     }
+
+    /**
+     * Retrieves the client IP address from the same sources as {@link #getClientKey} and parses it straight into
+     * a primitive key, applying the configured prefix aggregation. No substring or trimmed copy is created; values
+     * that are not IP addresses are hashed in place.
+     *
+     * @param httpServletRequest the HTTP request
+     * @return the client key
+     */
+    @Override
+    public long getClientKeyHash(HttpServletRequest httpServletRequest) {
+        String ipAddress = httpServletRequest.getHeader(FORWARDED_FOR);
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            int index = ipAddress.indexOf(',');
+            return toKey(ipAddress, index > 0 ? index : ipAddress.length());
+        }
+        ipAddress = httpServletRequest.getHeader(REAL_IP);
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            return toKey(ipAddress, ipAddress.length());
+        }
+        ipAddress = httpServletRequest.getRemoteAddr();
+        if (ipAddress == null) {
+            return ClientKeyHash.of("");
+        }
+        return toKey(ipAddress, ipAddress.length());
+    }
+
+    /**
+     * Retrieves the client IP address from the given reactive HTTP request, checking the same headers as
+     * {@link #getClientKey(HttpServletRequest)} before falling back to the remote address of the connection.
+     *
+     * @param request the HTTP request
+     * @return the client IP address
+     */
+    @Override
+    public String getClientKey(ServerHttpRequest request) {
+        String ipAddress = request.getHeaders().getFirst(FORWARDED_FOR);
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            int index = ipAddress.indexOf(',');
+            return index > 0 ? ipAddress.substring(0, index).trim() : ipAddress.trim();
+        }
+        ipAddress = request.getHeaders().getFirst(REAL_IP);
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            return ipAddress.trim();
+        }
+        return remoteAddress(request);
+    }
+
+    /**
+     * Retrieves the client IP address of the given reactive HTTP request as a primitive key, like
+     * {@link #getClientKeyHash(HttpServletRequest)}.
+     *
+     * @param request the HTTP request
+     * @return the client key
+     */
+    @Override
+    public long getClientKeyHash(ServerHttpRequest request) {
+        String ipAddress = request.getHeaders().getFirst(FORWARDED_FOR);
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            int index = ipAddress.indexOf(',');
+            return toKey(ipAddress, index > 0 ? index : ipAddress.length());
+        }
+        ipAddress = request.getHeaders().getFirst(REAL_IP);
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            return toKey(ipAddress, ipAddress.length());
+        }
+        ipAddress = remoteAddress(request);
+        if (ipAddress == null) {
+            return ClientKeyHash.of("");
+        }
+        return toKey(ipAddress, ipAddress.length());
+    }
+
+    /**
+     * Parses a raw address, trimmed of surrounding whitespace, into a primitive key with the configured prefix
+     * aggregation, like {@link #getClientKeyHash(HttpServletRequest)} does with the address of a request. Values
+     * that are not IP addresses are hashed in place.
+     *
+     * @param value the characters holding the address
+     * @param from  the start index of the address, inclusive
+     * @param to    the end index of the address, exclusive
+     * @return the client key
+     */
+    @Override
+    public long getClientKeyHash(CharSequence value, int from, int to) {
+        int start = from;
+        int end = to;
+        while (start < end && value.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        long key = IpAddressParser.parse(value, start, end, ipv4Prefix, ipv6Prefix);
+        return key != IpAddressParser.NOT_AN_ADDRESS ? key : ClientKeyHash.of(value, start, end);
+    }
+
+    private static String remoteAddress(ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        return remoteAddress != null ? remoteAddress.getHostString() : null;
+    }
+
+    private long toKey(String value, int end) {
+        return getClientKeyHash(value, 0, end);
+    }
 }
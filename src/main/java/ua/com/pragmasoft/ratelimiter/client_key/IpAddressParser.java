@@ -0,0 +1,224 @@
+package ua.com.pragmasoft.ratelimiter.client_key;
+
+/**
+ * Allocation-free parser of textual IPv4 and IPv6 addresses into a primitive client key.
+ * <p>
+ * IPv4 addresses (including IPv4-mapped IPv6 addresses) are encoded exactly as the 32-bit address tagged with bit
+ * 32. IPv6 addresses are folded from 128 to 64 bits with a mixing function. In both cases the address is first
+ * truncated to the requested prefix length, so that a whole subnet maps to the same key.
+ */
+public final class IpAddressParser {
+
+    /**
+     * Returned when the text is not an IP address.
+     */
+    public static final long NOT_AN_ADDRESS = 0;
+
+    private static final long IPV4_TAG = 1L << 32;
+
+    private IpAddressParser() {
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address from a region of a character sequence.
+     *
+     * @param chars      the character sequence
+     * @param from       the start index, inclusive
+     * @param to         the end index, exclusive
+     * @param ipv4Prefix the IPv4 prefix length to keep, between 0 and 32
+     * @param ipv6Prefix the IPv6 prefix length to keep, between 0 and 128
+     * @return the client key, or {@link #NOT_AN_ADDRESS} if the region is not a valid address
+     */
+    public static long parse(CharSequence chars, int from, int to, int ipv4Prefix, int ipv6Prefix) {
+        for (int i = from; i < to; i++) {
+            char c = chars.charAt(i);
+            if (c == ':') {
+                return parseIpv6(chars, from, to, ipv4Prefix, ipv6Prefix);
+            }
+            if (c == '.') {
+                long ipv4 = parseIpv4(chars, from, to);
+                return ipv4 < 0 ? NOT_AN_ADDRESS : ipv4Key(ipv4, ipv4Prefix);
+            }
+        }
+        return NOT_AN_ADDRESS;
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address.
+     *
+     * @param chars the character sequence
+     * @param from  the start index, inclusive
+     * @param to    the end index, exclusive
+     * @return the 32-bit address as a non-negative long, or -1 if the region is not a valid address
+     */
+    static long parseIpv4(CharSequence chars, int from, int to) {
+        long address = 0;
+        int octets = 0;
+        int i = from;
+        while (octets < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && digits < 4) {
+                char c = chars.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) {
+                return -1;
+            }
+            address = (address << 8) | value;
+            octets++;
+            if (octets < 4) {
+                if (i >= to || chars.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return i == to ? address : -1;
+    }
+
+    private static long parseIpv6(CharSequence chars, int from, int to, int ipv4Prefix, int ipv6Prefix) {
+        int zone = from;
+        while (zone < to && chars.charAt(zone) != '%') {
+            zone++;
+        }
+        to = zone;
+        // groups before "::" are shifted into head, groups after it into tail
+        long headHi = 0;
+        long headLo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int headGroups = 0;
+        int tailGroups = 0;
+        boolean compressed = false;
+        int i = from;
+        if (to - i >= 2 && chars.charAt(i) == ':' && chars.charAt(i + 1) == ':') {
+            compressed = true;
+            i += 2;
+        }
+        while (i < to) {
+            int groupStart = i;
+            int value = 0;
+            while (i < to && i - groupStart < 5) {
+                int digit = Character.digit(chars.charAt(i), 16);
+                if (digit < 0) {
+                    break;
+                }
+                value = (value << 4) | digit;
+                i++;
+            }
+            int groups = 1;
+            long groupBits;
+            if (i < to && chars.charAt(i) == '.') {
+                long ipv4 = parseIpv4(chars, groupStart, to);
+                if (ipv4 < 0) {
+                    return NOT_AN_ADDRESS;
+                }
+                groups = 2;
+                groupBits = ipv4;
+                i = to;
+            } else {
+                if (i == groupStart || i - groupStart > 4) {
+                    return NOT_AN_ADDRESS;
+                }
+                groupBits = value;
+            }
+            int shift = 16 * groups;
+            if (compressed) {
+                tailHi = (tailHi << shift) | (tailLo >>> (64 - shift));
+                tailLo = (tailLo << shift) | groupBits;
+                tailGroups += groups;
+            } else {
+                headHi = (headHi << shift) | (headLo >>> (64 - shift));
+                headLo = (headLo << shift) | groupBits;
+                headGroups += groups;
+            }
+            if (headGroups + tailGroups > 8) {
+                return NOT_AN_ADDRESS;
+            }
+            if (i == to) {
+                break;
+            }
+            if (chars.charAt(i) != ':') {
+                return NOT_AN_ADDRESS;
+            }
+            i++;
+            if (i < to && chars.charAt(i) == ':') {
+                if (compressed) {
+                    return NOT_AN_ADDRESS;
+                }
+                compressed = true;
+                i++;
+            } else if (i == to) {
+                return NOT_AN_ADDRESS;
+            }
+        }
+        if (compressed ? headGroups + tailGroups > 7 : headGroups != 8) {
+            return NOT_AN_ADDRESS;
+        }
+        // move the head groups to the top of the address and combine them with the tail
+        int shift = 16 * (8 - headGroups);
+        long hi;
+        long lo;
+        if (shift == 0) {
+            hi = headHi;
+            lo = headLo;
+        } else if (shift >= 128) {
+            hi = 0;
+            lo = 0;
+        } else if (shift >= 64) {
+            hi = headLo << (shift - 64);
+            lo = 0;
+        } else {
+            hi = (headHi << shift) | (headLo >>> (64 - shift));
+            lo = headLo << shift;
+        }
+        hi |= tailHi;
+        lo |= tailLo;
+        if (hi == 0 && (lo >>> 32) == 0xffffL) {
+            return ipv4Key(lo & 0xffffffffL, ipv4Prefix);
+        }
+        return ipv6Key(hi, lo, ipv6Prefix);
+    }
+
+    /**
+     * Returns a readable form of a primitive client key: the dotted address for IPv4 keys, otherwise the hexadecimal
+     * key (IPv6 keys and hashed keys cannot be reversed).
+     *
+     * @param key the primitive client key
+     * @return the readable key
+     */
+    public static String describe(long key) {
+        if ((key >>> 32) == 1) {
+            return ((key >>> 24) & 0xff) + "." + ((key >>> 16) & 0xff) + "." + ((key >>> 8) & 0xff) + "." + (key & 0xff);
+        }
+        return "#" + Long.toHexString(key);
+    }
+
+    private static long ipv4Key(long address, int prefix) {
+        long mask = prefix <= 0 ? 0 : (0xffffffffL << (32 - Math.min(prefix, 32))) & 0xffffffffL;
+        return IPV4_TAG | (address & mask);
+    }
+
+    private static long ipv6Key(long hi, long lo, int prefix) {
+        hi &= topBitsMask(prefix);
+        lo &= topBitsMask(prefix - 64);
+        long h = hi * 0x9e3779b97f4a7c15L + lo;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return h == NOT_AN_ADDRESS ? 1 : h;
+    }
+
+    private static long topBitsMask(int bits) {
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits >= 64 ? -1L : -1L << (64 - bits);
+    }
+}
@@ -0,0 +1,28 @@
+package ua.com.pragmasoft.ratelimiter.client_key;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+/**
+ * Strategy interface for extracting a client key from a reactive HTTP request, the counterpart of
+ * {@link ClientKeyStrategy} for non-blocking servers.
+ */
+public interface ReactiveClientKeyStrategy {
+    /**
+     * Retrieves a unique client key from the given HTTP request.
+     *
+     * @param request the HTTP request
+     * @return the client key
+     */
+    String getClientKey(ServerHttpRequest request);
+
+    /**
+     * Retrieves the client key from the given HTTP request as a 64-bit hash.
+     * Implementations can override this to derive the key without allocating a String.
+     *
+     * @param request the HTTP request
+     * @return the client key hash
+     */
+    default long getClientKeyHash(ServerHttpRequest request) {
+        return ClientKeyHash.of(getClientKey(request));
+    }
+}
@@ -0,0 +1,220 @@
+package ua.com.pragmasoft.ratelimiter.concurrency;
+
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests in flight to the downstream, adapting the limit to the latency the downstream
+ * shows, so that an overloaded backend sheds excess requests instead of queueing them.
+ * <p>
+ * Admission is one compare-and-set of the in-flight count against the current limit. Completed requests report their
+ * latency into striped adders; once per window of {@code windowNanos} (and at least {@value #MIN_WINDOW_SAMPLES}
+ * samples) the thread that completes a request moves the limit with the configured {@link ConcurrencyAlgorithm}.
+ * That update is guarded by a {@link ReentrantLock} taken with {@code tryLock}, so no request waits for it and a
+ * virtual thread does not pin its carrier.
+ * <p>
+ * The latency baseline of {@link ConcurrencyAlgorithm#GRADIENT} is the lowest window latency. Under sustained
+ * overload every window includes some queueing, so a baseline that followed the observed latency would drift
+ * upwards and with it the limit. Instead, every {@value #PROBE_WINDOWS} windows the limiter probes: it halves the
+ * limit for two windows, the first draining the queue and the second measuring the baseline afresh, which also
+ * picks up a downstream that has become slower for good.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * The number of windows between two probes of the latency baseline.
+     */
+    static final int PROBE_WINDOWS = 100;
+
+    private static final int ADAPTING = 0;
+    private static final int DRAINING = 1;
+    private static final int MEASURING = 2;
+
+    private final ConcurrencyAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long windowNanos;
+    private final long latencyThresholdNanos;
+    private final TimeSource timeSource;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder windowRttNanos = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAdder windowDrops = new LongAdder();
+    private final LongAdder shedCount = new LongAdder();
+    private volatile int limit;
+    private volatile long windowStart;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private double estimate;
+    private double baselineRttNanos;
+    private int phase = ADAPTING;
+    private int windowsUntilProbe = PROBE_WINDOWS;
+
+    /**
+     * Constructs an {@link AdaptiveConcurrencyLimiter} on the system clock.
+     *
+     * @param algorithm             the algorithm moving the limit
+     * @param initialLimit          the limit before the first window completes
+     * @param minLimit              the lowest limit, at least 1
+     * @param maxLimit              the highest limit
+     * @param windowNanos           the minimum duration of a sampling window in nanoseconds
+     * @param latencyThresholdNanos the latency above which {@link ConcurrencyAlgorithm#AIMD} backs off
+     * @throws IllegalArgumentException if the limits are not ordered or the minimum is below 1
+     */
+    public AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit,
+                                      long windowNanos, long latencyThresholdNanos) {
+        this(algorithm, initialLimit, minLimit, maxLimit, windowNanos, latencyThresholdNanos, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs an {@link AdaptiveConcurrencyLimiter} on the given clock, e.g. a simulated one.
+     *
+     * @param algorithm             the algorithm moving the limit
+     * @param initialLimit          the limit before the first window completes
+     * @param minLimit              the lowest limit, at least 1
+     * @param maxLimit              the highest limit
+     * @param windowNanos           the minimum duration of a sampling window in nanoseconds
+     * @param latencyThresholdNanos the latency above which {@link ConcurrencyAlgorithm#AIMD} backs off
+     * @param timeSource            the clock ending the windows
+     * @throws IllegalArgumentException if the limits are not ordered or the minimum is below 1
+     */
+    public AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit,
+                                      long windowNanos, long latencyThresholdNanos, TimeSource timeSource) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Concurrency limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.algorithm = algorithm;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowNanos = windowNanos;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.timeSource = timeSource;
+        this.limit = initialLimit;
+        this.estimate = initialLimit;
+        this.windowStart = timeSource.nanoTime();
+    }
+
+    /**
+     * Admits a request if fewer than the current limit are in flight. Every admitted request must be followed by
+     * exactly one {@link #release(long, boolean)}.
+     *
+     * @return {@code true} if the request may proceed
+     */
+    public boolean tryAcquire() {
+        int current = inFlight.get();
+        while (true) {
+            if (current >= limit) {
+                shedCount.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                peakInFlight.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+            current = inFlight.get();
+        }
+    }
+
+    /**
+     * Completes an admitted request and records its latency.
+     *
+     * @param rttNanos the time the request spent downstream, in nanoseconds
+     * @param dropped  {@code true} if the downstream failed or timed out, which counts as a sign of overload
+     */
+    public void release(long rttNanos, boolean dropped) {
+        inFlight.decrementAndGet();
+        windowRttNanos.add(rttNanos);
+        windowSamples.increment();
+        if (dropped) {
+            windowDrops.increment();
+        }
+        long now = timeSource.nanoTime();
+        if (now - windowStart >= windowNanos && lock.tryLock()) {
+            try {
+                if (now - windowStart >= windowNanos) {
+                    endWindow(now);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void endWindow(long now) {
+        long samples = windowSamples.sum();
+        if (samples < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        // samples recorded between the sums and the resets fall into the next window
+        windowSamples.add(-samples);
+        long rttSum = windowRttNanos.sumThenReset();
+        long drops = windowDrops.sumThenReset();
+        int peak = peakInFlight.getAndSet(inFlight.get());
+        windowStart = now;
+
+        double rtt = Math.max(1, (double) rttSum / samples);
+        if (phase == DRAINING) {
+            phase = MEASURING;
+            return;
+        }
+        if (phase == MEASURING) {
+            baselineRttNanos = rtt;
+            phase = ADAPTING;
+            limit = (int) estimate;
+            return;
+        }
+        baselineRttNanos = baselineRttNanos == 0 ? rtt : Math.min(baselineRttNanos, rtt);
+        ConcurrencyAlgorithm.Window window = new ConcurrencyAlgorithm.Window(rtt, baselineRttNanos, peak, drops);
+        estimate = Math.max(minLimit, Math.min(maxLimit, algorithm.update(estimate, window, latencyThresholdNanos)));
+        if (algorithm.probesBaseline() && --windowsUntilProbe == 0) {
+            windowsUntilProbe = PROBE_WINDOWS;
+            phase = DRAINING;
+            limit = Math.max(minLimit, (int) (estimate / 2));
+        } else {
+            limit = (int) estimate;
+        }
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the maximum number of requests in flight
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the number of requests currently in flight.
+     *
+     * @return the in-flight count
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of requests shed since startup.
+     *
+     * @return the shed count
+     */
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    /**
+     * Returns the clock the latencies should be measured with.
+     *
+     * @return the time source
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+}
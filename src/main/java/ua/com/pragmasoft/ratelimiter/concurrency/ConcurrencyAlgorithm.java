@@ -0,0 +1,82 @@
+package ua.com.pragmasoft.ratelimiter.concurrency;
+
+/**
+ * The ways an {@link AdaptiveConcurrencyLimiter} moves its limit at the end of each sampling window.
+ */
+public enum ConcurrencyAlgorithm {
+
+    /**
+     * Additive increase, multiplicative decrease: the limit grows by one while it is used and the latency stays
+     * under the threshold, and shrinks by a tenth when the latency exceeds it or the downstream fails.
+     */
+    AIMD {
+        @Override
+        double update(double limit, Window window, long latencyThresholdNanos) {
+            if (window.drops() > 0 || window.rttNanos() > latencyThresholdNanos) {
+                return limit * BACKOFF;
+            }
+            return window.peakInFlight() * 2 >= limit ? limit + 1 : limit;
+        }
+
+        @Override
+        boolean probesBaseline() {
+            return false;
+        }
+    },
+
+    /**
+     * Gradient of the latency against its long-term baseline: the limit follows {@code baseline / current}, clamped
+     * to {@code [0.5, 1]}, plus a headroom of {@code sqrt(limit)} requests for queueing, and is smoothed across
+     * windows. No threshold has to be configured, and the limit shrinks as soon as requests start to queue. The
+     * baseline is the lowest window latency, measured again by a periodic probe at half the limit.
+     */
+    GRADIENT {
+        @Override
+        double update(double limit, Window window, long latencyThresholdNanos) {
+            if (window.drops() == 0 && window.peakInFlight() * 2 < limit) {
+                // the limit is not what holds the traffic back, so the latency says nothing about it
+                return limit;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, window.baselineRttNanos() / window.rttNanos()));
+            double target = limit * gradient + Math.sqrt(limit);
+            return limit * (1 - SMOOTHING) + target * SMOOTHING;
+        }
+
+        @Override
+        boolean probesBaseline() {
+            return true;
+        }
+    };
+
+    static final double BACKOFF = 0.9;
+    static final double SMOOTHING = 0.2;
+
+    /**
+     * Computes the limit for the next window.
+     *
+     * @param limit                 the current limit, unrounded
+     * @param window                the samples of the window that just ended
+     * @param latencyThresholdNanos the latency above which {@link #AIMD} backs off
+     * @return the new limit, before it is clamped to the configured bounds
+     */
+    abstract double update(double limit, Window window, long latencyThresholdNanos);
+
+    /**
+     * Tells whether the algorithm relies on the latency baseline, which the limiter then measures again from time to
+     * time with the queue drained.
+     *
+     * @return {@code true} if the baseline is probed
+     */
+    abstract boolean probesBaseline();
+
+    /**
+     * The samples of one window.
+     *
+     * @param rttNanos         the average latency of the window
+     * @param baselineRttNanos the latency without queueing, as far as the limiter has measured it
+     * @param peakInFlight     the most requests in flight at once during the window
+     * @param drops            the number of requests that failed downstream
+     */
+    record Window(double rttNanos, double baselineRttNanos, int peakInFlight, long drops) {
+    }
+}
@@ -1,17 +1,58 @@
 package ua.com.pragmasoft.ratelimiter.config;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import ua.com.pragmasoft.ratelimiter.ConcurrencyLimitFilter;
 import ua.com.pragmasoft.ratelimiter.LimitRateFilter;
+import ua.com.pragmasoft.ratelimiter.ReactiveLimitRateFilter;
 import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy;
 import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.ReactiveClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.concurrency.AdaptiveConcurrencyLimiter;
+import ua.com.pragmasoft.ratelimiter.concurrency.ConcurrencyAlgorithm;
+import ua.com.pragmasoft.ratelimiter.metrics.LimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketEvictor;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketSnapshotter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStoreFactory;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CachedTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LeasingBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisFallback;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Configuration class for setting up the rate limiter filter and client key strategy bean.
  */
 @Configuration
+@EnableConfigurationProperties(RateLimitPolicyProperties.class)
 public class LimitRateConfig {
 
     /**
@@ -22,26 +63,477 @@ public class LimitRateConfig {
      * @return the filter registration bean
      */
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public FilterRegistrationBean<LimitRateFilter> rateLimiterFilter(LimitRateFilter limitRateFilter) {
         FilterRegistrationBean<LimitRateFilter> registrationBean = new FilterRegistrationBean<>();
         registrationBean.setFilter(limitRateFilter);
         registrationBean.addUrlPatterns("/*");
+        registrationBean.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+        return registrationBean;
+    }
+
+    /**
+     * Registers the {@link ConcurrencyLimitFilter} right after the {@link LimitRateFilter}.
+     *
+     * @param concurrencyLimitFilter filter
+     * @return the filter registration bean
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "token.adaptive.enabled", havingValue = "true")
+    public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilterRegistration(
+            ConcurrencyLimitFilter concurrencyLimitFilter) {
+        FilterRegistrationBean<ConcurrencyLimitFilter> registrationBean = new FilterRegistrationBean<>();
+        registrationBean.setFilter(concurrencyLimitFilter);
+        registrationBean.addUrlPatterns("/*");
+        registrationBean.setOrder(Ordered.LOWEST_PRECEDENCE);
         return registrationBean;
     }
 
     /**
-     * Creates and returns an {@link IPClientKeyStrategy} bean.
+     * Creates the {@link AdaptiveConcurrencyLimiter} shedding load once the application slows down, enabled with
+     * {@code token.adaptive.enabled=true}.
+     *
+     * @param algorithm          the algorithm moving the limit
+     * @param initialLimit       the limit of requests in flight at startup
+     * @param minLimit           the lowest limit
+     * @param maxLimit           the highest limit
+     * @param windowMillis       the minimum duration of a sampling window
+     * @param latencyThresholdMs the latency above which the {@code aimd} algorithm backs off
+     * @param timeSource         the clock measuring the latencies
+     * @return the concurrency limiter
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.adaptive.enabled", havingValue = "true")
+    public AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter(
+            @Value("${token.adaptive.algorithm:gradient}") ConcurrencyAlgorithm algorithm,
+            @Value("${token.adaptive.initial-limit:20}") int initialLimit,
+            @Value("${token.adaptive.min-limit:1}") int minLimit,
+            @Value("${token.adaptive.max-limit:1000}") int maxLimit,
+            @Value("${token.adaptive.window-ms:100}") long windowMillis,
+            @Value("${token.adaptive.latency-threshold-ms:500}") long latencyThresholdMs,
+            TimeSource timeSource) {
+        return new AdaptiveConcurrencyLimiter(algorithm, initialLimit, minLimit, maxLimit,
+                TimeUnit.MILLISECONDS.toNanos(windowMillis), TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs),
+                timeSource);
+    }
+
+    /**
+     * Creates the {@link ConcurrencyLimitFilter}.
      *
+     * @param limiter    the adaptive concurrency limiter
+     * @param shedStatus the status of shed requests, 503 by default or 429
+     * @return the filter
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "token.adaptive.enabled", havingValue = "true")
+    public ConcurrencyLimitFilter concurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter,
+                                                         @Value("${token.adaptive.status:503}") int shedStatus) {
+        return new ConcurrencyLimitFilter(limiter, shedStatus);
+    }
+
+    /**
+     * Creates and returns an {@link IPClientKeyStrategy} bean, which serves both servlet and reactive requests.
+     *
+     * @param ipv4Prefix the IPv4 prefix length that clients are aggregated by
+     * @param ipv6Prefix the IPv6 prefix length that clients are aggregated by
      * @return the IP client key strategy
      */
     @Bean
     @Qualifier("ipClientKeyStrategy")
-    public ClientKeyStrategy ipClientKeyStrategy() {
-        return new IPClientKeyStrategy();
+    public IPClientKeyStrategy ipClientKeyStrategy(
+            @Value("${token.key.ipv4-prefix:32}") int ipv4Prefix,
+            @Value("${token.key.ipv6-prefix:128}") int ipv6Prefix) {
+        return new IPClientKeyStrategy(ipv4Prefix, ipv6Prefix);
+    }
+
+    /**
+     * Creates the default clock of the in-memory buckets, which reads {@link System#nanoTime()} on every request.
+     *
+     * @return the time source
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.clock", havingValue = "system", matchIfMissing = true)
+    public TimeSource systemTimeSource() {
+        return TimeSource.SYSTEM;
+    }
+
+    /**
+     * Creates the cached clock of the in-memory buckets, enabled with {@code token.clock=cached}: a background
+     * ticker refreshes the reading, so the request path reads one volatile field.
+     *
+     * @param tickMicros the interval between refreshes in microseconds
+     * @return the time source
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "token.clock", havingValue = "cached")
+    public CachedTimeSource cachedTimeSource(@Value("${token.clock.tick-us:100}") long tickMicros) {
+        return new CachedTimeSource(TimeUnit.MICROSECONDS.toNanos(tickMicros));
+    }
+
+    /**
+     * Creates the {@link BucketEvictor} that removes idle buckets of every rule namespace on a background thread.
+     *
+     * @param policy            the rate limit policy holding the bucket stores
+     * @param idleTtlMillis     the idle time after which a refilled bucket is evicted
+     * @param maxEntries        the maximum number of buckets to keep
+     * @param sliceBudgetMillis the time budget of a single sweep slice
+     * @param intervalMillis    the delay between sweep slices
+     * @return the bucket evictor
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "map", matchIfMissing = true)
+    public BucketEvictor bucketEvictor(
+            RateLimitPolicy policy,
+            @Value("${token.eviction.idle-ttl-ms:60000}") long idleTtlMillis,
+            @Value("${token.eviction.max-entries:1000000}") int maxEntries,
+            @Value("${token.eviction.slice-budget-ms:2}") long sliceBudgetMillis,
+            @Value("${token.eviction.interval-ms:100}") long intervalMillis) {
+        List<ConcurrentMapBucketStore> stores = policy.getStores().stream()
+                .filter(ConcurrentMapBucketStore.class::isInstance)
+                .map(ConcurrentMapBucketStore.class::cast)
+                .toList();
+        return new BucketEvictor(stores, idleTtlMillis, maxEntries,
+                TimeUnit.MILLISECONDS.toNanos(sliceBudgetMillis), intervalMillis);
+    }
+
+    /**
+     * Creates the default {@link ConcurrentMapBucketStore}, which keeps a bucket object per client key.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param algorithm  the limiter algorithm of the buckets
+     * @param timeSource the clock of the buckets
+     * @return the bucket store
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "map", matchIfMissing = true)
+    public ConcurrentMapBucketStore concurrentMapBucketStore(
+            @Value("${token.size:5}") long size,
+            @Value("${token.refill:10}") long refillRate,
+            @Value("${token.algorithm:token-bucket}") LimiterAlgorithm algorithm,
+            TimeSource timeSource) {
+        return new ConcurrentMapBucketStore(size, refillRate, algorithm, timeSource);
+    }
+
+    /**
+     * Creates the factory of the {@link ConcurrentMapBucketStore} of each rate limit rule.
+     *
+     * @param timeSource the clock of the buckets
+     * @return the bucket store factory
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "map", matchIfMissing = true)
+    public BucketStoreFactory concurrentMapBucketStoreFactory(TimeSource timeSource) {
+        return (namespace, size, refillRate, algorithm) ->
+                new ConcurrentMapBucketStore(size, refillRate, algorithm, timeSource);
+    }
+
+    /**
+     * Creates the fixed-capacity {@link CompactBucketStore}, enabled with {@code token.store.type=compact}.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param capacity   the number of client slots
+     * @param timeSource the clock of the buckets
+     * @return the bucket store
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "compact")
+    public CompactBucketStore compactBucketStore(
+            @Value("${token.size:5}") long size,
+            @Value("${token.refill:10}") long refillRate,
+            @Value("${token.store.capacity:1048576}") int capacity,
+            TimeSource timeSource) {
+        return new CompactBucketStore(size, refillRate, capacity, timeSource);
+    }
+
+    /**
+     * Creates the factory of the {@link CompactBucketStore} of each rate limit rule. Every rule gets a table of the
+     * configured capacity; the algorithm is always the token bucket.
+     *
+     * @param capacity   the number of client slots per rule
+     * @param timeSource the clock of the buckets
+     * @return the bucket store factory
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "compact")
+    public BucketStoreFactory compactBucketStoreFactory(@Value("${token.store.capacity:1048576}") int capacity,
+                                                        TimeSource timeSource) {
+        return (namespace, size, refillRate, algorithm) ->
+                new CompactBucketStore(size, refillRate, capacity, timeSource);
+    }
+
+    /**
+     * Creates the {@link BucketSnapshotter} that persists the {@link CompactBucketStore} of every rule and level
+     * namespace, such as the per-address, subnet and API key levels, each in a file named after it. Enabled by
+     * setting {@code token.store.snapshot.dir} with {@code token.store.type=compact}. The snapshots are restored when
+     * the bean starts, before the server accepts requests.
+     *
+     * @param policy         the rate limit policy holding the bucket stores
+     * @param directory      the directory of the snapshot files
+     * @param intervalMillis the delay between snapshots
+     * @return the bucket snapshotter
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnExpression("'${token.store.type:map}' == 'compact' and '${token.store.snapshot.dir:}' != ''")
+    public BucketSnapshotter bucketSnapshotter(
+            RateLimitPolicy policy,
+            @Value("${token.store.snapshot.dir}") Path directory,
+            @Value("${token.store.snapshot.interval-ms:10000}") long intervalMillis) {
+        Map<String, CompactBucketStore> stores = new LinkedHashMap<>();
+        policy.getStoresByName().forEach((name, store) -> {
+            if (store instanceof CompactBucketStore compact) {
+                stores.put(name, compact);
+            }
+        });
+        return new BucketSnapshotter(stores, directory, intervalMillis);
+    }
+
+    /**
+     * Creates the Redis connection pool used by the {@link RedisBucketStore} and the {@link LeasingBucketStore}.
+     *
+     * @param uri      the Redis URI
+     * @param maxTotal the maximum number of pooled connections
+     * @return the connection pool
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression("'${token.store.type:map}' == 'redis' or '${token.store.type:map}' == 'leasing'")
+    public JedisPool jedisPool(
+            @Value("${token.store.redis.uri:redis://localhost:6379}") URI uri,
+            @Value("${token.store.redis.pool-size:64}") int maxTotal) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(maxTotal);
+        poolConfig.setMaxIdle(maxTotal);
+        return new JedisPool(poolConfig, uri);
+    }
+
+    /**
+     * Creates the executor of the asynchronous calls of every {@link RedisBucketStore}, one thread per pooled
+     * connection, shut down with the context.
+     *
+     * @param jedisPool the Redis connection pool
+     * @return the executor
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    @ConditionalOnExpression("'${token.store.type:map}' == 'redis' or '${token.store.type:map}' == 'leasing'")
+    public ExecutorService redisStoreExecutor(JedisPool jedisPool) {
+        return RedisBucketStore.newExecutor(jedisPool);
+    }
+
+    /**
+     * Creates the decision of every {@link RedisBucketStore} while Redis cannot be reached or times out: admit the
+     * requests, or reject them with the configured retry time.
+     *
+     * @param mode             {@code admit} to fail open, {@code reject} to fail closed
+     * @param retryAfterMillis the retry time of requests rejected by the fallback, in milliseconds
+     * @return the Redis fallback
+     */
+    @Bean
+    @ConditionalOnExpression("'${token.store.type:map}' == 'redis' or '${token.store.type:map}' == 'leasing'")
+    public RedisFallback redisFallback(
+            @Value("${token.store.redis.fallback:admit}") String mode,
+            @Value("${token.store.redis.fallback-retry-after-ms:1000}") long retryAfterMillis) {
+        return new RedisFallback(RedisFallback.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)), retryAfterMillis);
+    }
+
+    /**
+     * Creates the scheduler of the background sync of every {@link LeasingBucketStore}, one thread per processor,
+     * shut down with the context.
+     *
+     * @return the scheduler
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "leasing")
+    public ScheduledExecutorService leaseSyncScheduler() {
+        return LeasingBucketStore.newScheduler();
+    }
+
+    /**
+     * Creates the {@link RedisBucketStore} shared by all instances, enabled with {@code token.store.type=redis}.
+     *
+     * @param jedisPool     the Redis connection pool
+     * @param size          the maximum number of tokens in each bucket
+     * @param refillRate    the rate at which tokens are added (tokens per second)
+     * @param keyPrefix     the prefix of the Redis keys
+     * @param idleTtlMillis the time a refilled bucket is kept before it expires
+     * @param executor      the shared executor of asynchronous calls
+     * @param fallback      the decision taken while Redis is unavailable
+     * @return the bucket store
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "redis")
+    public RedisBucketStore redisBucketStore(
+            JedisPool jedisPool,
+            @Value("${token.size:5}") long size,
+            @Value("${token.refill:10}") long refillRate,
+            @Value("${token.store.redis.key-prefix:ratelimiter:}") String keyPrefix,
+            @Value("${token.eviction.idle-ttl-ms:60000}") long idleTtlMillis,
+            @Qualifier("redisStoreExecutor") ExecutorService executor,
+            RedisFallback fallback) {
+        return new RedisBucketStore(jedisPool, size, refillRate, keyPrefix, idleTtlMillis, executor, fallback);
+    }
+
+    /**
+     * Creates the factory of the {@link RedisBucketStore} of each rate limit rule, whose keys are prefixed with
+     * the rule name. The algorithm is always the token bucket.
+     *
+     * @param jedisPool     the Redis connection pool
+     * @param keyPrefix     the prefix of the Redis keys
+     * @param idleTtlMillis the time a refilled bucket is kept before it expires
+     * @param executor      the executor of asynchronous calls, shared by all namespaces
+     * @param fallback      the decision taken while Redis is unavailable, shared by all namespaces
+     * @return the bucket store factory
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "redis")
+    public BucketStoreFactory redisBucketStoreFactory(
+            JedisPool jedisPool,
+            @Value("${token.store.redis.key-prefix:ratelimiter:}") String keyPrefix,
+            @Value("${token.eviction.idle-ttl-ms:60000}") long idleTtlMillis,
+            @Qualifier("redisStoreExecutor") ExecutorService executor,
+            RedisFallback fallback) {
+        return (namespace, size, refillRate, algorithm) -> new RedisBucketStore(jedisPool, size, refillRate,
+                keyPrefix + namespace + ":", idleTtlMillis, executor, fallback);
+    }
+
+    /**
+     * Creates the {@link LeasingBucketStore}, enabled with {@code token.store.type=leasing}, which serves requests
+     * from tokens leased from the shared Redis buckets.
+     *
+     * @param jedisPool          the Redis connection pool
+     * @param size               the maximum number of tokens in each bucket
+     * @param refillRate         the rate at which tokens are added (tokens per second)
+     * @param keyPrefix          the prefix of the Redis keys
+     * @param idleTtlMillis      the time a refilled bucket is kept before it expires
+     * @param maxLease           the maximum number of tokens leased at once per key
+     * @param syncIntervalMillis the interval of the background sync
+     * @param timeSource         the clock of the lease timing
+     * @param executor           the shared executor of asynchronous Redis calls
+     * @param scheduler          the shared scheduler of the background sync
+     * @param fallback           the decision taken while Redis is unavailable
+     * @return the bucket store
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "leasing")
+    public LeasingBucketStore leasingBucketStore(
+            JedisPool jedisPool,
+            @Value("${token.size:5}") long size,
+            @Value("${token.refill:10}") long refillRate,
+            @Value("${token.store.redis.key-prefix:ratelimiter:}") String keyPrefix,
+            @Value("${token.eviction.idle-ttl-ms:60000}") long idleTtlMillis,
+            @Value("${token.store.lease.max:64}") long maxLease,
+            @Value("${token.store.lease.sync-interval-ms:100}") long syncIntervalMillis,
+            TimeSource timeSource,
+            @Qualifier("redisStoreExecutor") ExecutorService executor,
+            @Qualifier("leaseSyncScheduler") ScheduledExecutorService scheduler,
+            RedisFallback fallback) {
+        RedisBucketStore shared = new RedisBucketStore(jedisPool, size, refillRate, keyPrefix, idleTtlMillis,
+                executor, fallback);
+        return new LeasingBucketStore(shared, refillRate, maxLease, syncIntervalMillis, timeSource, scheduler);
+    }
+
+    /**
+     * Creates the factory of the {@link LeasingBucketStore} of each rate limit rule, leasing from Redis keys
+     * prefixed with the rule name.
+     *
+     * @param jedisPool          the Redis connection pool
+     * @param keyPrefix          the prefix of the Redis keys
+     * @param idleTtlMillis      the time a refilled bucket is kept before it expires
+     * @param maxLease           the maximum number of tokens leased at once per key
+     * @param syncIntervalMillis the interval of the background sync
+     * @param timeSource         the clock of the lease timing
+     * @param executor           the executor of asynchronous Redis calls, shared by all namespaces
+     * @param scheduler          the scheduler of the background sync, shared by all namespaces
+     * @param fallback           the decision taken while Redis is unavailable, shared by all namespaces
+     * @return the bucket store factory
+     */
+    @Bean
+    @ConditionalOnProperty(name = "token.store.type", havingValue = "leasing")
+    public BucketStoreFactory leasingBucketStoreFactory(
+            JedisPool jedisPool,
+            @Value("${token.store.redis.key-prefix:ratelimiter:}") String keyPrefix,
+            @Value("${token.eviction.idle-ttl-ms:60000}") long idleTtlMillis,
+            @Value("${token.store.lease.max:64}") long maxLease,
+            @Value("${token.store.lease.sync-interval-ms:100}") long syncIntervalMillis,
+            TimeSource timeSource,
+            @Qualifier("redisStoreExecutor") ExecutorService executor,
+            @Qualifier("leaseSyncScheduler") ScheduledExecutorService scheduler,
+            RedisFallback fallback) {
+        return (namespace, size, refillRate, algorithm) -> new LeasingBucketStore(
+                new RedisBucketStore(jedisPool, size, refillRate, keyPrefix + namespace + ":", idleTtlMillis,
+                        executor, fallback),
+                refillRate, maxLease, syncIntervalMillis, timeSource, scheduler);
+    }
+
+    /**
+     * Compiles the configured rate limit rules and levels into the {@link RateLimitPolicy}. Requests that match no
+     * rule are limited by the default bucket store. The stores of the rules and levels are closed with the context.
+     *
+     * @param properties   the configured rules and levels
+     * @param storeFactory the factory of the bucket store of each rule
+     * @param defaultStore the default bucket store
+     * @param size         the default bucket size of the rules
+     * @param refillRate   the default refill rate of the rules
+     * @param algorithm    the default limiter algorithm of the rules
+     * @param timeSource   the clock of the global levels
+     * @return the rate limit policy
+     */
+    @Bean(destroyMethod = "close")
+    public RateLimitPolicy rateLimitPolicy(
+            RateLimitPolicyProperties properties,
+            BucketStoreFactory storeFactory,
+            BucketStore defaultStore,
+            @Value("${token.size:5}") long size,
+            @Value("${token.refill:10}") long refillRate,
+            @Value("${token.algorithm:token-bucket}") LimiterAlgorithm algorithm,
+            TimeSource timeSource) {
+        List<RateLimitRule> rules = properties.getRules().stream()
+                .map(rule -> rule.toRule(size, refillRate, algorithm))
+                .toList();
+        List<LimitLevel> levels = properties.getLevels().stream()
+                .map(level -> level.toLevel(size, refillRate, algorithm, storeFactory, timeSource))
+                .toList();
+        return new RateLimitPolicy(rules, levels, storeFactory, defaultStore, properties.getTierHeader());
+    }
+
+    /**
+     * Creates the {@code ratelimiterpolicy} actuator endpoint, which changes the limits of the rules at runtime.
+     * Like any actuator endpoint it is only reachable over HTTP once exposed with
+     * {@code management.endpoints.web.exposure.include}.
+     *
+     * @param policy the rate limit policy
+     * @return the endpoint
+     */
+    @Bean
+    public RateLimitPolicyEndpoint rateLimitPolicyEndpoint(RateLimitPolicy policy) {
+        return new RateLimitPolicyEndpoint(policy);
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public LimitRateFilter limitRateFilter(@Qualifier("ipClientKeyStrategy") ClientKeyStrategy clientKeyStrategy,
+                                           RateLimitPolicy policy,
+                                           ObjectProvider<LimiterMetrics> metrics) {
+        return new LimitRateFilter(clientKeyStrategy, policy, metrics.getIfAvailable(() -> LimiterMetrics.NOOP));
     }
 
+    /**
+     * Creates the {@link ReactiveLimitRateFilter} when the application runs on a reactive server such as Netty.
+     *
+     * @param clientKeyStrategy the strategy for extracting client keys
+     * @param policy            the rate limit policy
+     * @param metrics           the limiter metrics, if any
+     * @return the reactive filter
+     */
     @Bean
-    public LimitRateFilter limitRateFilter(@Qualifier("ipClientKeyStrategy") ClientKeyStrategy clientKeyStrategy) {
-        return new LimitRateFilter(clientKeyStrategy);
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public ReactiveLimitRateFilter reactiveLimitRateFilter(
+            @Qualifier("ipClientKeyStrategy") ReactiveClientKeyStrategy clientKeyStrategy,
+            RateLimitPolicy policy,
+            ObjectProvider<LimiterMetrics> metrics) {
+        return new ReactiveLimitRateFilter(clientKeyStrategy, policy,
+                metrics.getIfAvailable(() -> LimiterMetrics.NOOP));
     }
 }
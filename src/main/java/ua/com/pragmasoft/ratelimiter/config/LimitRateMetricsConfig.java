@@ -0,0 +1,67 @@
+package ua.com.pragmasoft.ratelimiter.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ua.com.pragmasoft.ratelimiter.concurrency.AdaptiveConcurrencyLimiter;
+import ua.com.pragmasoft.ratelimiter.metrics.MicrometerLimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.metrics.RateLimiterEndpoint;
+import ua.com.pragmasoft.ratelimiter.metrics.TopKeysSketch;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketEvictor;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisFallback;
+
+/**
+ * Configuration class for the rate limiter metrics, enabled unless {@code token.metrics.enabled=false}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "token.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class LimitRateMetricsConfig {
+
+    /**
+     * Creates the Micrometer-backed limiter metrics and binds the eviction, concurrency and Redis fallback meters if
+     * an evictor, an adaptive concurrency limiter and a Redis fallback are present.
+     *
+     * @param registry           the meter registry
+     * @param bucketStore        the bucket store
+     * @param evictor            the bucket evictor, if any
+     * @param concurrencyLimiter the adaptive concurrency limiter, if any
+     * @param redisFallback      the Redis fallback, if any
+     * @param topRejected        the number of most rejected clients to track, 0 to disable tracking
+     * @return the limiter metrics
+     */
+    @Bean
+    public MicrometerLimiterMetrics limiterMetrics(
+            MeterRegistry registry,
+            BucketStore bucketStore,
+            ObjectProvider<BucketEvictor> evictor,
+            ObjectProvider<AdaptiveConcurrencyLimiter> concurrencyLimiter,
+            ObjectProvider<RedisFallback> redisFallback,
+            @Value("${token.metrics.top-rejected-keys:10}") int topRejected) {
+        evictor.ifAvailable(e -> MicrometerLimiterMetrics.bindEvictor(registry, e));
+        concurrencyLimiter.ifAvailable(l -> MicrometerLimiterMetrics.bindConcurrencyLimiter(registry, l));
+        redisFallback.ifAvailable(f -> MicrometerLimiterMetrics.bindRedisFallback(registry, f));
+        TopKeysSketch rejectedKeys = topRejected > 0 ? new TopKeysSketch(topRejected, 4096) : null;
+        return new MicrometerLimiterMetrics(registry, bucketStore, rejectedKeys);
+    }
+
+    /**
+     * Creates the {@code ratelimiter} actuator endpoint, which lists the most rejected clients by pseudonym unless
+     * {@code token.metrics.expose-client-keys=true}.
+     *
+     * @param bucketStore      the bucket store
+     * @param metrics          the limiter metrics
+     * @param exposeClientKeys whether to list readable client keys
+     * @return the endpoint
+     */
+    @Bean
+    public RateLimiterEndpoint rateLimiterEndpoint(
+            BucketStore bucketStore,
+            MicrometerLimiterMetrics metrics,
+            @Value("${token.metrics.expose-client-keys:false}") boolean exposeClientKeys) {
+        return new RateLimiterEndpoint(bucketStore, metrics, exposeClientKeys);
+    }
+}
@@ -0,0 +1,90 @@
+package ua.com.pragmasoft.ratelimiter.config;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RouteLimit;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint {@code /actuator/ratelimiterpolicy} listing the limits of every rule and changing them at
+ * runtime, for example {@code POST /actuator/ratelimiterpolicy/search} with {@code {"size": 20, "refill": 10}}.
+ * Values left out of the request keep their current setting; the rule {@code default} covers requests that match no
+ * rule. Changes apply to the running instance only and are lost on restart.
+ */
+@Endpoint(id = "ratelimiterpolicy")
+public class RateLimitPolicyEndpoint {
+
+    private final RateLimitPolicy policy;
+
+    /**
+     * Constructs a {@link RateLimitPolicyEndpoint}.
+     *
+     * @param policy the rate limit policy
+     */
+    public RateLimitPolicyEndpoint(RateLimitPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the current limits of all rules.
+     *
+     * @return the size, refill rate and cost of each rule, by rule name
+     */
+    @ReadOperation
+    public Map<String, Object> limits() {
+        Map<String, Object> limits = new LinkedHashMap<>();
+        for (RouteLimit limit : policy.getLimits()) {
+            limits.put(limit.name(), describe(limit));
+        }
+        return limits;
+    }
+
+    /**
+     * Changes the limits of a rule.
+     *
+     * @param rule   the name of the rule
+     * @param size   the new bucket size, or {@code null} to keep it
+     * @param refill the new refill rate, or {@code null} to keep it
+     * @param cost   the new cost per request, or {@code null} to keep it
+     * @return the new size, refill rate and cost of the rule
+     */
+    @WriteOperation
+    public Map<String, Object> update(@Selector String rule, @Nullable Long size, @Nullable Long refill,
+                                      @Nullable Integer cost) {
+        RouteLimit current = find(rule);
+        BucketLimits currentLimits = current.store().getLimits();
+        try {
+            BucketLimits limits = new BucketLimits(size != null ? size : currentLimits.size(),
+                    refill != null ? refill : currentLimits.refillRate());
+            policy.update(rule, limits, cost != null ? cost : current.cost());
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        return describe(find(rule));
+    }
+
+    private RouteLimit find(String rule) {
+        return policy.getLimits().stream()
+                .filter(limit -> limit.name().equals(rule))
+                .findFirst()
+                .orElseThrow(() -> new InvalidEndpointRequestException("Unknown rate limit rule: " + rule,
+                        "Unknown rate limit rule"));
+    }
+
+    private Map<String, Object> describe(RouteLimit limit) {
+        BucketLimits limits = limit.store().getLimits();
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("size", limits.size());
+        description.put("refill", limits.refillRate());
+        description.put("cost", limit.cost());
+        return description;
+    }
+}
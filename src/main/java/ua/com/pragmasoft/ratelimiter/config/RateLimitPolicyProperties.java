@@ -0,0 +1,313 @@
+package ua.com.pragmasoft.ratelimiter.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import ua.com.pragmasoft.ratelimiter.client_key.GlobalClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.HeaderClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStoreFactory;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.SharedBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rate limit rules under {@code token.policy}, for example:
+ * <pre>
+ * token.policy.rules[0].name=search
+ * token.policy.rules[0].path=/api/search/**
+ * token.policy.rules[0].methods=GET
+ * token.policy.rules[0].tier=free
+ * token.policy.rules[0].size=10
+ * token.policy.rules[0].refill=5
+ * token.policy.rules[0].cost=2
+ * </pre>
+ * Rules are matched in the order they are declared. Limits that are not set default to {@code token.size},
+ * {@code token.refill} and {@code token.algorithm}.
+ * <p>
+ * Levels are applied to every request on top of its rule, in the order they are declared:
+ * <pre>
+ * token.policy.levels[0].name=subnet
+ * token.policy.levels[0].key=ip
+ * token.policy.levels[0].ipv4-prefix=24
+ * token.policy.levels[0].size=200
+ * token.policy.levels[0].refill=100
+ * token.policy.levels[1].name=global
+ * token.policy.levels[1].key=global
+ * token.policy.levels[1].size=20000
+ * token.policy.levels[1].refill=10000
+ * </pre>
+ */
+@ConfigurationProperties(prefix = "token.policy")
+public class RateLimitPolicyProperties {
+
+    private String tierHeader = "X-Api-Tier";
+    private List<Rule> rules = new ArrayList<>();
+    private List<Level> levels = new ArrayList<>();
+
+    /**
+     * What the requests of a level are keyed on.
+     */
+    public enum LevelKey {
+        /**
+         * The client address, aggregated by the prefix lengths of the level.
+         */
+        IP,
+        /**
+         * The value of the header named by the level, e.g. an API key.
+         */
+        HEADER,
+        /**
+         * Nothing: one striped bucket per instance shared by all requests.
+         */
+        GLOBAL
+    }
+
+    /**
+     * One configured level.
+     */
+    public static class Level {
+        private String name;
+        private LevelKey key = LevelKey.IP;
+        private String header;
+        private int ipv4Prefix = 32;
+        private int ipv6Prefix = 128;
+        private Long size;
+        private Long refill;
+        private LimiterAlgorithm algorithm;
+        private int stripes;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public LevelKey getKey() {
+            return key;
+        }
+
+        public void setKey(LevelKey key) {
+            this.key = key;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(String header) {
+            this.header = header;
+        }
+
+        public int getIpv4Prefix() {
+            return ipv4Prefix;
+        }
+
+        public void setIpv4Prefix(int ipv4Prefix) {
+            this.ipv4Prefix = ipv4Prefix;
+        }
+
+        public int getIpv6Prefix() {
+            return ipv6Prefix;
+        }
+
+        public void setIpv6Prefix(int ipv6Prefix) {
+            this.ipv6Prefix = ipv6Prefix;
+        }
+
+        public Long getSize() {
+            return size;
+        }
+
+        public void setSize(Long size) {
+            this.size = size;
+        }
+
+        public Long getRefill() {
+            return refill;
+        }
+
+        public void setRefill(Long refill) {
+            this.refill = refill;
+        }
+
+        public LimiterAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(LimiterAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public int getStripes() {
+            return stripes;
+        }
+
+        public void setStripes(int stripes) {
+            this.stripes = stripes;
+        }
+
+        /**
+         * Converts the configured level, filling unset limits with the defaults. Global levels get a
+         * {@link SharedBucketStore} with the configured number of stripes, or one per available processor; the
+         * others get a store of the factory.
+         *
+         * @param defaultSize       the default bucket size
+         * @param defaultRefillRate the default refill rate
+         * @param defaultAlgorithm  the default limiter algorithm
+         * @param storeFactory      the factory of the bucket stores of keyed levels
+         * @param timeSource        the clock of global levels
+         * @return the level
+         * @throws IllegalArgumentException if the name is missing or a header level names no header
+         */
+        LimitLevel toLevel(long defaultSize, long defaultRefillRate, LimiterAlgorithm defaultAlgorithm,
+                           BucketStoreFactory storeFactory, TimeSource timeSource) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("A rate limit level needs a name");
+            }
+            long levelSize = size != null ? size : defaultSize;
+            long levelRefill = refill != null ? refill : defaultRefillRate;
+            return switch (key) {
+                case IP -> new LimitLevel(name, new IPClientKeyStrategy(ipv4Prefix, ipv6Prefix),
+                        storeFactory.create(name, levelSize, levelRefill,
+                                algorithm != null ? algorithm : defaultAlgorithm));
+                case HEADER -> {
+                    if (header == null || header.isEmpty()) {
+                        throw new IllegalArgumentException("Level " + name + ": a header key needs a header name");
+                    }
+                    yield new LimitLevel(name, new HeaderClientKeyStrategy(header),
+                            storeFactory.create(name, levelSize, levelRefill,
+                                    algorithm != null ? algorithm : defaultAlgorithm));
+                }
+                case GLOBAL -> new LimitLevel(name, new GlobalClientKeyStrategy(),
+                        new SharedBucketStore(levelSize, levelRefill,
+                        stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors(), timeSource));
+            };
+        }
+    }
+
+    /**
+     * One configured rule.
+     */
+    public static class Rule {
+        private String name;
+        private String path;
+        private Set<String> methods = new LinkedHashSet<>();
+        private String tier;
+        private Long size;
+        private Long refill;
+        private int cost = 1;
+        private LimiterAlgorithm algorithm;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public Set<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(Set<String> methods) {
+            this.methods = methods;
+        }
+
+        public String getTier() {
+            return tier;
+        }
+
+        public void setTier(String tier) {
+            this.tier = tier;
+        }
+
+        public Long getSize() {
+            return size;
+        }
+
+        public void setSize(Long size) {
+            this.size = size;
+        }
+
+        public Long getRefill() {
+            return refill;
+        }
+
+        public void setRefill(Long refill) {
+            this.refill = refill;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        public void setCost(int cost) {
+            this.cost = cost;
+        }
+
+        public LimiterAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(LimiterAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * Converts the configured rule, filling unset limits with the defaults.
+         *
+         * @param defaultSize       the default bucket size
+         * @param defaultRefillRate the default refill rate
+         * @param defaultAlgorithm  the default limiter algorithm
+         * @return the rule
+         */
+        RateLimitRule toRule(long defaultSize, long defaultRefillRate, LimiterAlgorithm defaultAlgorithm) {
+            return new RateLimitRule(name, path, methods, tier,
+                    size != null ? size : defaultSize,
+                    refill != null ? refill : defaultRefillRate,
+                    cost,
+                    algorithm != null ? algorithm : defaultAlgorithm);
+        }
+    }
+
+    public String getTierHeader() {
+        return tierHeader;
+    }
+
+    public void setTierHeader(String tierHeader) {
+        this.tierHeader = tierHeader;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    public void setLevels(List<Level> levels) {
+        this.levels = levels;
+    }
+}
@@ -0,0 +1,23 @@
+package ua.com.pragmasoft.ratelimiter.metrics;
+
+/**
+ * Instrumentation hook of the rate limiter. Implementations are called on the request path and must not allocate.
+ */
+public interface LimiterMetrics {
+
+    /**
+     * Metrics implementation that records nothing.
+     */
+    LimiterMetrics NOOP = (clientKey, result, decisionNanos) -> {
+    };
+
+    /**
+     * Records a single rate limiting decision.
+     *
+     * @param clientKey     the primitive client key
+     * @param result        the decision encoded as described in
+     *                      {@link ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult}
+     * @param decisionNanos the time spent on key extraction and the bucket decision, in nanoseconds
+     */
+    void recordDecision(long clientKey, long result, long decisionNanos);
+}
@@ -0,0 +1,144 @@
+package ua.com.pragmasoft.ratelimiter.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import ua.com.pragmasoft.ratelimiter.concurrency.AdaptiveConcurrencyLimiter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketEvictor;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisFallback;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LimiterMetrics} backed by Micrometer, exposed through Spring Boot Actuator.
+ * <p>
+ * Decisions are counted per outcome with striped counters and timed with a histogram timer; both record without
+ * allocating. Bucket store size and memory, and the activity of an optional {@link BucketEvictor}, are sampled
+ * lazily by gauges and function counters, so they cost nothing on the request path; so is an optional
+ * {@link AdaptiveConcurrencyLimiter} and a {@link RedisFallback}. Rejected keys can optionally
+ * be tracked in a {@link TopKeysSketch} instead of per-key meters.
+ */
+public class MicrometerLimiterMetrics implements LimiterMetrics {
+
+    private final Counter allowedCounter;
+    private final Counter rejectedCounter;
+    private final Timer decisionTimer;
+    private final TopKeysSketch rejectedKeys;
+
+    /**
+     * Constructs a {@link MicrometerLimiterMetrics} and registers its meters.
+     *
+     * @param registry     the meter registry
+     * @param bucketStore  the bucket store to report the size of, if it tracks its buckets locally
+     * @param rejectedKeys the sketch tracking the most rejected keys, or {@code null} to disable tracking
+     */
+    public MicrometerLimiterMetrics(MeterRegistry registry, BucketStore bucketStore, TopKeysSketch rejectedKeys) {
+        this.allowedCounter = Counter.builder("ratelimiter.decisions")
+                .description("Rate limiting decisions")
+                .tag("outcome", "allowed")
+                .register(registry);
+        this.rejectedCounter = Counter.builder("ratelimiter.decisions")
+                .description("Rate limiting decisions")
+                .tag("outcome", "rejected")
+                .register(registry);
+        this.decisionTimer = Timer.builder("ratelimiter.decision.time")
+                .description("Time spent on client key extraction and the bucket decision")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(registry);
+        if (bucketStore.tracksBuckets()) {
+            Gauge.builder("ratelimiter.buckets", bucketStore, BucketStore::getBucketCount)
+                    .description("Number of client buckets held by the bucket store")
+                    .register(registry);
+            Gauge.builder("ratelimiter.buckets.memory", bucketStore, BucketStore::getMemoryEstimateBytes)
+                    .description("Estimated memory used by the bucket store")
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+        this.rejectedKeys = rejectedKeys;
+    }
+
+    /**
+     * Registers the eviction meters of the given evictor.
+     *
+     * @param registry the meter registry
+     * @param evictor  the bucket evictor
+     */
+    public static void bindEvictor(MeterRegistry registry, BucketEvictor evictor) {
+        FunctionCounter.builder("ratelimiter.evictions", evictor, BucketEvictor::getEvictedCount)
+                .description("Number of idle buckets evicted")
+                .register(registry);
+        FunctionCounter.builder("ratelimiter.eviction.sweeps", evictor, BucketEvictor::getSweepCount)
+                .description("Number of completed sweeps over the bucket store")
+                .register(registry);
+        Gauge.builder("ratelimiter.eviction.sweep.duration", evictor,
+                        e -> e.getLastSweepDurationNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                .description("Wall time of the last completed sweep")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder("ratelimiter.eviction.slice.time", evictor,
+                        e -> e.getTotalSliceNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                .description("Total time spent in eviction slices")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * Registers the counter of decisions taken by the given fallback while Redis was unavailable.
+     *
+     * @param registry the meter registry
+     * @param fallback the Redis fallback
+     */
+    public static void bindRedisFallback(MeterRegistry registry, RedisFallback fallback) {
+        FunctionCounter.builder("ratelimiter.redis.fallbacks", fallback, RedisFallback::getCount)
+                .description("Number of calls answered by the fallback while Redis was unavailable")
+                .tag("mode", fallback.getMode().name().toLowerCase(Locale.ROOT))
+                .register(registry);
+    }
+
+    /**
+     * Registers the meters of the given adaptive concurrency limiter.
+     *
+     * @param registry the meter registry
+     * @param limiter  the adaptive concurrency limiter
+     */
+    public static void bindConcurrencyLimiter(MeterRegistry registry, AdaptiveConcurrencyLimiter limiter) {
+        Gauge.builder("ratelimiter.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive limit of requests in flight")
+                .register(registry);
+        Gauge.builder("ratelimiter.concurrency.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Number of requests in flight behind the concurrency limit")
+                .register(registry);
+        FunctionCounter.builder("ratelimiter.concurrency.shed", limiter, AdaptiveConcurrencyLimiter::getShedCount)
+                .description("Number of requests shed by the concurrency limit")
+                .register(registry);
+    }
+
+    @Override
+    public void recordDecision(long clientKey, long result, long decisionNanos) {
+        decisionTimer.record(decisionNanos, TimeUnit.NANOSECONDS);
+        if (AcquireResult.isAllowed(result)) {
+            allowedCounter.increment();
+        } else {
+            rejectedCounter.increment();
+            if (rejectedKeys != null) {
+                rejectedKeys.add(clientKey);
+            }
+        }
+    }
+
+    /**
+     * Returns the most rejected client keys, highest estimate first.
+     *
+     * @return the estimated top rejected keys, empty if tracking is disabled
+     */
+    public List<TopKeysSketch.KeyCount> getTopRejectedKeys() {
+        return rejectedKeys == null ? List.of() : rejectedKeys.topKeys();
+    }
+}
@@ -0,0 +1,82 @@
+package ua.com.pragmasoft.ratelimiter.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import ua.com.pragmasoft.ratelimiter.client_key.IpAddressParser;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint {@code /actuator/ratelimiter} with a summary of the limiter state and the most rejected clients.
+ * <p>
+ * Client addresses and API keys are personal data, so by default the clients are listed by pseudonym: a hash of the
+ * key salted with a random value drawn at startup. The pseudonyms stay stable while the process runs, so repeated
+ * reads can be compared, but cannot be reversed even for the small IPv4 address space. Readable keys are only listed
+ * if the endpoint is constructed to expose them.
+ */
+@Endpoint(id = "ratelimiter")
+public class RateLimiterEndpoint {
+
+    private final BucketStore bucketStore;
+    private final MicrometerLimiterMetrics metrics;
+    private final boolean exposeClientKeys;
+    private final long salt = new SecureRandom().nextLong();
+
+    /**
+     * Constructs a {@link RateLimiterEndpoint} that lists clients by pseudonym.
+     *
+     * @param bucketStore the bucket store
+     * @param metrics     the limiter metrics
+     */
+    public RateLimiterEndpoint(BucketStore bucketStore, MicrometerLimiterMetrics metrics) {
+        this(bucketStore, metrics, false);
+    }
+
+    /**
+     * Constructs a {@link RateLimiterEndpoint}.
+     *
+     * @param bucketStore      the bucket store
+     * @param metrics          the limiter metrics
+     * @param exposeClientKeys whether to list readable client keys, such as IPv4 addresses, instead of pseudonyms
+     */
+    public RateLimiterEndpoint(BucketStore bucketStore, MicrometerLimiterMetrics metrics, boolean exposeClientKeys) {
+        this.bucketStore = bucketStore;
+        this.metrics = metrics;
+        this.exposeClientKeys = exposeClientKeys;
+    }
+
+    /**
+     * Returns the limiter summary.
+     *
+     * @return the bucket count and memory estimate, if the store tracks them, and the top rejected clients
+     */
+    @ReadOperation
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        if (bucketStore.tracksBuckets()) {
+            summary.put("buckets", bucketStore.getBucketCount());
+            summary.put("memoryEstimateBytes", bucketStore.getMemoryEstimateBytes());
+        }
+        List<Map<String, Object>> topRejected = metrics.getTopRejectedKeys().stream()
+                .map(keyCount -> Map.<String, Object>of(
+                        "client", describe(keyCount.key()),
+                        "rejections", keyCount.count()))
+                .toList();
+        summary.put("topRejectedClients", topRejected);
+        return summary;
+    }
+
+    private String describe(long key) {
+        if (exposeClientKeys) {
+            return IpAddressParser.describe(key);
+        }
+        long h = key ^ salt;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return "#" + Long.toHexString(h ^ (h >>> 31));
+    }
+}
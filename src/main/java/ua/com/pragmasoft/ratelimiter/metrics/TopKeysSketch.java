@@ -0,0 +1,139 @@
+package ua.com.pragmasoft.ratelimiter.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate heavy-hitter tracking of primitive client keys in fixed memory.
+ * <p>
+ * Counts are estimated with a count-min sketch of {@value #DEPTH} rows; the keys with the highest estimates are kept
+ * in a small candidate table. Updates are lock-free and allocation-free; concurrent updates may briefly leave a key
+ * in two candidate slots, and reading the table keeps the highest count of such a key.
+ * <p>
+ * The table keeps a running minimum of its counts. Estimates only grow, so a key whose estimate does not exceed the
+ * minimum is neither a candidate nor able to become one, and its update skips the table; under a flood of many
+ * distinct keys, almost every update ends after the sketch rows. The minimum is recomputed only when the smallest
+ * count changes, and a stale value is never above the true one, so no key is skipped wrongly.
+ */
+public class TopKeysSketch {
+
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {0x9e3779b97f4a7c15L, 0xbf58476d1ce4e5b9L, 0x94d049bb133111ebL, 0xd6e8feb86659fd93L};
+
+    private final int width;
+    private final int mask;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray candidateKeys;
+    private final AtomicLongArray candidateCounts;
+    private volatile long minCount;
+
+    /**
+     * Record of an estimated key count.
+     *
+     * @param key   the primitive client key
+     * @param count the estimated number of occurrences
+     */
+    public record KeyCount(long key, long count) {
+    }
+
+    /**
+     * Constructs a {@link TopKeysSketch}.
+     *
+     * @param topN  the number of heavy hitters to track
+     * @param width the number of counters per sketch row, rounded up to a power of two
+     */
+    public TopKeysSketch(int topN, int width) {
+        this.width = Math.max(16, Integer.highestOneBit(Math.max(1, width - 1)) << 1);
+        this.mask = this.width - 1;
+        this.counters = new AtomicLongArray(DEPTH * this.width);
+        this.candidateKeys = new AtomicLongArray(topN);
+        this.candidateCounts = new AtomicLongArray(topN);
+    }
+
+    /**
+     * Counts one occurrence of the key.
+     *
+     * @param key the primitive client key
+     */
+    public void add(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            long h = (key ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            int index = row * width + ((int) (h >>> 40) & mask);
+            estimate = Math.min(estimate, counters.incrementAndGet(index));
+        }
+        if (estimate > minCount) {
+            offer(key, estimate);
+        }
+    }
+
+    private void offer(long key, long estimate) {
+        int minSlot = -1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < candidateKeys.length(); i++) {
+            long count = candidateCounts.get(i);
+            if (count > 0 && candidateKeys.get(i) == key) {
+                candidateCounts.accumulateAndGet(i, estimate, Math::max);
+                if (count <= minCount) {
+                    refreshMinimum();
+                }
+                return;
+            }
+            if (count < min) {
+                min = count;
+                minSlot = i;
+            }
+        }
+        if (minSlot >= 0 && estimate > min && candidateCounts.compareAndSet(minSlot, min, estimate)) {
+            candidateKeys.set(minSlot, key);
+            refreshMinimum();
+        }
+    }
+
+    private void refreshMinimum() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < candidateCounts.length(); i++) {
+            min = Math.min(min, candidateCounts.get(i));
+        }
+        minCount = min;
+    }
+
+    /**
+     * Returns the tracked heavy hitters, highest estimate first.
+     *
+     * @return the estimated top keys
+     */
+    public List<KeyCount> topKeys() {
+        long[] keys = new long[candidateKeys.length()];
+        long[] counts = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            counts[i] = candidateCounts.get(i);
+            keys[i] = candidateKeys.get(i);
+        }
+        return topKeys(keys, counts);
+    }
+
+    /**
+     * Merges candidate slots into the top keys, keeping the highest count of a key found in several slots.
+     *
+     * @param keys   the keys of the slots
+     * @param counts the counts of the slots, 0 for an empty slot
+     * @return the keys, highest count first
+     */
+    static List<KeyCount> topKeys(long[] keys, long[] counts) {
+        Map<Long, Long> maxCounts = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] > 0) {
+                maxCounts.merge(keys[i], counts[i], Math::max);
+            }
+        }
+        List<KeyCount> result = new ArrayList<>(maxCounts.size());
+        maxCounts.forEach((key, count) -> result.add(new KeyCount(key, count)));
+        result.sort(Comparator.comparingLong(KeyCount::count).reversed());
+        return result;
+    }
+}
@@ -0,0 +1,15 @@
+package ua.com.pragmasoft.ratelimiter.policy;
+
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+
+/**
+ * One level of the limit hierarchy, applied to every request on top of the limit of its route, for example a
+ * limit per subnet, per API key or for the service as a whole.
+ *
+ * @param name        the unique name of the level, which also names its bucket namespace
+ * @param keyStrategy the strategy deriving the key of a request at this level
+ * @param store       the bucket store of the level
+ */
+public record LimitLevel(String name, ClientKeyStrategy keyStrategy, BucketStore store) {
+}
@@ -0,0 +1,271 @@
+package ua.com.pragmasoft.ratelimiter.policy;
+
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStoreFactory;
+import ua.com.pragmasoft.ratelimiter.token_bucket.HierarchicalLimiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resolves the limit of each request from the configured rules. Every rule has its own bucket namespace, created
+ * once at startup; requests that match no rule fall back to the default limit.
+ * <p>
+ * The limits and costs of the rules can be changed at runtime with {@link #update(String, BucketLimits, int)}.
+ * The compiled rules are published as an immutable snapshot, so a request resolves against either the old or the
+ * new rules with a single volatile read, and the buckets of every namespace survive the change.
+ * <p>
+ * Optional {@link LimitLevel}s are applied to every request after the limit of its route, all or nothing, see
+ * {@link HierarchicalLimiter}.
+ * <p>
+ * The policy owns the stores of its rules and levels and closes them in {@link #close()}; the default store
+ * belongs to the caller.
+ */
+public class RateLimitPolicy implements AutoCloseable {
+
+    /**
+     * Name of the limit applied to requests that match no rule.
+     */
+    public static final String DEFAULT_RULE = "default";
+
+    /**
+     * The compiled rules at one point in time.
+     */
+    private record Snapshot(RouteMatcher matcher, RouteLimit[] limits, RouteLimit defaultLimit) {
+    }
+
+    private final String tierHeader;
+    private final List<LimitLevel> levels;
+    private final HierarchicalLimiter hierarchy;
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructs a {@link RateLimitPolicy} from the given rules.
+     *
+     * @param rules        the rules, in order of precedence
+     * @param storeFactory the factory of the bucket store of each rule
+     * @param defaultStore the bucket store of requests that match no rule, which cost one token
+     * @param tierHeader   the request header carrying the client tier, or {@code null} if tiers are not used
+     * @throws IllegalArgumentException if two rules share a name or a pattern is not supported
+     */
+    public RateLimitPolicy(List<RateLimitRule> rules, BucketStoreFactory storeFactory, BucketStore defaultStore,
+                           String tierHeader) {
+        this(rules, List.of(), storeFactory, defaultStore, tierHeader);
+    }
+
+    /**
+     * Constructs a {@link RateLimitPolicy} from the given rules and levels.
+     *
+     * @param rules        the rules, in order of precedence
+     * @param levels       the levels applied to every request after its rule, in the order they are asked
+     * @param storeFactory the factory of the bucket store of each rule
+     * @param defaultStore the bucket store of requests that match no rule, which cost one token
+     * @param tierHeader   the request header carrying the client tier, or {@code null} if tiers are not used
+     * @throws IllegalArgumentException if two rules or levels share a name or a pattern is not supported
+     */
+    public RateLimitPolicy(List<RateLimitRule> rules, List<LimitLevel> levels, BucketStoreFactory storeFactory,
+                           BucketStore defaultStore, String tierHeader) {
+        Set<String> names = new HashSet<>();
+        names.add(DEFAULT_RULE);
+        for (LimitLevel level : levels) {
+            if (!names.add(level.name())) {
+                throw new IllegalArgumentException("Duplicate rate limit level name: " + level.name());
+            }
+        }
+        RouteLimit[] limits = new RouteLimit[rules.size()];
+        for (int i = 0; i < limits.length; i++) {
+            RateLimitRule rule = rules.get(i);
+            if (!names.add(rule.name())) {
+                throw new IllegalArgumentException("Duplicate rate limit rule name: " + rule.name());
+            }
+            BucketStore store = storeFactory.create(rule.name(), rule.size(), rule.refillRate(), rule.algorithm());
+            limits[i] = new RouteLimit(rule.name(), store, rule.cost());
+        }
+        this.snapshot = new Snapshot(new RouteMatcher(rules), limits, new RouteLimit(DEFAULT_RULE, defaultStore, 1));
+        this.tierHeader = tierHeader;
+        this.levels = List.copyOf(levels);
+        this.hierarchy = new HierarchicalLimiter(levels.stream().map(LimitLevel::store).toList());
+    }
+
+    /**
+     * Creates a policy without rules, which applies the limit of the given store to every request.
+     *
+     * @param store the bucket store
+     * @return the policy
+     */
+    public static RateLimitPolicy of(BucketStore store) {
+        return new RateLimitPolicy(List.of(), (namespace, size, refillRate, algorithm) -> store, store, null);
+    }
+
+    /**
+     * Resolves the limit of a request.
+     *
+     * @param path   the request path, without the query string
+     * @param method the HTTP method
+     * @param tier   the client tier, or {@code null} if the client has none
+     * @return the limit of the first matching rule, or the default limit
+     */
+    public RouteLimit resolve(CharSequence path, String method, String tier) {
+        Snapshot current = snapshot;
+        if (current.limits().length == 0) {
+            return current.defaultLimit();
+        }
+        int rule = current.matcher().match(path, method, tier);
+        return rule >= 0 ? current.limits()[rule] : current.defaultLimit();
+    }
+
+    /**
+     * Changes the limits and the cost of a rule without dropping its buckets. The new limits are published to the
+     * rule's bucket store, which rescales each bucket on its next request; a changed cost is published with a new
+     * snapshot of the rules. The path patterns of the rules are fixed at startup.
+     *
+     * @param name   the name of the rule, or {@link #DEFAULT_RULE}
+     * @param limits the new limits
+     * @param cost   the new number of tokens each matching request takes
+     * @throws IllegalArgumentException      if there is no rule of that name, the cost is negative or the store
+     *                                       cannot hold buckets of the new size
+     * @throws UnsupportedOperationException if the rule's bucket store does not support reconfiguration
+     */
+    public void update(String name, BucketLimits limits, int cost) {
+        if (cost < 0) {
+            throw new IllegalArgumentException("Rule " + name + ": cost must not be negative");
+        }
+        updateLock.lock();
+        try {
+            Snapshot current = snapshot;
+            RouteLimit[] routeLimits = current.limits();
+            RouteLimit defaultLimit = current.defaultLimit();
+            RouteLimit existing = findLimit(current, name);
+            existing.store().updateLimits(limits);
+            if (existing.cost() == cost) {
+                return;
+            }
+            RouteLimit updated = new RouteLimit(name, existing.store(), cost);
+            if (existing == defaultLimit) {
+                defaultLimit = updated;
+            } else {
+                routeLimits = routeLimits.clone();
+                for (int i = 0; i < routeLimits.length; i++) {
+                    if (routeLimits[i] == existing) {
+                        routeLimits[i] = updated;
+                    }
+                }
+            }
+            snapshot = new Snapshot(current.matcher(), routeLimits, defaultLimit);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private static RouteLimit findLimit(Snapshot snapshot, String name) {
+        if (DEFAULT_RULE.equals(name)) {
+            return snapshot.defaultLimit();
+        }
+        for (RouteLimit limit : snapshot.limits()) {
+            if (limit.name().equals(name)) {
+                return limit;
+            }
+        }
+        throw new IllegalArgumentException("Unknown rate limit rule: " + name);
+    }
+
+    /**
+     * Returns the request header carrying the client tier.
+     *
+     * @return the header name, or {@code null} if tiers are not used
+     */
+    public String getTierHeader() {
+        return tierHeader;
+    }
+
+    /**
+     * Returns the current limits of all rules, the default one first.
+     *
+     * @return the route limits
+     */
+    public List<RouteLimit> getLimits() {
+        Snapshot current = snapshot;
+        List<RouteLimit> limits = new ArrayList<>(current.limits().length + 1);
+        limits.add(current.defaultLimit());
+        limits.addAll(List.of(current.limits()));
+        return limits;
+    }
+
+    /**
+     * Returns the levels applied to every request after its rule.
+     *
+     * @return the levels, empty if there are none
+     */
+    public List<LimitLevel> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the limiter applying the stores of the levels, in level order.
+     *
+     * @return the hierarchical limiter
+     */
+    public HierarchicalLimiter getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Returns the bucket stores of all namespaces, the default one first, followed by the rules and the levels.
+     *
+     * @return the bucket stores
+     */
+    public List<BucketStore> getStores() {
+        return List.copyOf(getStoresByName().values());
+    }
+
+    /**
+     * Returns the bucket stores of all namespaces by the name of their rule or level, in the order of
+     * {@link #getStores()}. The names are unique, so they can name persisted state.
+     *
+     * @return the bucket stores by namespace
+     */
+    public Map<String, BucketStore> getStoresByName() {
+        Map<String, BucketStore> stores = new LinkedHashMap<>();
+        getLimits().forEach(limit -> stores.put(limit.name(), limit.store()));
+        levels.forEach(level -> stores.put(level.name(), level.store()));
+        return stores;
+    }
+
+    /**
+     * Closes every distinct store of the rules and levels that holds resources, such as threads or leased tokens.
+     * The default store is left to its owner.
+     *
+     * @throws IllegalStateException if a store fails to close, after trying all the others
+     */
+    @Override
+    public void close() {
+        Set<BucketStore> closed = Collections.newSetFromMap(new IdentityHashMap<>());
+        closed.add(snapshot.defaultLimit().store());
+        IllegalStateException failure = null;
+        for (BucketStore store : getStores()) {
+            if (store instanceof AutoCloseable closeable && closed.add(store)) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("Failed to close bucket store", e);
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
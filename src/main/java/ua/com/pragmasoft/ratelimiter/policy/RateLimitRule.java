@@ -0,0 +1,51 @@
+package ua.com.pragmasoft.ratelimiter.policy;
+
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * One configured rate limit: the requests it applies to and the limit applied to them.
+ *
+ * @param name       the unique name of the rule, which also names its bucket namespace
+ * @param path       the path pattern: literal segments, {@code *} or {@code {name}} for any single segment, and a
+ *                   trailing {@code **} for any remainder
+ * @param methods    the HTTP methods the rule applies to, empty for all
+ * @param tier       the client tier the rule applies to, or {@code null} for all
+ * @param size       the maximum number of tokens in each bucket
+ * @param refillRate the rate at which tokens are added (tokens per second)
+ * @param cost       the number of tokens each matching request takes
+ * @param algorithm  the limiter algorithm of the buckets
+ */
+public record RateLimitRule(String name, String path, Set<String> methods, String tier,
+                            long size, long refillRate, int cost, LimiterAlgorithm algorithm) {
+
+    /**
+     * Validates the rule.
+     *
+     * @throws IllegalArgumentException if the name or the path is missing, or the cost is negative
+     */
+    public RateLimitRule {
+        if (name == null || name.isEmpty() || path == null) {
+            throw new IllegalArgumentException("A rate limit rule needs a name and a path");
+        }
+        if (cost < 0) {
+            throw new IllegalArgumentException("Rule " + name + ": cost must not be negative");
+        }
+        methods = methods == null ? Set.of()
+                : methods.stream().map(method -> method.toUpperCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Determines if the rule applies to the given method and tier; the path is matched by {@link RouteMatcher}.
+     *
+     * @param method the HTTP method
+     * @param tier   the client tier, or {@code null} if the client has none
+     * @return true if the rule applies
+     */
+    boolean appliesTo(String method, String tier) {
+        return (methods.isEmpty() || methods.contains(method)) && (this.tier == null || this.tier.equals(tier));
+    }
+}
@@ -0,0 +1,13 @@
+package ua.com.pragmasoft.ratelimiter.policy;
+
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+
+/**
+ * The limit resolved for a request: the buckets of the matched rule and the number of tokens the request costs.
+ *
+ * @param name  the name of the rule, or {@link RateLimitPolicy#DEFAULT_RULE} if no rule matched
+ * @param store the bucket store of the rule's namespace
+ * @param cost  the number of tokens the request takes
+ */
+public record RouteLimit(String name, BucketStore store, int cost) {
+}
@@ -0,0 +1,217 @@
+package ua.com.pragmasoft.ratelimiter.policy;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Path matcher compiled once from the rule patterns into a deterministic trie of path segments.
+ * <p>
+ * While compiling, the subtree of every {@code *} wildcard is merged into its literal siblings, and the rules of a
+ * trailing {@code **} are recorded on the node they hang off. Matching is then a single walk over the segments of
+ * the path that never backtracks: each segment is binary searched among the literal children of the current node,
+ * which are sorted when compiling, falling back to its wildcard child. Resolution is linear in the path length,
+ * logarithmic in the number of siblings, and allocates nothing. When several rules match, the one declared first
+ * wins.
+ */
+public final class RouteMatcher {
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    /**
+     * Order of the literal children: by length, then by character, as {@link #compare} orders a label and a segment.
+     */
+    private static final Comparator<String> LABEL_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    /**
+     * Compiled trie node. The labels of the literal children are sorted in {@link #LABEL_ORDER}.
+     */
+    private static final class Node {
+        final String[] labels;
+        final Node[] children;
+        final Node wildcard;
+        final int[] rules;
+        final int[] tailRules;
+
+        Node(String[] labels, Node[] children, Node wildcard, int[] rules, int[] tailRules) {
+            this.labels = labels;
+            this.children = children;
+            this.wildcard = wildcard;
+            this.rules = rules;
+            this.tailRules = tailRules;
+        }
+
+        Node child(CharSequence path, int from, int to) {
+            int low = 0;
+            int high = labels.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int order = compare(labels[mid], path, from, to);
+                if (order < 0) {
+                    low = mid + 1;
+                } else if (order > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return wildcard;
+        }
+    }
+
+    /**
+     * Trie node as built from the patterns, before wildcards are merged.
+     */
+    private static final class PatternNode {
+        final Map<String, PatternNode> literals = new LinkedHashMap<>();
+        PatternNode wildcard;
+        final TreeSet<Integer> rules = new TreeSet<>();
+        final TreeSet<Integer> tailRules = new TreeSet<>();
+    }
+
+    private final List<RateLimitRule> rules;
+    private final Node root;
+
+    /**
+     * Compiles the patterns of the given rules.
+     *
+     * @param rules the rules, in order of precedence
+     * @throws IllegalArgumentException if a pattern uses {@code **} anywhere but at its end, or partial wildcards
+     */
+    public RouteMatcher(List<RateLimitRule> rules) {
+        this.rules = List.copyOf(rules);
+        PatternNode patterns = new PatternNode();
+        for (int i = 0; i < this.rules.size(); i++) {
+            add(patterns, this.rules.get(i), i);
+        }
+        this.root = compile(patterns);
+    }
+
+    /**
+     * Finds the first rule that matches the request.
+     *
+     * @param path   the request path, without the query string
+     * @param method the HTTP method
+     * @param tier   the client tier, or {@code null} if the client has none
+     * @return the index of the matching rule, or -1 if none matches
+     */
+    public int match(CharSequence path, String method, String tier) {
+        Node node = root;
+        int best = NO_MATCH;
+        int position = 0;
+        int length = path.length();
+        while (true) {
+            best = Math.min(best, firstApplicable(node.tailRules, method, tier));
+            while (position < length && path.charAt(position) == '/') {
+                position++;
+            }
+            if (position == length) {
+                best = Math.min(best, firstApplicable(node.rules, method, tier));
+                break;
+            }
+            int end = position;
+            while (end < length && path.charAt(end) != '/') {
+                end++;
+            }
+            node = node.child(path, position, end);
+            if (node == null) {
+                break;
+            }
+            position = end;
+        }
+        return best == NO_MATCH ? -1 : best;
+    }
+
+    private int firstApplicable(int[] candidates, String method, String tier) {
+        for (int candidate : candidates) {
+            if (rules.get(candidate).appliesTo(method, tier)) {
+                return candidate;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static void add(PatternNode root, RateLimitRule rule, int index) {
+        String[] segments = rule.path().split("/");
+        PatternNode node = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (segment.equals("**")) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("Rule " + rule.name() + ": ** is only supported at the end");
+                }
+                node.tailRules.add(index);
+                return;
+            }
+            if (segment.equals("*") || segment.startsWith("{") && segment.endsWith("}")) {
+                if (node.wildcard == null) {
+                    node.wildcard = new PatternNode();
+                }
+                node = node.wildcard;
+            } else if (segment.indexOf('*') >= 0 || segment.indexOf('{') >= 0) {
+                throw new IllegalArgumentException("Rule " + rule.name() + ": partial wildcards are not supported");
+            } else {
+                node = node.literals.computeIfAbsent(segment, s -> new PatternNode());
+            }
+        }
+        node.rules.add(index);
+    }
+
+    private static Node compile(PatternNode node) {
+        if (node == null) {
+            return null;
+        }
+        List<String> labels = new ArrayList<>(node.literals.keySet());
+        labels.sort(LABEL_ORDER);
+        Node[] children = new Node[labels.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = compile(merge(node.literals.get(labels.get(i)), node.wildcard));
+        }
+        return new Node(labels.toArray(new String[0]), children, compile(node.wildcard),
+                toArray(node.rules), toArray(node.tailRules));
+    }
+
+    /**
+     * Merges two pattern subtrees into one that matches what either of them matches.
+     */
+    private static PatternNode merge(PatternNode first, PatternNode second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        PatternNode merged = new PatternNode();
+        merged.rules.addAll(first.rules);
+        merged.rules.addAll(second.rules);
+        merged.tailRules.addAll(first.tailRules);
+        merged.tailRules.addAll(second.tailRules);
+        merged.wildcard = merge(first.wildcard, second.wildcard);
+        // a literal also matches its wildcard sibling; compile() folds that in, so only equal labels are merged here
+        first.literals.forEach((label, child) -> merged.literals.put(label, child));
+        second.literals.forEach((label, child) -> merged.literals.merge(label, child, RouteMatcher::merge));
+        return merged;
+    }
+
+    private static int[] toArray(TreeSet<Integer> indices) {
+        return indices.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Compares a label with the path segment between {@code from} and {@code to} in {@link #LABEL_ORDER}.
+     */
+    private static int compare(String label, CharSequence path, int from, int to) {
+        int order = Integer.compare(label.length(), to - from);
+        for (int i = 0; order == 0 && i < label.length(); i++) {
+            order = Character.compare(label.charAt(i), path.charAt(from + i));
+        }
+        return order;
+    }
+}
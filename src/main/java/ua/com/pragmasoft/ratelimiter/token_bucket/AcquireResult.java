@@ -0,0 +1,130 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * Primitive encoding of a {@link TokenBucket#tryAcquire(int)} decision, so that neither the accept nor the reject
+ * path has to allocate.
+ * <p>
+ * Layout: the sign bit is set when the request is denied, the next {@value BucketState#TOKEN_BITS} bits hold the
+ * remaining tokens and the lower {@value #RETRY_AFTER_BITS} bits hold the retry-after time in nanoseconds.
+ * An allowed result is therefore always non-negative and carries a zero retry-after time.
+ * <p>
+ * Batches of decisions are summarised in an admission bitmap: bit {@code i % 64} of word {@code i / 64} is set when
+ * the {@code i}-th request of the batch is allowed.
+ */
+public final class AcquireResult {
+
+    static final int RETRY_AFTER_BITS = BucketState.TIMESTAMP_BITS;
+
+    /**
+     * The largest retry-after time that can be encoded (about 18 minutes). Longer waits, including waits that can
+     * never be satisfied, are saturated to this value.
+     */
+    public static final long MAX_RETRY_AFTER_NANOS = (1L << RETRY_AFTER_BITS) - 1;
+
+    private AcquireResult() {
+    }
+
+    /**
+     * Encodes an allowed decision.
+     *
+     * @param remainingTokens the tokens left in the bucket after the acquisition
+     * @return the encoded result
+     */
+    public static long allowed(long remainingTokens) {
+        return Math.min(remainingTokens, BucketState.MAX_TOKENS) << RETRY_AFTER_BITS;
+    }
+
+    /**
+     * Encodes a denied decision.
+     *
+     * @param remainingTokens the tokens currently in the bucket
+     * @param retryAfterNanos the time in nanoseconds until the request could be satisfied
+     * @return the encoded result
+     */
+    public static long denied(long remainingTokens, long retryAfterNanos) {
+        long retryAfter = Math.max(0, Math.min(retryAfterNanos, MAX_RETRY_AFTER_NANOS));
+        return Long.MIN_VALUE | allowed(remainingTokens) | retryAfter;
+    }
+
+    /**
+     * Returns whether the encoded decision allows the request.
+     *
+     * @param result the encoded result
+     * @return true if the request is allowed, false otherwise
+     */
+    public static boolean isAllowed(long result) {
+        return result >= 0;
+    }
+
+    /**
+     * Returns the tokens left in the bucket.
+     *
+     * @param result the encoded result
+     * @return the remaining tokens
+     */
+    public static long remainingTokens(long result) {
+        return (result & Long.MAX_VALUE) >>> RETRY_AFTER_BITS;
+    }
+
+    /**
+     * Returns the time in nanoseconds to wait before retrying, zero for allowed results.
+     *
+     * @param result the encoded result
+     * @return the retry-after time in nanoseconds
+     */
+    public static long retryAfterNanos(long result) {
+        return result & MAX_RETRY_AFTER_NANOS;
+    }
+
+    /**
+     * Creates an admission bitmap for a batch with every request denied, checking that the arrays of the batch
+     * line up.
+     *
+     * @param keyHashes the primitive client key of each request
+     * @param tokens    the number of tokens to retrieve for each request
+     * @param results   the array receiving the decisions, or {@code null}
+     * @return the empty bitmap
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    static long[] newBitmap(long[] keyHashes, int[] tokens, long[] results) {
+        if (tokens.length != keyHashes.length || results != null && results.length != keyHashes.length) {
+            throw new IllegalArgumentException("Batch arrays must have the same length");
+        }
+        return new long[(keyHashes.length + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    /**
+     * Records an allowed request in an admission bitmap.
+     *
+     * @param admitted the admission bitmap
+     * @param index    the index of the request in the batch
+     */
+    static void setAllowed(long[] admitted, int index) {
+        admitted[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * Returns whether a request of a batch was allowed.
+     *
+     * @param admitted the admission bitmap of the batch
+     * @param index    the index of the request in the batch
+     * @return true if the request is allowed, false otherwise
+     */
+    public static boolean isAllowed(long[] admitted, int index) {
+        return (admitted[index >>> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * Returns the number of allowed requests of a batch.
+     *
+     * @param admitted the admission bitmap of the batch
+     * @return the allowed count
+     */
+    public static int allowedCount(long[] admitted) {
+        int count = 0;
+        for (long word : admitted) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
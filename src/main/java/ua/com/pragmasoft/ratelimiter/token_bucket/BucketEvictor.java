@@ -0,0 +1,219 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Evicts idle token buckets on a dedicated background thread, so request threads never pay for eviction.
+ * <p>
+ * Each run sweeps the bucket maps of one or more stores incrementally: it resumes where the previous slice stopped
+ * and yields once its time budget is spent. A bucket is evicted when it has been idle for longer than the configured
+ * time-to-live and has refilled completely. While the map holds more than the configured maximum number of entries,
+ * completely refilled buckets are evicted regardless of their idle time, and once they exceed the maximum by more
+ * than a tenth, any visited bucket is evicted. A slice sweeps whole segments of a map, each scanned under a read
+ * lock that lookups do not wait for.
+ * <p>
+ * The sweep state is guarded by a {@link ReentrantLock} rather than a monitor, so a manual sweep triggered from a
+ * virtual thread does not pin its carrier.
+ */
+public class BucketEvictor {
+
+    private final List<LongKeyMap<LocalBucket>> maps;
+    private final long idleTtlMillis;
+    private final int maxEntries;
+    private final long sliceBudgetNanos;
+    private final long intervalMillis;
+
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder sweepCount = new LongAdder();
+    private final AtomicLong lastSweepDurationNanos = new AtomicLong();
+    private final AtomicLong totalSliceNanos = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean sweeping;
+    private int mapIndex;
+    private int segmentIndex;
+    private long entries;
+    private long sweepStartNanos;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a {@link BucketEvictor} for the specified bucket store.
+     *
+     * @param store            the bucket store to sweep
+     * @param idleTtlMillis    the idle time after which a refilled bucket is evicted, in milliseconds
+     * @param maxEntries       the maximum number of buckets to keep
+     * @param sliceBudgetNanos the time budget of a single sweep slice, in nanoseconds
+     * @param intervalMillis   the delay between sweep slices, in milliseconds
+     */
+    public BucketEvictor(ConcurrentMapBucketStore store, long idleTtlMillis, int maxEntries,
+                         long sliceBudgetNanos, long intervalMillis) {
+        this(List.of(store), idleTtlMillis, maxEntries, sliceBudgetNanos, intervalMillis);
+    }
+
+    /**
+     * Constructs a {@link BucketEvictor} for several bucket stores, such as the namespaces of the rate limit rules.
+     * The maximum number of buckets applies to all stores together.
+     *
+     * @param stores           the bucket stores to sweep
+     * @param idleTtlMillis    the idle time after which a refilled bucket is evicted, in milliseconds
+     * @param maxEntries       the maximum number of buckets to keep
+     * @param sliceBudgetNanos the time budget of a single sweep slice, in nanoseconds
+     * @param intervalMillis   the delay between sweep slices, in milliseconds
+     */
+    public BucketEvictor(Collection<ConcurrentMapBucketStore> stores, long idleTtlMillis, int maxEntries,
+                         long sliceBudgetNanos, long intervalMillis) {
+        if (stores.isEmpty()) {
+            throw new IllegalArgumentException("At least one bucket store is required");
+        }
+        this.maps = stores.stream().map(ConcurrentMapBucketStore::buckets).toList();
+        this.idleTtlMillis = idleTtlMillis;
+        this.maxEntries = maxEntries;
+        this.sliceBudgetNanos = sliceBudgetNanos;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts sweeping on a background daemon thread.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (scheduler != null) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bucket-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::sweepSlice, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs one bounded sweep slice. Called by the background thread; exposed for tests and manual triggering.
+     *
+     * @return the number of buckets evicted by this slice
+     */
+    public int sweepSlice() {
+        lock.lock();
+        try {
+            return sweepSliceLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int sweepSliceLocked() {
+        long sliceStart = System.nanoTime();
+        if (!sweeping) {
+            sweeping = true;
+            mapIndex = 0;
+            segmentIndex = 0;
+            sweepStartNanos = sliceStart;
+        }
+        entries = totalEntries();
+        int evicted = 0;
+        while (mapIndex < maps.size()) {
+            LongKeyMap<LocalBucket> map = maps.get(mapIndex);
+            evicted += map.removeIf(segmentIndex, this::shouldEvict);
+            if (++segmentIndex == map.segmentCount()) {
+                segmentIndex = 0;
+                mapIndex++;
+            }
+            if (System.nanoTime() - sliceStart >= sliceBudgetNanos) {
+                break;
+            }
+        }
+        long sliceEnd = System.nanoTime();
+        if (mapIndex == maps.size()) {
+            lastSweepDurationNanos.set(sliceEnd - sweepStartNanos);
+            sweepCount.increment();
+            sweeping = false;
+        }
+        totalSliceNanos.addAndGet(sliceEnd - sliceStart);
+        evictedCount.add(evicted);
+        return evicted;
+    }
+
+    private long totalEntries() {
+        long total = 0;
+        for (LongKeyMap<LocalBucket> map : maps) {
+            total += map.size();
+        }
+        return total;
+    }
+
+    /**
+     * Tells whether the sweep should evict the bucket, counting it as gone from the entries if so.
+     */
+    private boolean shouldEvict(LocalBucket bucket) {
+        long overflow = entries - maxEntries;
+        boolean evict = bucket.isExpired(idleTtlMillis)
+                || overflow > 0 && (bucket.isFull() || overflow > maxEntries / 10);
+        if (evict) {
+            entries--;
+        }
+        return evict;
+    }
+
+    /**
+     * Returns the total number of evicted buckets.
+     *
+     * @return the eviction count
+     */
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * Returns the number of completed full passes over the bucket maps.
+     *
+     * @return the sweep count
+     */
+    public long getSweepCount() {
+        return sweepCount.sum();
+    }
+
+    /**
+     * Returns the wall time of the last completed pass over the bucket maps, including the pauses between slices.
+     *
+     * @return the last sweep duration in nanoseconds
+     */
+    public long getLastSweepDurationNanos() {
+        return lastSweepDurationNanos.get();
+    }
+
+    /**
+     * Returns the total time spent in sweep slices.
+     *
+     * @return the accumulated slice time in nanoseconds
+     */
+    public long getTotalSliceNanos() {
+        return totalSliceNanos.get();
+    }
+}
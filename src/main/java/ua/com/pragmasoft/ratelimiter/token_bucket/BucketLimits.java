@@ -0,0 +1,25 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * Immutable pair of bucket size and refill rate shared by all buckets of a store.
+ * <p>
+ * A store publishes its limits as one instance in a volatile field, so a reconfiguration replaces both values
+ * atomically and the request path pays a single volatile read. Buckets remember the instance they were built for
+ * and compare it by identity to notice that they have to be rescaled.
+ *
+ * @param size       the maximum number of tokens in each bucket
+ * @param refillRate the rate at which tokens are added (tokens per second)
+ */
+public record BucketLimits(long size, long refillRate) {
+
+    /**
+     * Validates the limits.
+     *
+     * @throws IllegalArgumentException if the size or the refill rate is negative
+     */
+    public BucketLimits {
+        if (size < 0 || refillRate < 0) {
+            throw new IllegalArgumentException("Bucket size and refill rate must not be negative");
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persists the bucket state of {@link CompactBucketStore}s across restarts, so that a deploy does not hand every
+ * client a fresh burst.
+ * <p>
+ * Each store is written on a background thread to its own memory-mapped file {@code <namespace>.snapshot}: a header
+ * of four longs (format marker, store epoch, entry count, write time) followed by one pair of key hash and packed
+ * state per bucket that has not refilled completely. The table is read without locking, so request threads never
+ * wait for a snapshot. Files are written next to the target and moved into place atomically, so a crash during a
+ * write leaves the previous snapshot intact.
+ * <p>
+ * {@link #start()} restores the snapshots in bulk before scheduling the writes: states are refilled up to the current
+ * time, and buckets that have refilled completely in the meantime are dropped.
+ */
+public class BucketSnapshotter {
+
+    /**
+     * Marks a snapshot file and its format version ("RLSNAP01").
+     */
+    static final long MAGIC = 0x524c534e41503031L;
+    static final int HEADER_LONGS = 4;
+    static final String SUFFIX = ".snapshot";
+
+    private final Map<String, CompactBucketStore> stores;
+    private final Path directory;
+    private final long intervalMillis;
+
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder failedWriteCount = new LongAdder();
+    private final AtomicLong lastWriteDurationNanos = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a {@link BucketSnapshotter}.
+     *
+     * @param stores         the stores to persist, by namespace; the namespace names the snapshot file
+     * @param directory      the directory holding the snapshot files, created if missing
+     * @param intervalMillis the delay between snapshots, in milliseconds
+     */
+    public BucketSnapshotter(Map<String, CompactBucketStore> stores, Path directory, long intervalMillis) {
+        this.stores = Map.copyOf(stores);
+        this.directory = directory;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Restores the snapshots and starts writing new ones on a background daemon thread.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (scheduler != null) {
+                return;
+            }
+            restore();
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bucket-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::writeQuietly, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background thread and writes a final snapshot.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        writeQuietly();
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (UncheckedIOException e) {
+            failedWriteCount.increment();
+        }
+    }
+
+    /**
+     * Writes a snapshot of every store. Called by the background thread; exposed for tests and manual triggering.
+     *
+     * @return the number of buckets written
+     * @throws UncheckedIOException if a snapshot file cannot be written
+     */
+    public long write() {
+        lock.lock();
+        try {
+            long start = System.nanoTime();
+            Files.createDirectories(directory);
+            long written = 0;
+            for (Map.Entry<String, CompactBucketStore> entry : stores.entrySet()) {
+                written += write(entry.getValue(), directory.resolve(entry.getKey() + SUFFIX));
+            }
+            writeCount.increment();
+            lastWriteDurationNanos.set(System.nanoTime() - start);
+            return written;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int write(CompactBucketStore store, Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        // buckets claimed after this point may not fit and are picked up by the next snapshot
+        long capacity = HEADER_LONGS + 2L * store.getBucketCount();
+        int written;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity * Long.BYTES);
+            LongBuffer longs = buffer.asLongBuffer();
+            written = store.writeSnapshot(longs.position(HEADER_LONGS));
+            longs.put(0, MAGIC)
+                    .put(1, store.getEpoch())
+                    .put(2, written)
+                    .put(3, System.currentTimeMillis());
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * Restores the snapshot of every store that has one. Files that are not snapshots or are cut short are ignored.
+     *
+     * @return the number of buckets restored
+     * @throws UncheckedIOException if a snapshot file exists but cannot be read
+     */
+    public long restore() {
+        long restored = 0;
+        for (Map.Entry<String, CompactBucketStore> entry : stores.entrySet()) {
+            Path file = directory.resolve(entry.getKey() + SUFFIX);
+            if (Files.isRegularFile(file)) {
+                restored += restore(entry.getValue(), file);
+            }
+        }
+        return restored;
+    }
+
+    private static int restore(CompactBucketStore store, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileLongs = channel.size() / Long.BYTES;
+            if (fileLongs < HEADER_LONGS) {
+                return 0;
+            }
+            LongBuffer longs = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLongs * Long.BYTES).asLongBuffer();
+            long count = longs.get(2);
+            if (longs.get(0) != MAGIC || count < 0 || count > (fileLongs - HEADER_LONGS) / 2) {
+                return 0;
+            }
+            return store.restoreSnapshot(longs.position(HEADER_LONGS), (int) count, longs.get(1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of completed snapshots.
+     *
+     * @return the write count
+     */
+    public long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    /**
+     * Returns the number of background snapshots that failed.
+     *
+     * @return the failed write count
+     */
+    public long getFailedWriteCount() {
+        return failedWriteCount.sum();
+    }
+
+    /**
+     * Returns the time taken by the last completed snapshot of all stores.
+     *
+     * @return the last write duration in nanoseconds
+     */
+    public long getLastWriteDurationNanos() {
+        return lastWriteDurationNanos.get();
+    }
+}
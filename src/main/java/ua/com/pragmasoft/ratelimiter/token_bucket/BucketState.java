@@ -0,0 +1,106 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helper for the packed bucket state: the token count and the last refill timestamp share a single {@code long},
+ * so that refill and consume can be applied with one compare-and-set.
+ * <p>
+ * Layout: the upper {@value #TOKEN_BITS} bits (sign bit excluded) hold the token count, the lower
+ * {@value #TIMESTAMP_BITS} bits hold the last refill time in milliseconds relative to the bucket epoch.
+ */
+final class BucketState {
+
+    static final int TIMESTAMP_BITS = 40;
+    static final int TOKEN_BITS = 63 - TIMESTAMP_BITS;
+    static final long MAX_TOKENS = (1L << TOKEN_BITS) - 1;
+    static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+
+    private BucketState() {
+    }
+
+    /**
+     * Packs the token count and the relative timestamp into a single state word.
+     *
+     * @param tokens    the number of tokens, between 0 and {@link #MAX_TOKENS}
+     * @param timestamp the last refill time relative to the epoch, between 0 and {@link #MAX_TIMESTAMP}
+     * @return the packed state
+     */
+    static long pack(long tokens, long timestamp) {
+        return (tokens << TIMESTAMP_BITS) | (timestamp & MAX_TIMESTAMP);
+    }
+
+    static long tokens(long state) {
+        return state >>> TIMESTAMP_BITS;
+    }
+
+    static long timestamp(long state) {
+        return state & MAX_TIMESTAMP;
+    }
+
+    /**
+     * Converts an absolute time to the relative timestamp stored in the state word.
+     * Times before the epoch (e.g. after a wall clock step back) are clamped to zero.
+     *
+     * @param now   the current time in milliseconds
+     * @param epoch the epoch of the bucket in milliseconds
+     * @return the relative timestamp
+     */
+    static long relative(long now, long epoch) {
+        return Math.min(MAX_TIMESTAMP, Math.max(0, now - epoch));
+    }
+
+    /**
+     * Returns the state refilled up to the given time. Only the time that was converted into whole tokens is
+     * consumed from the elapsed interval (rounded up to the next millisecond), so fractional tokens are not lost
+     * between close requests and the bucket never refills faster than the configured rate. A state holding more
+     * than {@code size} tokens, left over from a larger size before the limits were lowered, is capped at the size.
+     *
+     * @param state      the current packed state
+     * @param now        the current relative timestamp
+     * @param size       the maximum number of tokens in the bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @return the refilled state, or the same state if no whole token has been earned yet
+     */
+    static long refill(long state, long now, long size, long refillRate) {
+        long tokens = tokens(state);
+        long timestamp = timestamp(state);
+        long elapsed = now - timestamp;
+        if (tokens > size) {
+            return pack(size, Math.max(timestamp, now));
+        }
+        if (elapsed <= 0 || refillRate <= 0) {
+            return state;
+        }
+        if (tokens == size) {
+            return pack(tokens, now);
+        }
+        long newTokens = elapsed > Long.MAX_VALUE / refillRate ? size : elapsed * refillRate / 1000;
+        if (newTokens == 0) {
+            return state;
+        }
+        if (tokens + newTokens >= size) {
+            return pack(size, now);
+        }
+        return pack(tokens + newTokens, timestamp + (newTokens * 1000 + refillRate - 1) / refillRate);
+    }
+
+    /**
+     * Calculates the time in nanoseconds until a refilled state holds the requested number of tokens.
+     *
+     * @param refilled   the refilled state
+     * @param now        the current relative timestamp
+     * @param tokens     the number of tokens requested
+     * @param size       the maximum number of tokens in the bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @return the time to wait in nanoseconds, saturated if the request can never be satisfied
+     */
+    static long retryAfterNanos(long refilled, long now, long tokens, long size, long refillRate) {
+        if (refillRate <= 0 || tokens > size) {
+            return AcquireResult.MAX_RETRY_AFTER_NANOS;
+        }
+        long tokensNeeded = tokens - tokens(refilled);
+        long waitMillis = (tokensNeeded * 1000 + refillRate - 1) / refillRate - (now - timestamp(refilled));
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, waitMillis));
+    }
+}
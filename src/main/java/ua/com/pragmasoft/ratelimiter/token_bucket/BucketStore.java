@@ -0,0 +1,175 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of per-client token buckets. All buckets of a store share the same size and refill rate, which stores
+ * that support reconfiguration let change at runtime without dropping the state of existing buckets.
+ */
+public interface BucketStore {
+
+    /**
+     * Retrieves or creates the token bucket for the specified client key.
+     *
+     * @param clientKey the unique client key
+     * @return the token bucket for the specified client key
+     */
+    TokenBucket getBucket(String clientKey);
+
+    /**
+     * Attempts to retrieve tokens from the bucket of the specified client key.
+     *
+     * @param clientKey       the unique client key
+     * @param tokensForBucket the number of tokens to retrieve
+     * @return the decision encoded as described in {@link AcquireResult}
+     */
+    default long tryAcquire(String clientKey, int tokensForBucket) {
+        return getBucket(clientKey).tryAcquire(tokensForBucket);
+    }
+
+    /**
+     * Attempts to retrieve tokens from the bucket of the specified primitive client key, as produced by
+     * {@link ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy#getClientKeyHash}.
+     * Stores that are keyed on strings fall back to the hexadecimal form of the key.
+     *
+     * @param keyHash         the primitive client key
+     * @param tokensForBucket the number of tokens to retrieve
+     * @return the decision encoded as described in {@link AcquireResult}
+     */
+    default long tryAcquire(long keyHash, int tokensForBucket) {
+        return tryAcquire(Long.toHexString(keyHash), tokensForBucket);
+    }
+
+    /**
+     * Returns tokens taken by an admitted {@link #tryAcquire(long, int)} that is being rolled back, as described in
+     * {@link TokenBucket#refund(int)}.
+     *
+     * @param keyHash the primitive client key
+     * @param tokens  the number of tokens to return
+     * @throws UnsupportedOperationException if the buckets of the store cannot take tokens back
+     */
+    default void refund(long keyHash, int tokens) {
+        getBucket(Long.toHexString(keyHash)).refund(tokens);
+    }
+
+    /**
+     * Tells whether {@link #tryAcquire(long, int)} always decides in memory, without waiting on remote storage, so
+     * that non-blocking callers can call it directly instead of going through {@link #tryAcquireAsync(long, int)}.
+     *
+     * @return {@code true} for stores that never block on I/O
+     */
+    default boolean decidesLocally() {
+        return true;
+    }
+
+    /**
+     * Attempts to retrieve tokens from the bucket of the specified primitive client key without blocking the
+     * calling thread. In-memory stores decide immediately and return a completed future; stores backed by remote
+     * storage run the call on their own threads, so that event-loop threads are never blocked.
+     *
+     * @param keyHash         the primitive client key
+     * @param tokensForBucket the number of tokens to retrieve
+     * @return the future decision encoded as described in {@link AcquireResult}
+     */
+    default CompletableFuture<Long> tryAcquireAsync(long keyHash, int tokensForBucket) {
+        return CompletableFuture.completedFuture(tryAcquire(keyHash, tokensForBucket));
+    }
+
+    /**
+     * Attempts to retrieve tokens for a batch of requests, e.g. the sub-operations of one batched RPC, in one call.
+     * Each decision is atomic on its own; the batch as a whole is not, and a key may appear several times.
+     * In-memory stores read the clock and the limits once per batch; remote stores send the batch in one round trip.
+     *
+     * @param keyHashes the primitive client key of each request
+     * @param tokens    the number of tokens to retrieve for each request
+     * @param results   receives the decision of each request encoded as described in {@link AcquireResult}, or
+     *                  {@code null} if only the admission bitmap is needed
+     * @return the admission bitmap as described in {@link AcquireResult}
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    default long[] tryAcquireAll(long[] keyHashes, int[] tokens, long[] results) {
+        long[] admitted = AcquireResult.newBitmap(keyHashes, tokens, results);
+        for (int i = 0; i < keyHashes.length; i++) {
+            long result = tryAcquire(keyHashes[i], tokens[i]);
+            if (results != null) {
+                results[i] = result;
+            }
+            if (AcquireResult.isAllowed(result)) {
+                AcquireResult.setAllowed(admitted, i);
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Attempts to retrieve tokens for a batch of requests without blocking the calling thread, as described in
+     * {@link #tryAcquireAll(long[], int[], long[])} and {@link #tryAcquireAsync(long, int)}. The results are filled
+     * in before the future completes.
+     *
+     * @param keyHashes the primitive client key of each request
+     * @param tokens    the number of tokens to retrieve for each request
+     * @param results   receives the decision of each request, or {@code null} if only the admission bitmap is needed
+     * @return the future admission bitmap
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    default CompletableFuture<long[]> tryAcquireAllAsync(long[] keyHashes, int[] tokens, long[] results) {
+        return CompletableFuture.completedFuture(tryAcquireAll(keyHashes, tokens, results));
+    }
+
+    /**
+     * Returns the number of client buckets currently held.
+     *
+     * @return the number of buckets
+     */
+    int getBucketCount();
+
+    /**
+     * Returns an estimate of the heap memory held by the store.
+     *
+     * @return the estimated memory in bytes
+     */
+    long getMemoryEstimateBytes();
+
+    /**
+     * Tells whether {@link #getBucketCount()} and {@link #getMemoryEstimateBytes()} describe buckets held by this
+     * instance. Stores whose buckets live elsewhere return false, and their size gauges are not registered.
+     *
+     * @return true if the store counts and sizes its buckets locally
+     */
+    default boolean tracksBuckets() {
+        return true;
+    }
+
+    /**
+     * Tells whether {@link #getLimits()} returns the limits of the store rather than throwing, so that callers on the
+     * request path can check it instead of catching the exception.
+     *
+     * @return true if the store exposes its limits
+     */
+    default boolean supportsLimits() {
+        return false;
+    }
+
+    /**
+     * Returns the limits currently applied to the buckets of the store.
+     *
+     * @return the bucket limits
+     * @throws UnsupportedOperationException if the store does not expose its limits
+     */
+    default BucketLimits getLimits() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support reconfiguration");
+    }
+
+    /**
+     * Publishes new limits for all buckets of the store. The limits take effect for the next request of every
+     * client; existing buckets keep the tokens their clients have used, rescaled to the new limits on their next
+     * access rather than all at once.
+     *
+     * @param limits the new limits
+     * @throws IllegalArgumentException      if the store cannot hold buckets of the given size
+     * @throws UnsupportedOperationException if the store does not support reconfiguration
+     */
+    default void updateLimits(BucketLimits limits) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support reconfiguration");
+    }
+}
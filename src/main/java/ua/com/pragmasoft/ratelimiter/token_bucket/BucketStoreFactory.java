@@ -0,0 +1,20 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * Creates a {@link BucketStore} of a given kind for one bucket namespace, so that every rate limit rule gets its
+ * own buckets with its own limits.
+ */
+@FunctionalInterface
+public interface BucketStoreFactory {
+
+    /**
+     * Creates a bucket store.
+     *
+     * @param namespace  the name of the namespace, unique per rule; remote stores use it in their keys
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param algorithm  the limiter algorithm, for stores that support more than the token bucket
+     * @return the bucket store
+     */
+    BucketStore create(String namespace, long size, long refillRate, LimiterAlgorithm algorithm);
+}
@@ -0,0 +1,98 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link TimeSource} whose reading is refreshed by a background ticker thread, so that the request path reads one
+ * volatile field instead of the system clock. Readings lag the system clock by up to one tick and never go back.
+ * <p>
+ * The reading only moves while the ticker runs, between {@link #start()} and {@link #stop()}. Each ticker runs only
+ * while it is the current one, so a ticker replaced by a quick stop and start exits instead of running alongside its
+ * successor; a late refresh from it cannot move the reading back, because every refresh takes the maximum atomically.
+ */
+public class CachedTimeSource implements TimeSource {
+
+    private final long tickNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong nanoTime = new AtomicLong(System.nanoTime());
+    private volatile Thread ticker;
+
+    /**
+     * Constructs a {@link CachedTimeSource}.
+     *
+     * @param tickNanos the interval between refreshes in nanoseconds, e.g. 100 microseconds
+     * @throws IllegalArgumentException if the interval is not positive
+     */
+    public CachedTimeSource(long tickNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick interval must be positive");
+        }
+        this.tickNanos = tickNanos;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanoTime.get();
+    }
+
+    /**
+     * Starts refreshing the reading on a background daemon thread.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (ticker != null) {
+                return;
+            }
+            refresh();
+            Thread thread = new Thread(this::tick, "time-source-ticker");
+            thread.setDaemon(true);
+            ticker = thread;
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background thread. The reading stays at its last value.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            if (ticker == null) {
+                return;
+            }
+            Thread thread = ticker;
+            ticker = null;
+            LockSupport.unpark(thread);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tick() {
+        Thread self = Thread.currentThread();
+        while (ticker == self) {
+            LockSupport.parkNanos(this, tickNanos);
+            if (ticker == self) {
+                refresh();
+            }
+        }
+    }
+
+    private void refresh() {
+        nanoTime.accumulateAndGet(System.nanoTime(), Math::max);
+    }
+
+    /**
+     * Returns the interval between refreshes.
+     *
+     * @return the tick interval in nanoseconds
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+}
@@ -0,0 +1,339 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyHash;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity {@link BucketStore} that keeps the bucket state in primitive arrays instead of objects.
+ * <p>
+ * Client keys are reduced to a 64-bit hash and stored in an open-addressing table next to the packed bucket state
+ * described in {@link BucketState}, which costs 16 bytes per slot regardless of the key length. The table never
+ * grows. When a key finds no free slot within its probe window, it takes over a slot whose bucket has fully
+ * refilled (which is indistinguishable from a fresh bucket); if there is none, the request is charged to a single
+ * shared overflow bucket.
+ * <p>
+ * The limits are read with one volatile load per request. A slot holds nothing but tokens and a timestamp, so new
+ * limits apply to every slot on its next request, with the tokens capped at the new size.
+ */
+public class CompactBucketStore implements BucketStore {
+
+    static final int MAX_PROBES = 16;
+    private static final long EMPTY = 0;
+
+    private volatile BucketLimits limits;
+    private final TimeSource timeSource;
+    private final long epoch;
+    private final int mask;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+    private final AtomicInteger occupied = new AtomicInteger();
+    private volatile LocalBucket overflowBucket;
+
+    /**
+     * Constructs a {@link CompactBucketStore} with the specified bucket size, refill rate and capacity.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param capacity   the number of slots, rounded up to a power of two
+     * @throws IllegalArgumentException if the size or the capacity is out of range
+     */
+    public CompactBucketStore(long size, long refillRate, int capacity) {
+        this(size, refillRate, capacity, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@link CompactBucketStore} with the specified bucket size, refill rate, capacity and clock.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param capacity   the number of slots, rounded up to a power of two
+     * @param timeSource the clock of the buckets
+     * @throws IllegalArgumentException if the size or the capacity is out of range
+     */
+    public CompactBucketStore(long size, long refillRate, int capacity, TimeSource timeSource) {
+        if (size < 0 || size > BucketState.MAX_TOKENS) {
+            throw new IllegalArgumentException("Bucket size must be between 0 and " + BucketState.MAX_TOKENS);
+        }
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 30));
+        }
+        int slots = Math.max(MAX_PROBES, Integer.highestOneBit(capacity - 1) << 1);
+        this.limits = new BucketLimits(size, refillRate);
+        // state 0 is reserved for "never used", so the relative clock starts at 1
+        this.timeSource = timeSource;
+        this.epoch = timeSource.millis() - 1;
+        this.mask = slots - 1;
+        this.keys = new AtomicLongArray(slots);
+        this.states = new AtomicLongArray(slots);
+        this.overflowBucket = new TokenBucketImpl(limits, timeSource);
+    }
+
+    @Override
+    public TokenBucket getBucket(String clientKey) {
+        long keyHash = ClientKeyHash.of(clientKey);
+        return tokens -> tryAcquire(keyHash, tokens);
+    }
+
+    @Override
+    public long tryAcquire(String clientKey, int tokensForBucket) {
+        return tryAcquire(ClientKeyHash.of(clientKey), tokensForBucket);
+    }
+
+    @Override
+    public long tryAcquire(long keyHash, int tokensForBucket) {
+        BucketLimits limits = this.limits;
+        long now = BucketState.relative(timeSource.millis(), epoch);
+        return tryAcquire(keyHash, tokensForBucket, limits.size(), limits.refillRate(), now);
+    }
+
+    /**
+     * Decides a batch with one read of the limits and the clock for all of its requests.
+     */
+    @Override
+    public long[] tryAcquireAll(long[] keyHashes, int[] tokens, long[] results) {
+        long[] admitted = AcquireResult.newBitmap(keyHashes, tokens, results);
+        BucketLimits limits = this.limits;
+        long size = limits.size();
+        long refillRate = limits.refillRate();
+        long now = BucketState.relative(timeSource.millis(), epoch);
+        for (int i = 0; i < keyHashes.length; i++) {
+            long result = tryAcquire(keyHashes[i], tokens[i], size, refillRate, now);
+            if (results != null) {
+                results[i] = result;
+            }
+            if (AcquireResult.isAllowed(result)) {
+                AcquireResult.setAllowed(admitted, i);
+            }
+        }
+        return admitted;
+    }
+
+    private long tryAcquire(long keyHash, int tokensForBucket, long size, long refillRate, long now) {
+        int slot = findSlot(keyHash == EMPTY ? 1 : keyHash, now, size, refillRate);
+        if (slot < 0) {
+            return overflowBucket.tryAcquire(tokensForBucket);
+        }
+        long current = states.get(slot);
+        while (true) {
+            long refilled = current == EMPTY ? BucketState.pack(size, now) : BucketState.refill(current, now, size, refillRate);
+            long available = BucketState.tokens(refilled);
+            if (available < tokensForBucket) {
+                return AcquireResult.denied(available,
+                        BucketState.retryAfterNanos(refilled, now, tokensForBucket, size, refillRate));
+            }
+            long next = BucketState.pack(available - tokensForBucket, BucketState.timestamp(refilled));
+            if (states.compareAndSet(slot, current, next)) {
+                return AcquireResult.allowed(available - tokensForBucket);
+            }
+            current = states.get(slot);
+        }
+    }
+
+    /**
+     * Returns tokens to the bucket of the key, or to the overflow bucket if the key holds no slot.
+     *
+     * @param keyHash the primitive client key
+     * @param tokens  the number of tokens to return
+     */
+    @Override
+    public void refund(long keyHash, int tokens) {
+        long key = keyHash == EMPTY ? 1 : keyHash;
+        int start = spread(key) & mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (keys.get(slot) == key) {
+                long size = limits.size();
+                while (true) {
+                    long current = states.get(slot);
+                    if (current == EMPTY) {
+                        return;
+                    }
+                    long refunded = BucketState.pack(Math.min(size, BucketState.tokens(current) + tokens),
+                            BucketState.timestamp(current));
+                    if (states.compareAndSet(slot, current, refunded)) {
+                        return;
+                    }
+                }
+            }
+        }
+        overflowBucket.refund(tokens);
+    }
+
+    /**
+     * Finds the slot of the key within its probe window, claiming a free or a fully refilled slot if the key is
+     * not present yet.
+     *
+     * @param keyHash    the non-zero key hash
+     * @param now        the current relative timestamp
+     * @param size       the current bucket size
+     * @param refillRate the current refill rate
+     * @return the slot index, or -1 if the probe window is full of active buckets
+     */
+    private int findSlot(long keyHash, long now, long size, long refillRate) {
+        int start = spread(keyHash) & mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            long key = keys.get(slot);
+            if (key == keyHash) {
+                return slot;
+            }
+            if (key == EMPTY) {
+                if (keys.compareAndSet(slot, EMPTY, keyHash)) {
+                    occupied.incrementAndGet();
+                    return slot;
+                }
+                if (keys.get(slot) == keyHash) {
+                    return slot;
+                }
+            }
+        }
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            long key = keys.get(slot);
+            if (isRefilled(states.get(slot), now, size, refillRate) && keys.compareAndSet(slot, key, keyHash)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the key hash and packed state of every bucket that has not refilled completely, stopping when the
+     * buffer is full. Reads the table without locking, so concurrent requests are never blocked; a bucket that
+     * changes while it is copied is written in either its old or its new state.
+     *
+     * @param out the buffer receiving pairs of key hash and state
+     * @return the number of buckets written
+     */
+    int writeSnapshot(LongBuffer out) {
+        BucketLimits limits = this.limits;
+        long now = BucketState.relative(timeSource.millis(), epoch);
+        int written = 0;
+        for (int slot = 0; slot <= mask && out.remaining() >= 2; slot++) {
+            long key = keys.get(slot);
+            long state = states.get(slot);
+            if (key != EMPTY && !isRefilled(state, now, limits.size(), limits.refillRate())) {
+                out.put(key).put(state);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Restores buckets written by {@link #writeSnapshot(LongBuffer)}, possibly by another process. Each state is
+     * refilled up to now and moved to the epoch of this store; buckets that have refilled completely since, keys
+     * that are already present and keys that find no free slot are skipped.
+     *
+     * @param in            the buffer holding pairs of key hash and state
+     * @param count         the number of buckets to read
+     * @param snapshotEpoch the epoch of the store that wrote the snapshot, in milliseconds
+     * @return the number of buckets restored
+     */
+    int restoreSnapshot(LongBuffer in, int count, long snapshotEpoch) {
+        BucketLimits limits = this.limits;
+        long size = limits.size();
+        long currentTime = System.currentTimeMillis();
+        long wallEpoch = getEpoch();
+        long snapshotNow = BucketState.relative(currentTime, snapshotEpoch);
+        int restored = 0;
+        for (int i = 0; i < count; i++) {
+            long key = in.get();
+            long state = in.get();
+            long refilled = BucketState.refill(state, snapshotNow, size, limits.refillRate());
+            long tokens = BucketState.tokens(refilled);
+            if (key == EMPTY || state == EMPTY || tokens >= size) {
+                continue;
+            }
+            long timestamp = Math.max(1, BucketState.relative(snapshotEpoch + BucketState.timestamp(refilled), wallEpoch));
+            if (claimFreeSlot(key, BucketState.pack(tokens, timestamp))) {
+                restored++;
+            }
+        }
+        occupied.addAndGet(restored);
+        return restored;
+    }
+
+    private boolean claimFreeSlot(long keyHash, long state) {
+        int start = spread(keyHash) & mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            long key = keys.get(slot);
+            if (key == keyHash) {
+                return false;
+            }
+            if (key == EMPTY && keys.compareAndSet(slot, EMPTY, keyHash)) {
+                states.set(slot, state);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the wall-clock time that the timestamps of the packed states are relative to. The store runs on its
+     * monotonic time source, so the value is derived from the current readings of both clocks; it lets another
+     * process, with a time source of a different origin, interpret a snapshot.
+     *
+     * @return the epoch in milliseconds since the Unix epoch
+     */
+    long getEpoch() {
+        return System.currentTimeMillis() - (timeSource.millis() - epoch);
+    }
+
+    private static boolean isRefilled(long state, long now, long size, long refillRate) {
+        return state == EMPTY || BucketState.tokens(BucketState.refill(state, now, size, refillRate)) >= size;
+    }
+
+    @Override
+    public boolean supportsLimits() {
+        return true;
+    }
+
+    @Override
+    public BucketLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Publishes new limits, which every slot picks up on its next request.
+     *
+     * @param limits the new limits
+     * @throws IllegalArgumentException if the size exceeds {@link BucketState#MAX_TOKENS}
+     */
+    @Override
+    public void updateLimits(BucketLimits limits) {
+        if (limits.size() > BucketState.MAX_TOKENS) {
+            throw new IllegalArgumentException("Bucket size must be between 0 and " + BucketState.MAX_TOKENS);
+        }
+        overflowBucket = overflowBucket.rescale(limits);
+        this.limits = limits;
+    }
+
+    @Override
+    public int getBucketCount() {
+        return occupied.get();
+    }
+
+    @Override
+    public long getMemoryEstimateBytes() {
+        return 2L * Long.BYTES * getCapacity();
+    }
+
+    /**
+     * Returns the number of slots of the table.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    private static int spread(long keyHash) {
+        long h = keyHash * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,173 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyHash;
+
+/**
+ * {@link BucketStore} that keeps a bucket per client key in a concurrent map, using the configured
+ * {@link LimiterAlgorithm} ({@link TokenBucketImpl} by default). Buckets are keyed on the primitive client key in a
+ * table of primitive longs, so a request keyed by {@link #tryAcquire(long, int)} creates neither a String nor a boxed
+ * key; string keys are hashed with {@link ClientKeyHash}.
+ * The map is unbounded by itself; idle buckets are removed by a {@link BucketEvictor}.
+ * <p>
+ * The limits are read with one volatile load per lookup. When they change, each bucket is rescaled on its own next
+ * lookup, so a reconfiguration costs nothing up front however many buckets the store holds.
+ */
+public class ConcurrentMapBucketStore implements BucketStore {
+
+    /**
+     * Approximate heap cost of one entry: up to two key and reference slots of the half-full table, the bucket and
+     * its AtomicLong.
+     */
+    static final long ESTIMATED_BYTES_PER_BUCKET = 88;
+
+    private final LimiterAlgorithm algorithm;
+    private final TimeSource timeSource;
+    private volatile BucketLimits limits;
+    private final LongKeyMap<LocalBucket> buckets = new LongKeyMap<>();
+
+    /**
+     * Constructs a {@link ConcurrentMapBucketStore} of token buckets with the specified bucket size and refill rate.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     */
+    public ConcurrentMapBucketStore(long size, long refillRate) {
+        this(size, refillRate, LimiterAlgorithm.TOKEN_BUCKET);
+    }
+
+    /**
+     * Constructs a {@link ConcurrentMapBucketStore} with the specified limits and algorithm.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param algorithm  the limiter algorithm of the buckets
+     */
+    public ConcurrentMapBucketStore(long size, long refillRate, LimiterAlgorithm algorithm) {
+        this(size, refillRate, algorithm, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@link ConcurrentMapBucketStore} with the specified limits, algorithm and clock.
+     *
+     * @param size       the maximum number of tokens in each bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param algorithm  the limiter algorithm of the buckets
+     * @param timeSource the clock of the buckets
+     */
+    public ConcurrentMapBucketStore(long size, long refillRate, LimiterAlgorithm algorithm, TimeSource timeSource) {
+        this.algorithm = algorithm;
+        this.timeSource = timeSource;
+        this.limits = new BucketLimits(size, refillRate);
+    }
+
+    /**
+     * Retrieves or creates the token bucket for the specified client key. Existing buckets are found with an
+     * optimistic read; only a miss, or the first lookup of a bucket after the limits changed, falls back to
+     * {@code compute}, which locks one segment of the map.
+     *
+     * @param clientKey the unique client key
+     * @return the token bucket for the specified client key
+     */
+    @Override
+    public TokenBucket getBucket(String clientKey) {
+        return lookup(ClientKeyHash.of(clientKey), limits);
+    }
+
+    @Override
+    public long tryAcquire(String clientKey, int tokensForBucket) {
+        return tryAcquire(ClientKeyHash.of(clientKey), tokensForBucket);
+    }
+
+    @Override
+    public long tryAcquire(long keyHash, int tokensForBucket) {
+        return lookup(keyHash, limits).tryAcquire(tokensForBucket);
+    }
+
+    @Override
+    public void refund(long keyHash, int tokens) {
+        lookup(keyHash, limits).refund(tokens);
+    }
+
+    /**
+     * Decides a batch with one read of the limits and the clock for all of its requests. Runs of the same key are
+     * looked up once.
+     */
+    @Override
+    public long[] tryAcquireAll(long[] keyHashes, int[] tokens, long[] results) {
+        long[] admitted = AcquireResult.newBitmap(keyHashes, tokens, results);
+        BucketLimits current = limits;
+        long nanoTime = timeSource.nanoTime();
+        LocalBucket bucket = null;
+        for (int i = 0; i < keyHashes.length; i++) {
+            if (bucket == null || keyHashes[i] != keyHashes[i - 1]) {
+                bucket = lookup(keyHashes[i], current);
+            }
+            long result = bucket.tryAcquire(tokens[i], nanoTime);
+            if (results != null) {
+                results[i] = result;
+            }
+            if (AcquireResult.isAllowed(result)) {
+                AcquireResult.setAllowed(admitted, i);
+            }
+        }
+        return admitted;
+    }
+
+    private LocalBucket lookup(long clientKey, BucketLimits current) {
+        LocalBucket bucket = buckets.get(clientKey);
+        if (bucket != null && bucket.limits() == current) {
+            return bucket;
+        }
+        return buckets.compute(clientKey, existing -> {
+            if (existing == null) {
+                return algorithm.newBucket(current, timeSource);
+            }
+            return existing.limits() == current ? existing : existing.rescale(current);
+        });
+    }
+
+    @Override
+    public boolean supportsLimits() {
+        return true;
+    }
+
+    @Override
+    public BucketLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Publishes new limits. A request that raced with the rescale of its bucket may have been charged to the old
+     * bucket, so up to one request per client and reconfiguration can go uncounted.
+     *
+     * @param limits the new limits
+     * @throws IllegalArgumentException if the algorithm does not support buckets of the given size
+     */
+    @Override
+    public void updateLimits(BucketLimits limits) {
+        // fail before publishing if the algorithm cannot hold buckets of this size
+        algorithm.newBucket(limits, timeSource);
+        if (!limits.equals(this.limits)) {
+            this.limits = limits;
+        }
+    }
+
+    @Override
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    @Override
+    public long getMemoryEstimateBytes() {
+        return buckets.size() * ESTIMATED_BYTES_PER_BUCKET;
+    }
+
+    /**
+     * Returns the underlying bucket map, used by {@link BucketEvictor} for background eviction.
+     *
+     * @return the map of primitive client keys to buckets
+     */
+    LongKeyMap<LocalBucket> buckets() {
+        return buckets;
+    }
+}
@@ -0,0 +1,118 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TokenBucket} implementing the Generic Cell Rate Algorithm on the nanosecond clock.
+ * <p>
+ * Instead of counting tokens, the bucket keeps a single theoretical arrival time (TAT): every admitted token pushes
+ * it forward by one emission interval ({@code 1s / refillRate}), and a request is admitted as long as the TAT stays
+ * within {@code size} intervals of now. This is equivalent to a token bucket of the same size and rate, but there is
+ * no refill step that could truncate fractional tokens, so the admitted rate does not drift at high refill rates.
+ */
+public class GcraBucket extends LocalBucket {
+
+    private final long size;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final long epochNanos;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * Constructs a {@link GcraBucket} with the specified burst size and rate.
+     *
+     * @param size       the maximum number of tokens admitted at once
+     * @param refillRate the sustained rate (tokens per second); 0 admits a single burst of {@code size} tokens
+     * @throws IllegalArgumentException if the size is negative or exceeds {@link BucketState#MAX_TOKENS}
+     */
+    public GcraBucket(long size, long refillRate) {
+        this(new BucketLimits(size, refillRate), TimeSource.SYSTEM);
+    }
+
+    GcraBucket(BucketLimits limits, TimeSource timeSource) {
+        super(limits, timeSource);
+        long size = limits.size();
+        long refillRate = limits.refillRate();
+        if (size > BucketState.MAX_TOKENS) {
+            throw new IllegalArgumentException("Bucket size must be between 0 and " + BucketState.MAX_TOKENS);
+        }
+        this.size = size;
+        // without refill, one interval is long enough that time never catches up, yet size intervals cannot overflow
+        this.emissionIntervalNanos = refillRate > 0
+                ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / refillRate)
+                : Long.MAX_VALUE / 4 / Math.max(1, size);
+        this.burstToleranceNanos = size * emissionIntervalNanos;
+        this.epochNanos = timeSource.nanoTime();
+        this.theoreticalArrival = new AtomicLong();
+    }
+
+    @Override
+    public long tryAcquire(int tokensForBucket) {
+        return tryAcquire(tokensForBucket, timeSource().nanoTime());
+    }
+
+    @Override
+    long tryAcquire(int tokensForBucket, long nanoTime) {
+        // a batch may have read the clock just before the bucket was created
+        long now = Math.max(0, nanoTime - epochNanos);
+        if (tokensForBucket > size) {
+            return AcquireResult.denied(remaining(theoreticalArrival.get(), now), AcquireResult.MAX_RETRY_AFTER_NANOS);
+        }
+        long increment = tokensForBucket * emissionIntervalNanos;
+        while (true) {
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + increment;
+            long excess = next - now - burstToleranceNanos;
+            if (excess > 0) {
+                return AcquireResult.denied(remaining(current, now), excess);
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return AcquireResult.allowed(-excess / emissionIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Moves the theoretical arrival time back by the emission intervals of the returned tokens.
+     *
+     * @param tokens the number of tokens to return
+     */
+    @Override
+    public void refund(int tokens) {
+        theoreticalArrival.addAndGet(-tokens * emissionIntervalNanos);
+    }
+
+    private long remaining(long arrival, long now) {
+        return (burstToleranceNanos - Math.max(0, arrival - now)) / emissionIntervalNanos;
+    }
+
+    /**
+     * Keeps the number of tokens the client is in debt, converted to the new emission interval and capped at the
+     * new burst tolerance.
+     */
+    @Override
+    LocalBucket rescale(BucketLimits newLimits) {
+        GcraBucket rescaled = new GcraBucket(newLimits, timeSource());
+        long debtNanos = Math.max(0, theoreticalArrival.get() - (timeSource().nanoTime() - epochNanos));
+        double debtTokens = (double) debtNanos / emissionIntervalNanos;
+        long rescaledDebt = (long) Math.min(rescaled.burstToleranceNanos, debtTokens * rescaled.emissionIntervalNanos);
+        rescaled.theoreticalArrival.set(timeSource().nanoTime() - rescaled.epochNanos + rescaledDebt);
+        return rescaled;
+    }
+
+    @Override
+    boolean isExpired(long idleTtlMillis) {
+        return timeSource().nanoTime() - epochNanos - theoreticalArrival.get() > TimeUnit.MILLISECONDS.toNanos(idleTtlMillis);
+    }
+
+    /**
+     * Determines if the bucket would admit a full burst.
+     *
+     * @return true if the theoretical arrival time has passed
+     */
+    @Override
+    boolean isFull() {
+        return theoreticalArrival.get() <= timeSource().nanoTime() - epochNanos;
+    }
+}
@@ -0,0 +1,133 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.List;
+
+/**
+ * Applies an ordered chain of limits to one request, for example per client, per subnet, per API key and a
+ * service-wide ceiling, each kept in its own {@link BucketStore}.
+ * <p>
+ * The request is admitted only if every level admits it. Levels are asked in order and the chain stops at the first
+ * rejection; the tokens already taken from the earlier levels are then refunded, so a rejected request consumes
+ * nothing. Each level decides with its own lock-free compare-and-set, so the chain never blocks. Between the take and
+ * the refund the tokens are briefly held, which can only make a concurrent request of the same client stricter.
+ */
+public class HierarchicalLimiter {
+
+    private final BucketStore[] levels;
+
+    /**
+     * Constructs a {@link HierarchicalLimiter}.
+     *
+     * @param levels the bucket stores of the levels, in the order they are asked
+     */
+    public HierarchicalLimiter(List<BucketStore> levels) {
+        this.levels = levels.toArray(new BucketStore[0]);
+    }
+
+    /**
+     * Derives the key of a request at one level, so that the keys are read from the request as the chain asks each
+     * level, without collecting them into an array first. The key of a level must not change between calls, as a
+     * refund asks for it again.
+     *
+     * @param <R> the type of the request
+     */
+    @FunctionalInterface
+    public interface LevelKeys<R> {
+        /**
+         * Returns the key of the request at the given level.
+         *
+         * @param request the request
+         * @param level   the index of the level
+         * @return the key of the request in the store of that level
+         */
+        long keyOf(R request, int level);
+
+        /**
+         * Receives the store of the level that rejected the request, before the chain returns its decision, e.g. to
+         * report the limit of that level rather than the one of the route. Does nothing by default.
+         *
+         * @param request the request
+         * @param store   the store of the rejecting level
+         */
+        default void rejectedBy(R request, BucketStore store) {
+        }
+    }
+
+    /**
+     * Attempts to take tokens from the given bucket and then from every level, deriving the key of each level from
+     * the request when that level is asked.
+     *
+     * @param first    the bucket store asked before the levels, e.g. the store of the matched route
+     * @param firstKey the key of the request in the first store
+     * @param request  the request
+     * @param keys     the derivation of the key of the request at each level
+     * @param tokens   the number of tokens to take at every level
+     * @param <R>      the type of the request
+     * @return the decision of the first rejecting store, or an admission reporting the fewest remaining tokens
+     */
+    public <R> long tryAcquire(BucketStore first, long firstKey, R request, LevelKeys<? super R> keys, int tokens) {
+        long result = first.tryAcquire(firstKey, tokens);
+        if (!AcquireResult.isAllowed(result)) {
+            return result;
+        }
+        long levelResult = tryAcquire(request, keys, tokens);
+        if (!AcquireResult.isAllowed(levelResult)) {
+            first.refund(firstKey, tokens);
+            return levelResult;
+        }
+        return AcquireResult.remainingTokens(levelResult) < AcquireResult.remainingTokens(result)
+                ? levelResult : result;
+    }
+
+    /**
+     * Attempts to take tokens from every level, deriving the key of each level from the request when that level is
+     * asked.
+     *
+     * @param request the request
+     * @param keys    the derivation of the key of the request at each level
+     * @param tokens  the number of tokens to take at every level
+     * @param <R>     the type of the request
+     * @return the decision of the first rejecting level, or an admission reporting the fewest remaining tokens
+     */
+    public <R> long tryAcquire(R request, LevelKeys<? super R> keys, int tokens) {
+        long admitted = AcquireResult.allowed(BucketState.MAX_TOKENS);
+        for (int i = 0; i < levels.length; i++) {
+            long result = levels[i].tryAcquire(keys.keyOf(request, i), tokens);
+            if (!AcquireResult.isAllowed(result)) {
+                for (int j = i - 1; j >= 0; j--) {
+                    levels[j].refund(keys.keyOf(request, j), tokens);
+                }
+                keys.rejectedBy(request, levels[i]);
+                return result;
+            }
+            if (AcquireResult.remainingTokens(result) < AcquireResult.remainingTokens(admitted)) {
+                admitted = result;
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Determines if every level {@link BucketStore#decidesLocally() decides locally}, so that the chain can run on
+     * a thread that must not block.
+     *
+     * @return true if no level waits on a remote store
+     */
+    public boolean decidesLocally() {
+        for (BucketStore level : levels) {
+            if (!level.decidesLocally()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of levels.
+     *
+     * @return the level count
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+}
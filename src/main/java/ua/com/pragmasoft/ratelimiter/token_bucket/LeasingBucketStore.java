@@ -0,0 +1,398 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyHash;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid {@link BucketStore} that serves requests from locally leased tokens and syncs with a shared
+ * {@link TokenLeaseSource} in the background.
+ * <p>
+ * Each instance leases a batch of tokens per key from the shared budget and consumes them with a lock-free local
+ * counter, so the request path only goes remote when the local lease is empty. The lease is topped up
+ * asynchronously once it falls below half of its size. The lease size adapts to the request rate of the key: it
+ * starts at one token, doubles (up to the configured maximum) when a lease is used up within one sync interval and
+ * halves when leases last longer than four intervals. Keys idle for a full interval return their unused tokens to
+ * the shared budget and start over.
+ * <p>
+ * Every admitted request is paid for with a token taken from the shared budget, so the cluster never admits more
+ * than the global limit. Leased but unused tokens can make the cluster admit less than the limit, by at most the
+ * maximum lease size per instance and key.
+ * <p>
+ * {@link #tryAcquireAsync(long, int)} answers from the local lease on the calling thread and moves only the calls
+ * that have to lease from the shared budget to the background threads. Those threads are either the store's own or
+ * a scheduler shared by all stores, such as the namespaces of the rate limit rules.
+ * <p>
+ * Leases are keyed by the primitive client key, so the local path hashes and allocates nothing per request. String
+ * keys are hashed as the other local stores hash them, and the shared budget sees the hexadecimal form of the
+ * primitive key, built only when a call actually goes to it.
+ */
+public class LeasingBucketStore implements BucketStore, AutoCloseable {
+
+    /**
+     * Marker returned by the local decision when it cannot decide. It reads as a denial without a retry time,
+     * which the local decision never returns.
+     */
+    private static final long LEASE_EMPTY = Long.MIN_VALUE;
+
+    private final TokenLeaseSource source;
+    private final TimeSource timeSource;
+    private volatile long refillRate;
+    private final long maxLease;
+    private final long syncIntervalNanos;
+    private final LongKeyMap<Lease> leases = new LongKeyMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final ScheduledFuture<?> sync;
+
+    /**
+     * Local part of the shared bucket of one client key.
+     * <p>
+     * A request thread may still hold a lease after it was released. Once {@link #closed} is set, whoever adds
+     * tokens to the lease drains them back to the shared budget, so that none are stranded in a forgotten lease.
+     */
+    private static final class Lease {
+        final long keyHash;
+        final AtomicLong tokens = new AtomicLong();
+        final AtomicBoolean refilling = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        volatile long leaseSize;
+        volatile long lastLeaseNanos;
+        volatile long lastUsedNanos;
+        volatile long emptyUntilNanos;
+
+        Lease(long keyHash, long leaseSize, long now) {
+            this.keyHash = keyHash;
+            this.leaseSize = leaseSize;
+            this.lastLeaseNanos = now;
+            this.lastUsedNanos = now;
+            this.emptyUntilNanos = now;
+        }
+
+        /**
+         * Returns the key of the shared bucket, built on demand since only calls to the shared budget need it.
+         */
+        String sharedKey() {
+            return Long.toHexString(keyHash);
+        }
+
+        long tryTake(int requested) {
+            while (true) {
+                long current = tokens.get();
+                if (current < requested) {
+                    return -1;
+                }
+                if (tokens.compareAndSet(current, current - requested)) {
+                    return current - requested;
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs a {@link LeasingBucketStore} and starts its background sync thread.
+     *
+     * @param source             the shared token budget
+     * @param refillRate         the refill rate of the shared buckets, used to estimate retry times
+     * @param maxLease           the maximum number of tokens leased at once per key
+     * @param syncIntervalMillis the interval of the background sync, in milliseconds
+     */
+    public LeasingBucketStore(TokenLeaseSource source, long refillRate, long maxLease, long syncIntervalMillis) {
+        this(source, refillRate, maxLease, syncIntervalMillis, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@link LeasingBucketStore} whose lease timing runs on the given clock, and starts its background
+     * sync thread.
+     *
+     * @param source             the shared token budget
+     * @param refillRate         the refill rate of the shared buckets, used to estimate retry times
+     * @param maxLease           the maximum number of tokens leased at once per key
+     * @param syncIntervalMillis the interval of the background sync, in milliseconds
+     * @param timeSource         the clock measuring lease idle times and request rates
+     */
+    public LeasingBucketStore(TokenLeaseSource source, long refillRate, long maxLease, long syncIntervalMillis,
+                              TimeSource timeSource) {
+        this(source, refillRate, maxLease, syncIntervalMillis, timeSource, newScheduler(), true);
+    }
+
+    /**
+     * Constructs a {@link LeasingBucketStore} that syncs on a scheduler shared with other stores. The scheduler
+     * belongs to the caller and is not shut down by {@link #close()}.
+     *
+     * @param source             the shared token budget
+     * @param refillRate         the refill rate of the shared buckets, used to estimate retry times
+     * @param maxLease           the maximum number of tokens leased at once per key
+     * @param syncIntervalMillis the interval of the background sync, in milliseconds
+     * @param timeSource         the clock measuring lease idle times and request rates
+     * @param scheduler          the scheduler running the background sync and the calls to the shared budget
+     */
+    public LeasingBucketStore(TokenLeaseSource source, long refillRate, long maxLease, long syncIntervalMillis,
+                              TimeSource timeSource, ScheduledExecutorService scheduler) {
+        this(source, refillRate, maxLease, syncIntervalMillis, timeSource, scheduler, false);
+    }
+
+    private LeasingBucketStore(TokenLeaseSource source, long refillRate, long maxLease, long syncIntervalMillis,
+                               TimeSource timeSource, ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        this.source = source;
+        this.timeSource = timeSource;
+        this.refillRate = refillRate;
+        this.maxLease = Math.max(1, maxLease);
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        this.sync = scheduler.scheduleWithFixedDelay(this::releaseIdleLeases, syncIntervalMillis, syncIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a scheduler of daemon threads for the background sync, one per processor.
+     *
+     * @return the scheduler
+     */
+    public static ScheduledExecutorService newScheduler() {
+        return Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "bucket-lease-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public TokenBucket getBucket(String clientKey) {
+        long keyHash = ClientKeyHash.of(clientKey);
+        return tokens -> tryAcquire(keyHash, tokens);
+    }
+
+    @Override
+    public long tryAcquire(String clientKey, int tokensForBucket) {
+        return tryAcquire(ClientKeyHash.of(clientKey), tokensForBucket);
+    }
+
+    @Override
+    public long tryAcquire(long keyHash, int tokensForBucket) {
+        long now = timeSource.nanoTime();
+        Lease lease = lease(keyHash, now);
+        long result = tryAcquireLocal(lease, tokensForBucket, now);
+        return result != LEASE_EMPTY ? result : tryAcquireRemote(lease, tokensForBucket, now);
+    }
+
+    @Override
+    public CompletableFuture<Long> tryAcquireAsync(long keyHash, int tokensForBucket) {
+        long now = timeSource.nanoTime();
+        Lease lease = lease(keyHash, now);
+        long result = tryAcquireLocal(lease, tokensForBucket, now);
+        if (result != LEASE_EMPTY) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return CompletableFuture.supplyAsync(
+                () -> tryAcquireRemote(lease, tokensForBucket, timeSource.nanoTime()), scheduler);
+    }
+
+    /**
+     * Returns {@code false}: a request finding its lease empty waits on the shared budget.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean decidesLocally() {
+        return false;
+    }
+
+    /**
+     * Puts the tokens back into the local lease; they were paid for from the shared budget already.
+     *
+     * @param keyHash the primitive client key
+     * @param tokens  the number of tokens to return
+     */
+    @Override
+    public void refund(long keyHash, int tokens) {
+        Lease lease = lease(keyHash, timeSource.nanoTime());
+        lease.tokens.addAndGet(tokens);
+        releaseIfClosed(lease);
+    }
+
+    private Lease lease(long keyHash, long now) {
+        Lease lease = leases.get(keyHash);
+        if (lease == null) {
+            lease = leases.compute(keyHash, existing -> existing != null ? existing : new Lease(keyHash, 1, now));
+        }
+        lease.lastUsedNanos = now;
+        return lease;
+    }
+
+    /**
+     * Decides from the local lease alone.
+     *
+     * @return the decision, or {@link #LEASE_EMPTY} if the shared budget has to be asked
+     */
+    private long tryAcquireLocal(Lease lease, int tokensForBucket, long now) {
+        long remaining = lease.tryTake(tokensForBucket);
+        if (remaining >= 0) {
+            if (remaining < lease.leaseSize / 2) {
+                refillAsync(lease);
+            }
+            return AcquireResult.allowed(remaining);
+        }
+        if (now - lease.emptyUntilNanos < 0) {
+            return AcquireResult.denied(lease.tokens.get(), lease.emptyUntilNanos - now);
+        }
+        return LEASE_EMPTY;
+    }
+
+    private long tryAcquireRemote(Lease lease, int tokensForBucket, long now) {
+        long granted = leaseFromSource(lease, Math.max(tokensForBucket, lease.leaseSize), now);
+        if (granted > 0) {
+            lease.tokens.addAndGet(granted);
+            long remaining = lease.tryTake(tokensForBucket);
+            releaseIfClosed(lease);
+            if (remaining >= 0) {
+                return AcquireResult.allowed(remaining);
+            }
+        }
+        long refillRate = this.refillRate;
+        long retryAfterNanos = refillRate > 0
+                ? TimeUnit.SECONDS.toNanos(tokensForBucket) / refillRate
+                : AcquireResult.MAX_RETRY_AFTER_NANOS;
+        lease.emptyUntilNanos = now + Math.min(retryAfterNanos, syncIntervalNanos);
+        return AcquireResult.denied(lease.tokens.get(), retryAfterNanos);
+    }
+
+    private void refillAsync(Lease lease) {
+        if (lease.refilling.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                try {
+                    lease.tokens.addAndGet(leaseFromSource(lease, lease.leaseSize, timeSource.nanoTime()));
+                    releaseIfClosed(lease);
+                } finally {
+                    lease.refilling.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Leases tokens from the shared budget, adapting the lease size to how fast the previous lease was used up.
+     */
+    private long leaseFromSource(Lease lease, long requested, long now) {
+        long sinceLastLease = now - lease.lastLeaseNanos;
+        if (sinceLastLease < syncIntervalNanos) {
+            lease.leaseSize = Math.min(maxLease, lease.leaseSize * 2);
+        } else if (sinceLastLease > 4 * syncIntervalNanos) {
+            lease.leaseSize = Math.max(1, lease.leaseSize / 2);
+        }
+        lease.lastLeaseNanos = now;
+        return source.lease(lease.sharedKey(), requested);
+    }
+
+    /**
+     * Returns the unused tokens of keys that have been idle for a full sync interval and forgets those keys.
+     * Called by the background thread; exposed for tests.
+     */
+    public void releaseIdleLeases() {
+        long now = timeSource.nanoTime();
+        for (int segment = 0; segment < leases.segmentCount(); segment++) {
+            leases.removeIf(segment,
+                    lease -> now - lease.lastUsedNanos >= syncIntervalNanos && !lease.refilling.get(),
+                    this::closeLease);
+        }
+    }
+
+    /**
+     * Closes a lease that has left the map and returns its tokens to the shared budget.
+     */
+    private void closeLease(Lease lease) {
+        if (lease.closed.compareAndSet(false, true)) {
+            drain(lease);
+        }
+    }
+
+    /**
+     * Returns the tokens just added to a lease if the lease was closed meanwhile. The writer adds before it reads
+     * the flag and the closer sets the flag before it drains, so one of them sees the tokens.
+     */
+    private void releaseIfClosed(Lease lease) {
+        if (lease.closed.get()) {
+            drain(lease);
+        }
+    }
+
+    private void drain(Lease lease) {
+        long unused = lease.tokens.getAndSet(0);
+        if (unused > 0) {
+            source.release(lease.sharedKey(), unused);
+        }
+    }
+
+    /**
+     * Returns all leased tokens to the shared budget and stops the background sync, shutting the scheduler down if
+     * the store created it. Closing twice has no further effect.
+     */
+    @Override
+    public void close() {
+        sync.cancel(false);
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+        for (int segment = 0; segment < leases.segmentCount(); segment++) {
+            leases.removeIf(segment, lease -> true, this::closeLease);
+        }
+    }
+
+    /**
+     * Tells whether the source is a {@link BucketStore} exposing its limits.
+     *
+     * @return true if the limits of the shared budget are known
+     */
+    @Override
+    public boolean supportsLimits() {
+        return source instanceof BucketStore store && store.supportsLimits();
+    }
+
+    /**
+     * Returns the limits of the shared budget, if the source is a {@link BucketStore}.
+     *
+     * @return the bucket limits
+     * @throws UnsupportedOperationException if the source does not expose its limits
+     */
+    @Override
+    public BucketLimits getLimits() {
+        if (source instanceof BucketStore store) {
+            return store.getLimits();
+        }
+        return BucketStore.super.getLimits();
+    }
+
+    /**
+     * Publishes new limits to the shared budget, if the source is a {@link BucketStore}, and uses the new rate for
+     * retry estimates. Tokens already leased stay valid; the lease sizes adapt to the new rate on their own.
+     *
+     * @param limits the new limits
+     * @throws UnsupportedOperationException if the source cannot be reconfigured
+     */
+    @Override
+    public void updateLimits(BucketLimits limits) {
+        if (!(source instanceof BucketStore store)) {
+            BucketStore.super.updateLimits(limits);
+            return;
+        }
+        store.updateLimits(limits);
+        this.refillRate = limits.refillRate();
+    }
+
+    @Override
+    public int getBucketCount() {
+        return leases.size();
+    }
+
+    @Override
+    public long getMemoryEstimateBytes() {
+        return leases.size() * ConcurrentMapBucketStore.ESTIMATED_BYTES_PER_BUCKET;
+    }
+}
@@ -0,0 +1,79 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * The in-memory limiter algorithms, all configured with the same pair of burst size and sustained rate.
+ */
+public enum LimiterAlgorithm {
+
+    /**
+     * {@link TokenBucketImpl}: refills whole tokens on the millisecond clock.
+     */
+    TOKEN_BUCKET {
+        @Override
+        LocalBucket newBucket(BucketLimits limits, TimeSource timeSource) {
+            return new TokenBucketImpl(limits, timeSource);
+        }
+    },
+
+    /**
+     * {@link GcraBucket}: the token bucket expressed as a theoretical arrival time on the nanosecond clock.
+     */
+    GCRA {
+        @Override
+        LocalBucket newBucket(BucketLimits limits, TimeSource timeSource) {
+            return new GcraBucket(limits, timeSource);
+        }
+    },
+
+    /**
+     * {@link SlidingWindowCounterBucket}: weighted counts of the current and the previous window.
+     */
+    SLIDING_WINDOW {
+        @Override
+        LocalBucket newBucket(BucketLimits limits, TimeSource timeSource) {
+            return new SlidingWindowCounterBucket(limits, timeSource);
+        }
+    },
+
+    /**
+     * {@link SlidingLogBucket}: a ring buffer with the admission time of the last {@code size} tokens.
+     */
+    SLIDING_LOG {
+        @Override
+        LocalBucket newBucket(BucketLimits limits, TimeSource timeSource) {
+            return new SlidingLogBucket(limits, timeSource);
+        }
+    };
+
+    /**
+     * Creates a bucket of this algorithm.
+     *
+     * @param limits     the burst size, or the limit per window for the windowed algorithms, and the sustained rate
+     * @param timeSource the clock of the bucket
+     * @return the new bucket
+     */
+    abstract LocalBucket newBucket(BucketLimits limits, TimeSource timeSource);
+
+    /**
+     * Creates a bucket of this algorithm for callers outside the store.
+     *
+     * @param size       the burst size, or the limit per window for the windowed algorithms
+     * @param refillRate the sustained rate (tokens per second)
+     * @return the new bucket
+     */
+    public TokenBucket create(long size, long refillRate) {
+        return create(size, refillRate, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Creates a bucket of this algorithm on the given clock, e.g. a {@link ManualTimeSource} in tests.
+     *
+     * @param size       the burst size, or the limit per window for the windowed algorithms
+     * @param refillRate the sustained rate (tokens per second)
+     * @param timeSource the clock of the bucket
+     * @return the new bucket
+     */
+    public TokenBucket create(long size, long refillRate, TimeSource timeSource) {
+        return newBucket(new BucketLimits(size, refillRate), timeSource);
+    }
+}
@@ -0,0 +1,70 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * Base class of the in-memory limiter algorithms held by {@link ConcurrentMapBucketStore}, exposing what the
+ * {@link BucketEvictor} needs to decide whether a bucket can be dropped and what the store needs to carry a bucket
+ * over to new limits.
+ */
+abstract class LocalBucket implements TokenBucket {
+
+    private final BucketLimits limits;
+    private final TimeSource timeSource;
+
+    LocalBucket(BucketLimits limits, TimeSource timeSource) {
+        this.limits = limits;
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Returns the limits the bucket was built for.
+     *
+     * @return the bucket limits
+     */
+    final BucketLimits limits() {
+        return limits;
+    }
+
+    /**
+     * Returns the clock the bucket runs on.
+     *
+     * @return the time source
+     */
+    final TimeSource timeSource() {
+        return timeSource;
+    }
+
+    /**
+     * Attempts to retrieve tokens at a given reading of the time source, so that a batch of decisions reads the
+     * clock once.
+     *
+     * @param tokensForBucket the number of tokens to retrieve
+     * @param nanoTime        the reading of the time source of the bucket
+     * @return the decision encoded as described in {@link AcquireResult}
+     */
+    abstract long tryAcquire(int tokensForBucket, long nanoTime);
+
+    /**
+     * Creates a bucket of the same algorithm with new limits, carrying over what the client has used so far.
+     * Called at most once per bucket and reconfiguration, on the first request after the limits changed.
+     *
+     * @param newLimits the new limits
+     * @return the rescaled bucket
+     */
+    abstract LocalBucket rescale(BucketLimits newLimits);
+
+    /**
+     * Determines if the bucket has expired: it has been idle for longer than the given time-to-live and has
+     * refilled completely, so dropping it is indistinguishable from keeping it.
+     *
+     * @param idleTtlMillis the idle time-to-live in milliseconds
+     * @return true if the bucket has expired, false otherwise
+     */
+    abstract boolean isExpired(long idleTtlMillis);
+
+    /**
+     * Determines if the bucket has refilled completely.
+     *
+     * @return true if the bucket would admit a full burst
+     */
+    abstract boolean isFull();
+}
@@ -0,0 +1,273 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent map from primitive client keys to per-key state, such as buckets or leases, so that a lookup boxes no
+ * key.
+ * <p>
+ * The keys are spread over a fixed number of segments, each an open-addressing table with linear probing that
+ * doubles when it is half full. Lookups read the table under an optimistic {@link StampedLock} stamp and take the read
+ * lock only if a writer interfered; inserts, replacements and removals take the write lock of one segment.
+ * Removals shift the following entries back instead of leaving tombstones, so the tables never need cleaning.
+ */
+final class LongKeyMap<V> {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 8;
+
+    @SuppressWarnings("unchecked")
+    private final Segment<V>[] segments = new Segment[1 << SEGMENT_BITS];
+
+    LongKeyMap() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    /**
+     * Returns the value of the key, or {@code null} if there is none.
+     */
+    V get(long key) {
+        long hash = spread(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Replaces the value of the key with the result of the remapping function, which receives the current value or
+     * {@code null}; a {@code null} result removes the key. The function runs under the lock of the key's segment.
+     *
+     * @return the new value, or {@code null} if the key was removed
+     */
+    V compute(long key, UnaryOperator<V> remapping) {
+        long hash = spread(key);
+        return segmentFor(hash).compute(key, hash, remapping);
+    }
+
+    /**
+     * Removes the key if it is still mapped to the given value.
+     *
+     * @return true if the key was removed
+     */
+    boolean remove(long key, V value) {
+        long hash = spread(key);
+        return segmentFor(hash).remove(key, hash, value);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Removes the values of one segment that match the filter. The segment is scanned under its read lock, which
+     * lookups do not wait for, and each match is removed on its own, unless it was replaced in the meantime.
+     *
+     * @param segment the index of the segment, below {@link #segmentCount()}
+     * @param filter  the values to remove
+     * @return the number of values removed
+     */
+    int removeIf(int segment, Predicate<? super V> filter) {
+        return removeIf(segment, filter, value -> { });
+    }
+
+    /**
+     * Removes the values of one segment that match the filter, as {@link #removeIf(int, Predicate)} does, and hands
+     * each value actually removed to the consumer, outside of any lock.
+     *
+     * @param segment the index of the segment, below {@link #segmentCount()}
+     * @param filter  the values to remove
+     * @param removed receives the removed values
+     * @return the number of values removed
+     */
+    int removeIf(int segment, Predicate<? super V> filter, Consumer<? super V> removed) {
+        return segments[segment].removeIf(filter, removed);
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private static long spread(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Segment<V> {
+
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private volatile int size;
+
+        V get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            V found = find(key, hash);
+            if (lock.validate(stamp)) {
+                return found;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Probes for the key. Under an optimistic read the arrays may be mid-update, so the probe is bounded and a
+         * torn pair of arrays yields nothing; the caller discards the result unless the stamp validates.
+         */
+        @SuppressWarnings("unchecked")
+        private V find(long key, long hash) {
+            long[] k = keys;
+            Object[] v = values;
+            if (k.length != v.length) {
+                return null;
+            }
+            int mask = k.length - 1;
+            int i = (int) hash & mask;
+            for (int probes = 0; probes < k.length; probes++) {
+                Object value = v[i];
+                if (value == null) {
+                    return null;
+                }
+                if (k[i] == key) {
+                    return (V) value;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V compute(long key, long hash, UnaryOperator<V> remapping) {
+            long stamp = lock.writeLock();
+            try {
+                int i = slot(key, hash);
+                V existing = (V) values[i];
+                V updated = remapping.apply(existing);
+                if (updated == null) {
+                    if (existing != null) {
+                        removeAt(i);
+                    }
+                } else if (existing != null) {
+                    values[i] = updated;
+                } else {
+                    if ((size + 1) * 2 > keys.length) {
+                        grow();
+                        i = slot(key, hash);
+                    }
+                    keys[i] = key;
+                    values[i] = updated;
+                    size++;
+                }
+                return updated;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean remove(long key, long hash, Object value) {
+            long stamp = lock.writeLock();
+            try {
+                int i = slot(key, hash);
+                if (values[i] != value || value == null) {
+                    return false;
+                }
+                removeAt(i);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        int removeIf(Predicate<? super V> filter, Consumer<? super V> removedValues) {
+            long[] matchedKeys;
+            Object[] matched;
+            int count = 0;
+            long stamp = lock.readLock();
+            try {
+                matchedKeys = new long[size];
+                matched = new Object[matchedKeys.length];
+                for (int i = 0; i < values.length && count < matched.length; i++) {
+                    Object value = values[i];
+                    if (value != null && filter.test((V) value)) {
+                        matchedKeys[count] = keys[i];
+                        matched[count++] = value;
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            int removed = 0;
+            for (int n = 0; n < count; n++) {
+                if (remove(matchedKeys[n], spread(matchedKeys[n]), matched[n])) {
+                    removedValues.accept((V) matched[n]);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Returns the slot holding the key, or the empty slot ending its probe sequence. Called under the write lock.
+         */
+        private int slot(long key, long hash) {
+            int mask = keys.length - 1;
+            int i = (int) hash & mask;
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void removeAt(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            values[hole] = null;
+            for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+                int home = (int) spread(keys[i]) & mask;
+                // move the entry into the hole unless its home lies cyclically between the hole and its slot
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    values[i] = null;
+                    hole = i;
+                }
+            }
+            size--;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] newKeys = new long[oldKeys.length * 2];
+            Object[] newValues = new Object[newKeys.length];
+            int mask = newKeys.length - 1;
+            for (int n = 0; n < oldKeys.length; n++) {
+                if (oldValues[n] != null) {
+                    int i = (int) spread(oldKeys[n]) & mask;
+                    while (newValues[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    newKeys[i] = oldKeys[n];
+                    newValues[i] = oldValues[n];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TimeSource} that only moves when it is advanced, so that tests and simulations control time exactly
+ * instead of sleeping.
+ */
+public class ManualTimeSource implements TimeSource {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Override
+    public long nanoTime() {
+        return nanoTime.get();
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param duration the time to advance by
+     * @throws IllegalArgumentException if the duration is negative, as the clock is monotonic
+     */
+    public void advance(Duration duration) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("A monotonic clock cannot go back");
+        }
+        nanoTime.addAndGet(duration.toNanos());
+    }
+}
@@ -0,0 +1,449 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BucketStore} that keeps the bucket state in Redis, so that all instances behind a load balancer share one
+ * budget per client.
+ * <p>
+ * Refill and consume run server-side in a single Lua script invoked with {@code EVALSHA}, which makes every decision
+ * one atomic round trip. The script uses the Redis server clock, so instances with skewed clocks still agree, and
+ * sets an expiry on each key so that idle buckets disappear once they have refilled. Connections are taken from a
+ * {@link JedisPool}; {@link #tryAcquireAll(long[], int[], long[])} pipelines a batch of decisions into one round
+ * trip. {@link #tryAcquireAsync(long, int)} and {@link #tryAcquireAllAsync(long[], int[], long[])} run the blocking
+ * calls on an executor for non-blocking callers: preferably one shared by all stores and managed by the container,
+ * otherwise a pool of the store's own that {@link #close()} shuts down.
+ * <p>
+ * The same script serves as a {@link TokenLeaseSource}: a lease takes as many of the requested tokens as are
+ * available, and a release puts unused tokens back, capped at the bucket size.
+ * <p>
+ * When Redis cannot be reached or times out, a configured {@link RedisFallback} admits or rejects the request instead
+ * of failing it; without one, the {@link JedisException} propagates to the caller.
+ * <p>
+ * The limits travel with every script call, so new limits reach each shared bucket on its next request; a bucket
+ * holding more tokens than a lowered size is capped by the script.
+ */
+public class RedisBucketStore implements BucketStore, TokenLeaseSource, AutoCloseable {
+
+    private static final String ACQUIRE = "acquire";
+    private static final String LEASE = "lease";
+    private static final String RELEASE = "release";
+
+    static final String SCRIPT = """
+            if redis.replicate_commands then redis.replicate_commands() end
+            local size = tonumber(ARGV[1])
+            local rate = tonumber(ARGV[2])
+            local requested = tonumber(ARGV[3])
+            local idle_ttl = tonumber(ARGV[4])
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+            local tokens = tonumber(state[1])
+            local ts = tonumber(state[2])
+            if tokens == nil or ts == nil then
+              tokens = size
+              ts = now
+            elseif now > ts and rate > 0 then
+              if tokens >= size then
+                tokens = size
+                ts = now
+              else
+                local earned = math.floor((now - ts) * rate / 1000)
+                if tokens + earned >= size then
+                  tokens = size
+                  ts = now
+                elseif earned > 0 then
+                  tokens = tokens + earned
+                  ts = ts + math.ceil(earned * 1000 / rate)
+                end
+              end
+            end
+            local mode = ARGV[5]
+            local allowed = 0
+            local granted = 0
+            local wait = 0
+            if mode == 'release' then
+              tokens = math.min(size, tokens + requested)
+            elseif tokens >= requested then
+              tokens = tokens - requested
+              allowed = 1
+              granted = requested
+            elseif mode == 'lease' then
+              granted = tokens
+              tokens = 0
+            elseif rate <= 0 or requested > size then
+              wait = -1
+            else
+              wait = math.max(0, math.ceil((requested - tokens) * 1000 / rate) - (now - ts))
+            end
+            redis.call('HSET', KEYS[1], 'tokens', tokens, 'ts', ts)
+            if rate > 0 then
+              redis.call('PEXPIRE', KEYS[1], math.ceil((size - tokens) * 1000 / rate) + idle_ttl)
+            end
+            return {allowed, tokens, wait, granted}
+            """;
+
+    /**
+     * The limits together with their script arguments, published as one immutable value.
+     */
+    private record ScriptLimits(BucketLimits limits, String sizeArg, String refillRateArg) {
+        ScriptLimits(BucketLimits limits) {
+            this(limits, Long.toString(limits.size()), Long.toString(limits.refillRate()));
+        }
+    }
+
+    private final JedisPool pool;
+    private final String keyPrefix;
+    private final String idleTtlArg;
+    private final Executor asyncExecutor;
+    private final ExecutorService ownedExecutor;
+    private final RedisFallback fallback;
+    private volatile ScriptLimits limits;
+    private volatile String scriptSha;
+
+    /**
+     * Constructs a {@link RedisBucketStore} with the specified connection pool and bucket limits. Asynchronous
+     * calls run on a pool of daemon threads sized to the connection pool, which {@link #close()} shuts down.
+     *
+     * @param pool          the Redis connection pool
+     * @param size          the maximum number of tokens in each bucket
+     * @param refillRate    the rate at which tokens are added (tokens per second)
+     * @param keyPrefix     the prefix of the Redis keys, used to namespace the buckets
+     * @param idleTtlMillis the time a refilled bucket is kept in Redis before it expires, in milliseconds
+     */
+    public RedisBucketStore(JedisPool pool, long size, long refillRate, String keyPrefix, long idleTtlMillis) {
+        this(pool, size, refillRate, keyPrefix, idleTtlMillis, newExecutor(pool), true, null);
+    }
+
+    /**
+     * Constructs a {@link RedisBucketStore} with the specified connection pool, bucket limits and executor for
+     * asynchronous calls. The executor belongs to the caller, typically shared by all stores, and is not shut down
+     * by {@link #close()}.
+     *
+     * @param pool          the Redis connection pool
+     * @param size          the maximum number of tokens in each bucket
+     * @param refillRate    the rate at which tokens are added (tokens per second)
+     * @param keyPrefix     the prefix of the Redis keys, used to namespace the buckets
+     * @param idleTtlMillis the time a refilled bucket is kept in Redis before it expires, in milliseconds
+     * @param asyncExecutor the executor running the calls of {@link #tryAcquireAsync(long, int)}
+     */
+    public RedisBucketStore(JedisPool pool, long size, long refillRate, String keyPrefix, long idleTtlMillis,
+                            Executor asyncExecutor) {
+        this(pool, size, refillRate, keyPrefix, idleTtlMillis, asyncExecutor, false, null);
+    }
+
+    /**
+     * Constructs a {@link RedisBucketStore} that answers with the specified fallback while Redis is unavailable.
+     * The executor belongs to the caller and is not shut down by {@link #close()}.
+     *
+     * @param pool          the Redis connection pool
+     * @param size          the maximum number of tokens in each bucket
+     * @param refillRate    the rate at which tokens are added (tokens per second)
+     * @param keyPrefix     the prefix of the Redis keys, used to namespace the buckets
+     * @param idleTtlMillis the time a refilled bucket is kept in Redis before it expires, in milliseconds
+     * @param asyncExecutor the executor running the calls of {@link #tryAcquireAsync(long, int)}
+     * @param fallback      the decision taken when Redis fails, or {@code null} to propagate the failure
+     */
+    public RedisBucketStore(JedisPool pool, long size, long refillRate, String keyPrefix, long idleTtlMillis,
+                            Executor asyncExecutor, RedisFallback fallback) {
+        this(pool, size, refillRate, keyPrefix, idleTtlMillis, asyncExecutor, false, fallback);
+    }
+
+    private RedisBucketStore(JedisPool pool, long size, long refillRate, String keyPrefix, long idleTtlMillis,
+                             Executor asyncExecutor, boolean ownsExecutor, RedisFallback fallback) {
+        this.pool = pool;
+        this.asyncExecutor = asyncExecutor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) asyncExecutor : null;
+        this.fallback = fallback;
+        this.keyPrefix = keyPrefix;
+        this.limits = new ScriptLimits(new BucketLimits(size, refillRate));
+        this.idleTtlArg = Long.toString(Math.max(0, idleTtlMillis));
+    }
+
+    /**
+     * Creates a pool of daemon threads for asynchronous calls, one per pooled connection.
+     *
+     * @param pool the Redis connection pool the threads will wait on
+     * @return the executor
+     */
+    public static ExecutorService newExecutor(JedisPool pool) {
+        return Executors.newFixedThreadPool(
+                pool.getMaxTotal() > 0 ? pool.getMaxTotal() : Runtime.getRuntime().availableProcessors(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "redis-bucket-store");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Shuts down the executor of asynchronous calls if the store created it; a shared executor is left alone.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns {@code false}: every decision is a round trip to Redis.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean decidesLocally() {
+        return false;
+    }
+
+    @Override
+    public TokenBucket getBucket(String clientKey) {
+        return tokens -> tryAcquire(clientKey, tokens);
+    }
+
+    @Override
+    public long tryAcquire(String clientKey, int tokensForBucket) {
+        try {
+            return toResult(evaluate(clientKey, tokensForBucket, ACQUIRE));
+        } catch (JedisException e) {
+            return fallback(e).decide();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> tryAcquireAsync(long keyHash, int tokensForBucket) {
+        String clientKey = Long.toHexString(keyHash);
+        return CompletableFuture.supplyAsync(() -> tryAcquire(clientKey, tokensForBucket), asyncExecutor);
+    }
+
+    @Override
+    public void refund(long keyHash, int tokens) {
+        release(Long.toHexString(keyHash), tokens);
+    }
+
+    @Override
+    public long lease(String clientKey, long requested) {
+        try {
+            return (Long) evaluate(clientKey, requested, LEASE).get(3);
+        } catch (JedisException e) {
+            return fallback(e).lease(requested);
+        }
+    }
+
+    /**
+     * Puts unused tokens back. If Redis is unavailable and a fallback is configured, the tokens are dropped and
+     * counted as a fallback.
+     */
+    @Override
+    public void release(String clientKey, long tokens) {
+        try {
+            evaluate(clientKey, tokens, RELEASE);
+        } catch (JedisException e) {
+            fallback(e).dropped();
+        }
+    }
+
+    /**
+     * Returns the configured fallback, or rethrows the failure if there is none.
+     */
+    private RedisFallback fallback(JedisException failure) {
+        if (fallback == null) {
+            throw failure;
+        }
+        return fallback;
+    }
+
+    private List<?> evaluate(String clientKey, long tokens, String mode) {
+        try (Jedis jedis = pool.getResource()) {
+            List<String> keys = List.of(keyPrefix + clientKey);
+            List<String> args = args(tokens, mode);
+            try {
+                return (List<?>) jedis.evalsha(scriptSha(jedis), keys, args);
+            } catch (JedisNoScriptException e) {
+                scriptSha = jedis.scriptLoad(SCRIPT);
+                return (List<?>) jedis.evalsha(scriptSha, keys, args);
+            }
+        }
+    }
+
+    /**
+     * Attempts to retrieve tokens for several client keys, pipelining all script invocations into one round trip.
+     * Each decision is atomic on its own; the batch as a whole is not. If Redis has lost the script, the invocations
+     * that failed for it are pipelined again once the script is loaded, as single calls are retried. If Redis fails
+     * during the batch, the fallback decides every key of it.
+     *
+     * @param clientKeys the client keys
+     * @param tokens     the number of tokens to retrieve for each key
+     * @return the decisions encoded as described in {@link AcquireResult}, in the order of the keys
+     */
+    public long[] tryAcquireAll(String[] clientKeys, int[] tokens) {
+        long[] results = new long[clientKeys.length];
+        int[] pending = new int[clientKeys.length];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = i;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            int missing = pipelineAcquire(jedis, scriptSha(jedis), clientKeys, tokens, pending, pending.length,
+                    results, true);
+            if (missing > 0) {
+                scriptSha = jedis.scriptLoad(SCRIPT);
+                pipelineAcquire(jedis, scriptSha, clientKeys, tokens, pending, missing, results, false);
+            }
+        } catch (JedisException e) {
+            RedisFallback current = fallback(e);
+            for (int i = 0; i < results.length; i++) {
+                results[i] = current.decide();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Pipelines the acquire script for the pending keys and stores each decision in the results.
+     *
+     * @param pending     the indices of the keys to decide; on return, the first entries hold the indices that
+     *                    failed because the script was missing
+     * @param count       the number of pending indices
+     * @param skipMissing whether to collect the invocations that failed for a missing script instead of throwing
+     * @return the number of invocations that failed for a missing script
+     */
+    private int pipelineAcquire(Jedis jedis, String sha, String[] clientKeys, int[] tokens, int[] pending, int count,
+                                long[] results, boolean skipMissing) {
+        List<Response<Object>> responses = new ArrayList<>(count);
+        Pipeline pipeline = jedis.pipelined();
+        for (int n = 0; n < count; n++) {
+            int i = pending[n];
+            responses.add(pipeline.evalsha(sha, List.of(keyPrefix + clientKeys[i]), args(tokens[i], ACQUIRE)));
+        }
+        pipeline.sync();
+        int missing = 0;
+        for (int n = 0; n < count; n++) {
+            try {
+                results[pending[n]] = toResult((List<?>) responses.get(n).get());
+            } catch (JedisNoScriptException e) {
+                if (!skipMissing) {
+                    throw e;
+                }
+                pending[missing++] = pending[n];
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Pipelines the batch into one round trip, as {@link #tryAcquireAll(String[], int[])} does.
+     */
+    @Override
+    public long[] tryAcquireAll(long[] keyHashes, int[] tokens, long[] results) {
+        long[] admitted = AcquireResult.newBitmap(keyHashes, tokens, results);
+        String[] clientKeys = new String[keyHashes.length];
+        for (int i = 0; i < clientKeys.length; i++) {
+            clientKeys[i] = Long.toHexString(keyHashes[i]);
+        }
+        long[] decisions = tryAcquireAll(clientKeys, tokens);
+        for (int i = 0; i < decisions.length; i++) {
+            if (AcquireResult.isAllowed(decisions[i])) {
+                AcquireResult.setAllowed(admitted, i);
+            }
+        }
+        if (results != null) {
+            System.arraycopy(decisions, 0, results, 0, decisions.length);
+        }
+        return admitted;
+    }
+
+    @Override
+    public CompletableFuture<long[]> tryAcquireAllAsync(long[] keyHashes, int[] tokens, long[] results) {
+        AcquireResult.newBitmap(keyHashes, tokens, results);
+        return CompletableFuture.supplyAsync(() -> tryAcquireAll(keyHashes, tokens, results), asyncExecutor);
+    }
+
+    private String scriptSha(Jedis jedis) {
+        String sha = scriptSha;
+        if (sha == null) {
+            sha = jedis.scriptLoad(SCRIPT);
+            scriptSha = sha;
+        }
+        return sha;
+    }
+
+    private List<String> args(long tokens, String mode) {
+        ScriptLimits current = limits;
+        return List.of(current.sizeArg(), current.refillRateArg(), Long.toString(tokens), idleTtlArg, mode);
+    }
+
+    private static long toResult(List<?> values) {
+        boolean allowed = (Long) values.get(0) == 1;
+        long tokens = (Long) values.get(1);
+        long waitMillis = (Long) values.get(2);
+        if (allowed) {
+            return AcquireResult.allowed(tokens);
+        }
+        return AcquireResult.denied(tokens,
+                waitMillis < 0 ? AcquireResult.MAX_RETRY_AFTER_NANOS : TimeUnit.MILLISECONDS.toNanos(waitMillis));
+    }
+
+    @Override
+    public boolean supportsLimits() {
+        return true;
+    }
+
+    @Override
+    public BucketLimits getLimits() {
+        return limits.limits();
+    }
+
+    /**
+     * Publishes new limits for the shared buckets. Instances that have not received the same limits keep applying
+     * their own until they do.
+     *
+     * @param limits the new limits
+     */
+    @Override
+    public void updateLimits(BucketLimits limits) {
+        this.limits = new ScriptLimits(limits);
+    }
+
+    /**
+     * Returns {@code false}: the buckets live in Redis and are neither counted nor sized locally.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean tracksBuckets() {
+        return false;
+    }
+
+    /**
+     * Returns 0: the buckets live in Redis and are not counted locally.
+     *
+     * @return 0
+     */
+    @Override
+    public int getBucketCount() {
+        return 0;
+    }
+
+    /**
+     * Returns 0: the buckets live in Redis and hold no local heap memory.
+     *
+     * @return 0
+     */
+    @Override
+    public long getMemoryEstimateBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,87 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a {@link RedisBucketStore} decides when Redis cannot be reached or times out: admit the request, failing
+ * open, or reject it with a fixed retry time, failing closed. One instance is typically shared by all Redis-backed
+ * stores, so that it counts every fallback of the application.
+ */
+public class RedisFallback {
+
+    /**
+     * The decision taken while Redis is unavailable.
+     */
+    public enum Mode {
+        /**
+         * Admit every request, as if the limiter were not there.
+         */
+        ADMIT,
+        /**
+         * Reject every request with the configured retry time.
+         */
+        REJECT
+    }
+
+    private final Mode mode;
+    private final long retryAfterNanos;
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Constructs a {@link RedisFallback}.
+     *
+     * @param mode             the decision taken while Redis is unavailable
+     * @param retryAfterMillis the retry time of rejected requests, in milliseconds
+     */
+    public RedisFallback(Mode mode, long retryAfterMillis) {
+        this.mode = mode;
+        this.retryAfterNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, retryAfterMillis));
+    }
+
+    /**
+     * Decides a request whose bucket could not be read.
+     *
+     * @return the decision, encoded as described in {@link AcquireResult}
+     */
+    long decide() {
+        count.increment();
+        return mode == Mode.ADMIT ? AcquireResult.allowed(0) : AcquireResult.denied(0, retryAfterNanos);
+    }
+
+    /**
+     * Decides a lease from a bucket that could not be read.
+     *
+     * @param requested the number of tokens requested
+     * @return the number of tokens granted: all of them when admitting, none when rejecting
+     */
+    long lease(long requested) {
+        count.increment();
+        return mode == Mode.ADMIT ? requested : 0;
+    }
+
+    /**
+     * Counts a refund or release that could not reach Redis; its tokens are lost.
+     */
+    void dropped() {
+        count.increment();
+    }
+
+    /**
+     * Returns the decision taken while Redis is unavailable.
+     *
+     * @return the mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of calls answered by the fallback since startup.
+     *
+     * @return the fallback count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+}
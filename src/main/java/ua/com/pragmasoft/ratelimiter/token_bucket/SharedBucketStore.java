@@ -0,0 +1,86 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * {@link BucketStore} holding one bucket shared by every client key, for limits that protect the service as a whole
+ * rather than individual clients. The bucket is a {@link StripedTokenBucket}, so the shared limit does not become a
+ * single contended word.
+ */
+public class SharedBucketStore implements BucketStore {
+
+    /**
+     * Approximate heap cost of the striped bucket: a padded cache line and two limit shares per stripe.
+     */
+    private static final long ESTIMATED_BYTES_PER_STRIPE = 80;
+
+    private final StripedTokenBucket bucket;
+    private final BucketLimits limits;
+
+    /**
+     * Constructs a {@link SharedBucketStore} with the specified limits.
+     *
+     * @param size       the maximum number of tokens in the shared bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param stripes    the number of stripes of the bucket, e.g. the number of available processors
+     */
+    public SharedBucketStore(long size, long refillRate, int stripes) {
+        this(size, refillRate, stripes, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@link SharedBucketStore} with the specified limits on the given clock.
+     *
+     * @param size       the maximum number of tokens in the shared bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param stripes    the number of stripes of the bucket, e.g. the number of available processors
+     * @param timeSource the clock of the bucket
+     */
+    public SharedBucketStore(long size, long refillRate, int stripes, TimeSource timeSource) {
+        this.bucket = new StripedTokenBucket(size, refillRate, stripes, timeSource);
+        this.limits = new BucketLimits(size, refillRate);
+    }
+
+    @Override
+    public TokenBucket getBucket(String clientKey) {
+        return bucket;
+    }
+
+    @Override
+    public long tryAcquire(String clientKey, int tokensForBucket) {
+        return bucket.tryAcquire(tokensForBucket);
+    }
+
+    @Override
+    public long tryAcquire(long keyHash, int tokensForBucket) {
+        return bucket.tryAcquire(tokensForBucket);
+    }
+
+    @Override
+    public void refund(long keyHash, int tokens) {
+        bucket.refund(tokens);
+    }
+
+    @Override
+    public boolean supportsLimits() {
+        return true;
+    }
+
+    /**
+     * Returns the limits of the shared bucket, which are fixed at construction.
+     *
+     * @return the bucket limits
+     */
+    @Override
+    public BucketLimits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public int getBucketCount() {
+        return 1;
+    }
+
+    @Override
+    public long getMemoryEstimateBytes() {
+        return bucket.getStripeCount() * ESTIMATED_BYTES_PER_STRIPE;
+    }
+}
@@ -0,0 +1,170 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link TokenBucket} implementing an approximate sliding log: at most {@code size} tokens within any window of
+ * {@code size / refillRate} seconds.
+ * <p>
+ * The log is a ring buffer holding the admission time of the last {@code size} tokens. A token is admitted when the
+ * slot it would overwrite is older than the window, which makes the check a single array read. Slots are claimed
+ * with a compare-and-set on the write cursor and filled right after, so a racing request can briefly see the old
+ * timestamp of a claimed slot; that is the approximation. Memory is one {@code long} per token of the limit, so the
+ * size is capped at {@link #MAX_SIZE}.
+ */
+public class SlidingLogBucket extends LocalBucket {
+
+    /**
+     * The largest supported limit.
+     */
+    public static final int MAX_SIZE = 1 << 16;
+
+    private final int size;
+    private final long windowNanos;
+    private final long epochNanos;
+    private final AtomicLongArray log;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * Constructs a {@link SlidingLogBucket} with the specified limit and rate.
+     *
+     * @param size       the maximum number of tokens per window
+     * @param refillRate the sustained rate (tokens per second), which sets the window length to
+     *                   {@code size / refillRate} seconds; 0 makes the window unbounded
+     * @throws IllegalArgumentException if the size is negative or exceeds {@link #MAX_SIZE}
+     */
+    public SlidingLogBucket(long size, long refillRate) {
+        this(new BucketLimits(size, refillRate), TimeSource.SYSTEM);
+    }
+
+    SlidingLogBucket(BucketLimits limits, TimeSource timeSource) {
+        super(limits, timeSource);
+        long size = limits.size();
+        long refillRate = limits.refillRate();
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("Sliding log size must be between 0 and " + MAX_SIZE);
+        }
+        this.size = (int) size;
+        this.windowNanos = refillRate > 0
+                ? Math.max(1, TimeUnit.SECONDS.toNanos(Math.max(1, size)) / refillRate)
+                : Long.MAX_VALUE / 2;
+        // start with every slot one window in the past, so that the first burst of size tokens is admitted
+        this.epochNanos = timeSource.nanoTime() - windowNanos;
+        this.log = new AtomicLongArray(Math.max(1, this.size));
+    }
+
+    @Override
+    public long tryAcquire(int tokensForBucket) {
+        return tryAcquire(tokensForBucket, timeSource().nanoTime());
+    }
+
+    @Override
+    long tryAcquire(int tokensForBucket, long nanoTime) {
+        // a batch may have read the clock just before the bucket was created
+        long now = Math.max(windowNanos, nanoTime - epochNanos);
+        if (tokensForBucket > size) {
+            return AcquireResult.denied(expiredSlots(cursor.get(), now), AcquireResult.MAX_RETRY_AFTER_NANOS);
+        }
+        if (tokensForBucket <= 0) {
+            return AcquireResult.allowed(expiredSlots(cursor.get(), now));
+        }
+        while (true) {
+            long position = cursor.get();
+            // the newest slot this request overwrites holds the oldest timestamp that must have left the window
+            long oldest = log.get(slot(position + tokensForBucket - 1));
+            long age = now - oldest;
+            if (age < windowNanos) {
+                return AcquireResult.denied(expiredSlots(position, now), windowNanos - age);
+            }
+            if (cursor.compareAndSet(position, position + tokensForBucket)) {
+                for (long i = position; i < position + tokensForBucket; i++) {
+                    log.set(slot(i), now);
+                }
+                return AcquireResult.allowed(expiredSlots(position + tokensForBucket, now));
+            }
+        }
+    }
+
+    /**
+     * Rolls the write cursor back over the newest slots and marks them as expired. All logged timestamps of
+     * admitted tokens are interchangeable, so it does not matter which request wrote them. If another request
+     * claims slots in the meantime, the tokens are not returned, which errs on the side of rejecting.
+     *
+     * @param tokens the number of tokens to return
+     */
+    @Override
+    public void refund(int tokens) {
+        long position = cursor.get();
+        if (tokens <= 0 || tokens > size || position < tokens
+                || !cursor.compareAndSet(position, position - tokens)) {
+            return;
+        }
+        long expired = timeSource().nanoTime() - epochNanos - windowNanos;
+        for (long i = position - tokens; i < position; i++) {
+            log.set(slot(i), expired);
+        }
+    }
+
+    /**
+     * Counts the slots from the cursor on whose timestamps have left the window. The log is ordered by time from
+     * the cursor on, so this is a binary search.
+     */
+    private long expiredSlots(long position, long now) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (now - log.get(slot(position + middle)) >= windowNanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int slot(long position) {
+        return (int) (position % size);
+    }
+
+    /**
+     * Copies the newest timestamps that fit into the new log, in order, behind slots that are already one window
+     * old. Slots that were never written (timestamp 0, one window before the first request) stay unused.
+     */
+    @Override
+    LocalBucket rescale(BucketLimits newLimits) {
+        SlidingLogBucket rescaled = new SlidingLogBucket(newLimits, timeSource());
+        int kept = Math.min(size, rescaled.size);
+        long position = cursor.get();
+        long offset = epochNanos - rescaled.epochNanos;
+        for (int i = 0; i < kept; i++) {
+            long timestamp = log.get(slot(position - kept + i + size));
+            if (timestamp != 0) {
+                rescaled.log.set(rescaled.size - kept + i, timestamp + offset);
+            }
+        }
+        return rescaled;
+    }
+
+    @Override
+    boolean isExpired(long idleTtlMillis) {
+        if (size == 0) {
+            return true;
+        }
+        long now = timeSource().nanoTime() - epochNanos;
+        long newest = log.get(slot(cursor.get() - 1 + size));
+        return now - newest - windowNanos > TimeUnit.MILLISECONDS.toNanos(idleTtlMillis);
+    }
+
+    /**
+     * Determines if every logged timestamp has left the window.
+     *
+     * @return true if a full burst would be admitted
+     */
+    @Override
+    boolean isFull() {
+        return expiredSlots(cursor.get(), timeSource().nanoTime() - epochNanos) >= size;
+    }
+}
@@ -0,0 +1,188 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link TokenBucket} implementing the sliding-window counter: at most {@code size} tokens per window of
+ * {@code size / refillRate} seconds, so that the sustained rate matches a token bucket of the same parameters.
+ * <p>
+ * Only the counts of the current and the previous fixed window are kept, and the previous count is weighted by the
+ * part of it that still overlaps the sliding window. Memory is constant per client; the price is that the
+ * estimate assumes the previous window's requests were spread evenly.
+ */
+public class SlidingWindowCounterBucket extends LocalBucket {
+
+    /**
+     * One fixed window. A new instance is created only when a request arrives in a later window.
+     */
+    private static final class Window {
+        final long index;
+        final AtomicLong previousCount;
+        final AtomicLong count = new AtomicLong();
+
+        Window(long index, AtomicLong previousCount) {
+            this.index = index;
+            this.previousCount = previousCount;
+        }
+    }
+
+    private static final AtomicLong EMPTY = new AtomicLong();
+
+    private final long size;
+    private final long windowNanos;
+    private final long epochNanos;
+    private final AtomicReference<Window> window;
+
+    /**
+     * Constructs a {@link SlidingWindowCounterBucket} with the specified limit and rate.
+     *
+     * @param size       the maximum number of tokens per window
+     * @param refillRate the sustained rate (tokens per second), which sets the window length to
+     *                   {@code size / refillRate} seconds; 0 makes the window unbounded
+     * @throws IllegalArgumentException if the size is negative or exceeds {@link BucketState#MAX_TOKENS}
+     */
+    public SlidingWindowCounterBucket(long size, long refillRate) {
+        this(new BucketLimits(size, refillRate), TimeSource.SYSTEM);
+    }
+
+    SlidingWindowCounterBucket(BucketLimits limits, TimeSource timeSource) {
+        super(limits, timeSource);
+        long size = limits.size();
+        long refillRate = limits.refillRate();
+        if (size > BucketState.MAX_TOKENS) {
+            throw new IllegalArgumentException("Bucket size must be between 0 and " + BucketState.MAX_TOKENS);
+        }
+        this.size = size;
+        this.windowNanos = refillRate > 0
+                ? Math.max(1, TimeUnit.SECONDS.toNanos(Math.max(1, size)) / refillRate)
+                : Long.MAX_VALUE;
+        this.epochNanos = timeSource.nanoTime();
+        this.window = new AtomicReference<>(new Window(0, EMPTY));
+    }
+
+    @Override
+    public long tryAcquire(int tokensForBucket) {
+        return tryAcquire(tokensForBucket, timeSource().nanoTime());
+    }
+
+    @Override
+    long tryAcquire(int tokensForBucket, long nanoTime) {
+        // a batch may have read the clock just before the bucket was created
+        long now = Math.max(0, nanoTime - epochNanos);
+        Window current = currentWindow(now / windowNanos);
+        long elapsed = now % windowNanos;
+        long previous = current.previousCount.get();
+        long weightedPrevious = weightedPrevious(previous, elapsed);
+        while (true) {
+            long count = current.count.get();
+            long available = Math.max(0, size - weightedPrevious - count);
+            if (available < tokensForBucket) {
+                return AcquireResult.denied(available, retryAfterNanos(tokensForBucket, count, previous, elapsed));
+            }
+            if (current.count.compareAndSet(count, count + tokensForBucket)) {
+                return AcquireResult.allowed(available - tokensForBucket);
+            }
+        }
+    }
+
+    /**
+     * Removes the returned tokens from the count of the latest window, never below zero. A refund rolls back an
+     * acquire of the same request, so both usually fall in that window; if the clock has moved on without a new
+     * request, the latest window becomes the previous one of the clock and the refund is weighted like its count.
+     * <p>
+     * If another request opens a new window between the acquire and the refund, the tokens counted in the previous
+     * window are taken off the new one. The previous window weighs {@code 1 - elapsed / window} there, so the
+     * bucket over-credits {@code tokens * elapsed / window}, where the elapsed part of the new window is shorter
+     * than the time between the acquire and the refund. For a rollback within microseconds and windows of
+     * milliseconds or more, that is a small fraction of the refunded tokens.
+     *
+     * @param tokens the number of tokens to return
+     */
+    @Override
+    public void refund(int tokens) {
+        AtomicLong count = window.get().count;
+        while (true) {
+            long current = count.get();
+            if (count.compareAndSet(current, Math.max(0, current - tokens))) {
+                return;
+            }
+        }
+    }
+
+    private long weightedPrevious(long previous, long elapsed) {
+        return previous == 0 ? 0 : (long) Math.ceil(previous * ((double) (windowNanos - elapsed) / windowNanos));
+    }
+
+    private Window currentWindow(long index) {
+        while (true) {
+            Window current = window.get();
+            if (current.index >= index) {
+                return current;
+            }
+            Window next = new Window(index, current.index == index - 1 ? current.count : EMPTY);
+            if (window.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Estimates when the weighted previous count has decayed enough to fit the request, if need be in the next
+     * window, where the current count becomes the previous one.
+     */
+    private long retryAfterNanos(int tokens, long count, long previous, long elapsed) {
+        if (tokens > size || windowNanos == Long.MAX_VALUE) {
+            return AcquireResult.MAX_RETRY_AFTER_NANOS;
+        }
+        if (count + tokens > size) {
+            return windowNanos - elapsed + decayNanos(count, size - tokens);
+        }
+        return Math.max(1, decayNanos(previous, size - count - tokens) - elapsed);
+    }
+
+    /**
+     * Returns the offset into a window at which the weighted previous count drops to the allowed value.
+     */
+    private long decayNanos(long previous, long allowed) {
+        if (previous <= allowed) {
+            return 0;
+        }
+        return windowNanos - (long) (windowNanos * ((double) allowed / previous));
+    }
+
+    /**
+     * Counts the tokens used within the sliding window so far, capped at the new size, as used in the first
+     * window of the new length.
+     */
+    @Override
+    LocalBucket rescale(BucketLimits newLimits) {
+        SlidingWindowCounterBucket rescaled = new SlidingWindowCounterBucket(newLimits, timeSource());
+        long now = timeSource().nanoTime() - epochNanos;
+        Window current = currentWindow(now / windowNanos);
+        long used = current.count.get() + weightedPrevious(current.previousCount.get(), now % windowNanos);
+        rescaled.window.get().count.set(Math.min(used, rescaled.size));
+        return rescaled;
+    }
+
+    @Override
+    boolean isExpired(long idleTtlMillis) {
+        long now = timeSource().nanoTime() - epochNanos;
+        return isFull()
+                && now - (window.get().index + 1) * windowNanos > TimeUnit.MILLISECONDS.toNanos(idleTtlMillis);
+    }
+
+    /**
+     * Determines if neither the current nor the previous window holds any request.
+     *
+     * @return true if a full window has passed since the last request
+     */
+    @Override
+    boolean isFull() {
+        if (windowNanos == Long.MAX_VALUE) {
+            return window.get().count.get() == 0;
+        }
+        return window.get().index + 1 < (timeSource().nanoTime() - epochNanos) / windowNanos;
+    }
+}
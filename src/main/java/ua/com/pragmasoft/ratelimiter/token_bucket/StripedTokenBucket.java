@@ -0,0 +1,265 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link TokenBucket} for a limit shared by many threads, such as a service-wide ceiling, whose budget is split
+ * across independent stripes so that concurrent callers do not all compare-and-set the same word.
+ * <p>
+ * Each stripe is a packed token bucket as described in {@link BucketState}, holding its share of the size and the
+ * refill rate. The stripes sit a cache line apart, and a thread starts at the stripe picked by a random probe drawn
+ * once per thread, so threads on different cores mostly touch different cache lines. Only when the home stripe
+ * runs dry does the request visit the other stripes: it borrows the tokens it is missing and, while it is there,
+ * moves up to half of each donor's surplus into the home stripe, so the budget drifts towards the threads that spend
+ * it and the next requests are served at home again. A request larger than one stripe is assembled from several; if
+ * the stripes together do not hold enough, the borrowed tokens are put back and the request is rejected.
+ * <p>
+ * Tokens are only ever moved between stripes, never created, so the bucket as a whole admits at most what a single
+ * bucket of the same limits would. Tokens held by a request that is being assembled are briefly invisible to others,
+ * and a stripe refilled up to its share while tokens are moved into it drops the excess; both can only make the
+ * bucket stricter. The remaining tokens reported with an admission are those of the home stripe, a lower bound of
+ * the bucket's.
+ * <p>
+ * The probe lives in a {@link ThreadLocal}, so it sticks to the thread, not to the core. Pooled platform threads keep
+ * their home stripe across requests. A virtual thread draws its own probe, so when every request runs on a fresh
+ * virtual thread, each request starts at a random stripe: contention is still spread over the stripes, but the
+ * budget no longer drifts towards the spending threads, and a bucket running low borrows more often. The limit holds
+ * either way.
+ */
+public class StripedTokenBucket implements TokenBucket {
+
+    /**
+     * Distance between stripes in {@code long}s, one 64-byte cache line.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * Random probe of the calling thread, drawn on its first request.
+     */
+    private static final ThreadLocal<Integer> PROBE =
+            ThreadLocal.withInitial(() -> ThreadLocalRandom.current().nextInt());
+
+    private final long size;
+    private final long refillRate;
+    private final int stripeMask;
+    private final long[] stripeSizes;
+    private final long[] stripeRates;
+    private final TimeSource timeSource;
+    private final long epoch;
+    private final AtomicLongArray states;
+
+    /**
+     * Constructs a {@link StripedTokenBucket}.
+     *
+     * @param size       the maximum number of tokens in the bucket as a whole
+     * @param refillRate the rate at which tokens are added to the bucket as a whole (tokens per second)
+     * @param stripes    the requested number of stripes, rounded down to a power of two and to at most {@code size}
+     *                   and {@code refillRate}, so that every stripe holds and earns at least one token
+     * @throws IllegalArgumentException if the size is negative or exceeds the packed token capacity
+     */
+    public StripedTokenBucket(long size, long refillRate, int stripes) {
+        this(size, refillRate, stripes, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@link StripedTokenBucket} on the given clock.
+     *
+     * @param size       the maximum number of tokens in the bucket as a whole
+     * @param refillRate the rate at which tokens are added to the bucket as a whole (tokens per second)
+     * @param stripes    the requested number of stripes, rounded as described in
+     *                   {@link #StripedTokenBucket(long, long, int)}
+     * @param timeSource the clock of the bucket
+     * @throws IllegalArgumentException if the size is negative or exceeds the packed token capacity
+     */
+    public StripedTokenBucket(long size, long refillRate, int stripes, TimeSource timeSource) {
+        if (size < 0 || size > BucketState.MAX_TOKENS) {
+            throw new IllegalArgumentException("Bucket size must be between 0 and " + BucketState.MAX_TOKENS);
+        }
+        long limit = refillRate > 0 ? Math.min(size, refillRate) : size;
+        int count = Integer.highestOneBit((int) Math.max(1, Math.min(Math.max(1, stripes), limit)));
+        this.size = size;
+        this.refillRate = refillRate;
+        this.stripeMask = count - 1;
+        this.stripeSizes = new long[count];
+        this.stripeRates = new long[count];
+        this.timeSource = timeSource;
+        this.epoch = timeSource.millis();
+        this.states = new AtomicLongArray(count * PADDING);
+        for (int i = 0; i < count; i++) {
+            stripeSizes[i] = share(size, count, i);
+            stripeRates[i] = share(refillRate, count, i);
+            states.set(i * PADDING, BucketState.pack(stripeSizes[i], 0));
+        }
+    }
+
+    private static long share(long total, int count, int index) {
+        return total / count + (index < total % count ? 1 : 0);
+    }
+
+    @Override
+    public long tryAcquire(int tokensForBucket) {
+        long now = BucketState.relative(timeSource.millis(), epoch);
+        int home = homeStripe();
+        long result = tryAcquire(home, tokensForBucket, now);
+        if (AcquireResult.isAllowed(result) || stripeMask == 0) {
+            return result;
+        }
+        return borrow(home, tokensForBucket, now);
+    }
+
+    private long tryAcquire(int stripe, int tokensForBucket, long now) {
+        int index = stripe * PADDING;
+        long stripeSize = stripeSizes[stripe];
+        long stripeRate = stripeRates[stripe];
+        long current = states.get(index);
+        while (true) {
+            long refilled = BucketState.refill(current, now, stripeSize, stripeRate);
+            long available = BucketState.tokens(refilled);
+            if (available < tokensForBucket) {
+                return AcquireResult.denied(available,
+                        BucketState.retryAfterNanos(refilled, now, tokensForBucket, stripeSize, stripeRate));
+            }
+            long next = BucketState.pack(available - tokensForBucket, BucketState.timestamp(refilled));
+            if (states.compareAndSet(index, current, next)) {
+                return AcquireResult.allowed(available - tokensForBucket);
+            }
+            current = states.get(index);
+        }
+    }
+
+    /**
+     * Assembles the request from the home stripe and the others once the home stripe alone cannot serve it, moving
+     * part of the donors' surplus to the home stripe on the way. A saturated bucket is recognised by reading the
+     * stripes first, so rejections do not write to any of them.
+     */
+    private long borrow(int home, int tokensForBucket, long now) {
+        if (tokensForBucket > size) {
+            return AcquireResult.denied(0, AcquireResult.MAX_RETRY_AFTER_NANOS);
+        }
+        long available = 0;
+        long firstToken = AcquireResult.MAX_RETRY_AFTER_NANOS;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            long refilled = BucketState.refill(states.get(stripe * PADDING), now, stripeSizes[stripe],
+                    stripeRates[stripe]);
+            available += BucketState.tokens(refilled);
+            firstToken = Math.min(firstToken, BucketState.retryAfterNanos(refilled, now,
+                    BucketState.tokens(refilled) + 1, stripeSizes[stripe], stripeRates[stripe]));
+        }
+        if (available < tokensForBucket) {
+            return AcquireResult.denied(0, retryAfterNanos(tokensForBucket - available, firstToken));
+        }
+        long collected = take(home, tokensForBucket, now);
+        long room = stripeSizes[home];
+        for (int i = 1; i <= stripeMask && collected < tokensForBucket; i++) {
+            int donor = (home + i) & stripeMask;
+            long needed = tokensForBucket - collected;
+            long taken = take(donor, needed, room, now);
+            collected += taken;
+            room -= Math.max(0, taken - needed);
+        }
+        if (collected >= tokensForBucket) {
+            return AcquireResult.allowed(deposit(home, collected - tokensForBucket, now));
+        }
+        // concurrent requests drained the stripes between the read and the takes
+        refund((int) collected);
+        return AcquireResult.denied(0, retryAfterNanos(tokensForBucket - collected, firstToken));
+    }
+
+    /**
+     * Takes up to {@code wanted} tokens from a stripe, plus half of what it would hold beyond that, but at most
+     * {@code surplusLimit} extra tokens.
+     */
+    private long take(int stripe, long wanted, long surplusLimit, long now) {
+        int index = stripe * PADDING;
+        long current = states.get(index);
+        while (true) {
+            long refilled = BucketState.refill(current, now, stripeSizes[stripe], stripeRates[stripe]);
+            long available = BucketState.tokens(refilled);
+            long taken = available <= wanted ? available
+                    : wanted + Math.min(surplusLimit, (available - wanted) / 2);
+            if (taken == 0) {
+                return 0;
+            }
+            long next = BucketState.pack(available - taken, BucketState.timestamp(refilled));
+            if (states.compareAndSet(index, current, next)) {
+                return taken;
+            }
+            current = states.get(index);
+        }
+    }
+
+    private long take(int stripe, long wanted, long now) {
+        return take(stripe, wanted, 0, now);
+    }
+
+    /**
+     * Adds the surplus of a borrow to the home stripe, capped at its share of the size.
+     *
+     * @return the tokens the home stripe holds afterwards
+     */
+    private long deposit(int stripe, long tokens, long now) {
+        int index = stripe * PADDING;
+        long current = states.get(index);
+        while (true) {
+            long refilled = BucketState.refill(current, now, stripeSizes[stripe], stripeRates[stripe]);
+            long held = Math.min(stripeSizes[stripe], BucketState.tokens(refilled) + tokens);
+            if (states.compareAndSet(index, current, BucketState.pack(held, BucketState.timestamp(refilled)))) {
+                return held;
+            }
+            current = states.get(index);
+        }
+    }
+
+    /**
+     * Estimates the wait for the missing tokens at the rate of the whole bucket, but no shorter than the wait for
+     * the first stripe to earn its next token.
+     */
+    private long retryAfterNanos(long missing, long firstToken) {
+        if (refillRate <= 0) {
+            return AcquireResult.MAX_RETRY_AFTER_NANOS;
+        }
+        long aggregate = TimeUnit.MILLISECONDS.toNanos((missing * 1000 + refillRate - 1) / refillRate);
+        return Math.min(AcquireResult.MAX_RETRY_AFTER_NANOS, Math.max(firstToken, aggregate));
+    }
+
+    /**
+     * Returns the tokens to the stripes starting at the home stripe of the calling thread, filling each up to its
+     * share of the size.
+     *
+     * @param tokens the number of tokens to return
+     */
+    @Override
+    public void refund(int tokens) {
+        long left = tokens;
+        int home = homeStripe();
+        for (int i = 0; i <= stripeMask && left > 0; i++) {
+            int stripe = (home + i) & stripeMask;
+            int index = stripe * PADDING;
+            while (true) {
+                long current = states.get(index);
+                long held = BucketState.tokens(current);
+                long added = Math.min(left, Math.max(0, stripeSizes[stripe] - held));
+                long next = BucketState.pack(held + added, BucketState.timestamp(current));
+                if (states.compareAndSet(index, current, next)) {
+                    left -= added;
+                    break;
+                }
+            }
+        }
+    }
+
+    private int homeStripe() {
+        return PROBE.get() & stripeMask;
+    }
+
+    /**
+     * Returns the number of stripes.
+     *
+     * @return the stripe count
+     */
+    public int getStripeCount() {
+        return stripeMask + 1;
+    }
+}
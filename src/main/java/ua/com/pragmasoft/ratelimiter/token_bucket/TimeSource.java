@@ -0,0 +1,45 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monotonic clock of the in-memory buckets. Readings only have meaning relative to each other: they never jump
+ * with wall-clock adjustments such as NTP corrections, so refills can neither stall nor burst.
+ * <p>
+ * {@link #SYSTEM} reads {@link System#nanoTime()} on every call; {@link CachedTimeSource} trades precision for a
+ * single field read on the request path; {@link ManualTimeSource} only moves when a test advances it.
+ */
+@FunctionalInterface
+public interface TimeSource {
+
+    /**
+     * Reads {@link System#nanoTime()}.
+     */
+    TimeSource SYSTEM = System::nanoTime;
+
+    /**
+     * Returns the current reading in nanoseconds, from an arbitrary origin.
+     *
+     * @return the current time in nanoseconds
+     */
+    long nanoTime();
+
+    /**
+     * Returns the current reading in whole milliseconds, from the same origin as {@link #nanoTime()}.
+     *
+     * @return the current time in milliseconds
+     */
+    default long millis() {
+        return toMillis(nanoTime());
+    }
+
+    /**
+     * Converts a reading in nanoseconds to whole milliseconds, rounding towards the past.
+     *
+     * @param nanoTime the reading in nanoseconds
+     * @return the reading in milliseconds
+     */
+    static long toMillis(long nanoTime) {
+        return Math.floorDiv(nanoTime, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
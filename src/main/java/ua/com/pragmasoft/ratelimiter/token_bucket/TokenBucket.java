@@ -2,16 +2,47 @@ package ua.com.pragmasoft.ratelimiter.token_bucket;
 
 import ua.com.pragmasoft.ratelimiter.exception.RateLimitExceededException;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Interface for a token bucket used in rate limiting.
  */
 public interface TokenBucket {
 
+    /**
+     * Attempts to retrieve a specified number of tokens from the bucket without throwing on rejection.
+     *
+     * @param tokensForBucket the number of tokens to retrieve
+     * @return the decision encoded as described in {@link AcquireResult}
+     */
+    long tryAcquire(int tokensForBucket);
+
+    /**
+     * Returns tokens taken by an admitted {@link #tryAcquire(int)} that is being rolled back, for example because
+     * another limit of the same request rejected it. The bucket never grows beyond its size.
+     *
+     * @param tokens the number of tokens to return
+     * @throws UnsupportedOperationException if the bucket cannot take tokens back
+     */
+    default void refund(int tokens) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support refunds");
+    }
+
     /**
      * Attempts to retrieve a specified number of tokens from the bucket.
+     * This is a thin adapter over {@link #tryAcquire(int)} for callers that prefer exceptions.
      *
      * @param tokensForBucket the number of tokens to retrieve
-     * @return true if the tokens were successfully retrieved, false otherwise
+     * @return true if the tokens were successfully retrieved
+     * @throws RateLimitExceededException if the tokens cannot be retrieved
      */
-    boolean getToken(int tokensForBucket) throws RateLimitExceededException;
+    default boolean getToken(int tokensForBucket) throws RateLimitExceededException {
+        long result = tryAcquire(tokensForBucket);
+        if (AcquireResult.isAllowed(result)) {
+            return true;
+        }
+        long retryAfterMillis = TimeUnit.NANOSECONDS.toMillis(AcquireResult.retryAfterNanos(result));
+        String errorReason = "Exceeded the allowed rate limit.";
+        throw new RateLimitExceededException("Rate limit exceeded. Try again later.", retryAfterMillis, errorReason);
+    }
 }
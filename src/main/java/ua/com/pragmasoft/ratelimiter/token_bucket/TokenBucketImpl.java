@@ -1,70 +1,95 @@
 package ua.com.pragmasoft.ratelimiter.token_bucket;
 
-import ua.com.pragmasoft.ratelimiter.exception.RateLimitExceededException;
-
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Implementation of the {@link TokenBucket} interface using an atomic counter for tokens and a refill mechanism.
+ * Lock-free implementation of the {@link TokenBucket} interface. The token count and the last refill timestamp are
+ * packed into a single atomic word, so refill and consume are applied together with one compare-and-set and
+ * concurrent callers can never overdraw the bucket. Time is read from a monotonic {@link TimeSource}.
  */
-public class TokenBucketImpl implements TokenBucket {
+public class TokenBucketImpl extends LocalBucket {
     private final long size;
     private final long refillRate;
-    private final AtomicLong tokens;
-    private final AtomicLong lastRefillTimestamp;
-
-    private static final ConcurrentMap<String, TokenBucketImpl> buckets = new ConcurrentHashMap<>();
-    private static final long CLEANUP_INTERVAL_MS = 60000;
+    private final long epoch;
+    private final AtomicLong state;
 
     /**
      * Constructs a {@link TokenBucketImpl} with the specified size and refill rate.
      *
      * @param size       the maximum number of tokens in the bucket
      * @param refillRate the rate at which tokens are added (tokens per second)
+     * @throws IllegalArgumentException if the size is negative or exceeds the packed token capacity
      */
     public TokenBucketImpl(long size, long refillRate) {
-        this.size = size;
-        this.refillRate = refillRate;
-        this.tokens = new AtomicLong(size);
-        this.lastRefillTimestamp = new AtomicLong(System.currentTimeMillis());
+        this(new BucketLimits(size, refillRate), TimeSource.SYSTEM);
     }
 
     /**
-     * Attempts to retrieve a specified number of tokens from the bucket.
+     * Constructs a {@link TokenBucketImpl} with the specified size and refill rate on the given clock.
      *
-     * @param tokensForBucket the number of tokens to retrieve
-     * @return true value if token retrieve successfully
-     * @throws RateLimitExceededException if the tokens cannot be retrieved
+     * @param size       the maximum number of tokens in the bucket
+     * @param refillRate the rate at which tokens are added (tokens per second)
+     * @param timeSource the clock of the bucket
+     * @throws IllegalArgumentException if the size is negative or exceeds the packed token capacity
      */
-    @Override
-    public boolean getToken(int tokensForBucket) throws RateLimitExceededException {
-        refill();
-        long currentTokens = tokens.get();
-        if (currentTokens >= tokensForBucket) {
-            tokens.addAndGet(-tokensForBucket);
-            return true;
-        } else {
-            long retryAfterMillis = calculateRetryAfter();
-            String errorReason = "Exceeded the allowed rate limit.";
-            throw new RateLimitExceededException("Rate limit exceeded. Try again later.", retryAfterMillis, errorReason);
+    public TokenBucketImpl(long size, long refillRate, TimeSource timeSource) {
+        this(new BucketLimits(size, refillRate), timeSource);
+    }
+
+    TokenBucketImpl(BucketLimits limits, TimeSource timeSource) {
+        super(limits, timeSource);
+        if (limits.size() > BucketState.MAX_TOKENS) {
+            throw new IllegalArgumentException("Bucket size must be between 0 and " + BucketState.MAX_TOKENS);
         }
+        this.size = limits.size();
+        this.refillRate = limits.refillRate();
+        this.epoch = timeSource.millis();
+        this.state = new AtomicLong(BucketState.pack(size, 0));
     }
 
     /**
-     * Refills the bucket with tokens based on the elapsed time since the last refill.
+     * Attempts to retrieve a specified number of tokens from the bucket without throwing on rejection.
+     *
+     * @param tokensForBucket the number of tokens to retrieve
+     * @return the decision encoded as described in {@link AcquireResult}
      */
-    private synchronized void refill() {
-        long now = System.currentTimeMillis();
-        long elapsed = now - lastRefillTimestamp.get();
-        if (elapsed > CLEANUP_INTERVAL_MS) {
-            cleanUpBuckets();
+    @Override
+    public long tryAcquire(int tokensForBucket) {
+        return tryAcquireAt(tokensForBucket, timeSource().millis());
+    }
+
+    @Override
+    long tryAcquire(int tokensForBucket, long nanoTime) {
+        return tryAcquireAt(tokensForBucket, TimeSource.toMillis(nanoTime));
+    }
+
+    private long tryAcquireAt(int tokensForBucket, long millis) {
+        long now = BucketState.relative(millis, epoch);
+        long current = state.get();
+        while (true) {
+            long refilled = BucketState.refill(current, now, size, refillRate);
+            long available = BucketState.tokens(refilled);
+            if (available < tokensForBucket) {
+                return AcquireResult.denied(available,
+                        BucketState.retryAfterNanos(refilled, now, tokensForBucket, size, refillRate));
+            }
+            long next = BucketState.pack(available - tokensForBucket, BucketState.timestamp(refilled));
+            if (state.compareAndSet(current, next)) {
+                return AcquireResult.allowed(available - tokensForBucket);
+            }
+            current = state.get();
+        }
+    }
+
+    @Override
+    public void refund(int tokens) {
+        while (true) {
+            long current = state.get();
+            long refunded = Math.min(size, BucketState.tokens(current) + tokens);
+            if (state.compareAndSet(current, BucketState.pack(refunded, BucketState.timestamp(current)))) {
+                return;
+            }
         }
-        long newTokens = elapsed * refillRate / 1000;
-        tokens.set(Math.min(size, tokens.get() + newTokens));
-        lastRefillTimestamp.set(now);
     }
 
     /**
@@ -73,7 +98,7 @@ public class TokenBucketImpl implements TokenBucket {
      * @return the time to wait in milliseconds
      */
     public long calculateRetryAfter() {
-        long currentTokens = tokens.get();
+        long currentTokens = BucketState.tokens(state.get());
         long tokensNeeded = size - currentTokens;
         if (refillRate <= 0) {
             throw new IllegalStateException("Refill rate must be greater than zero");
@@ -82,38 +107,33 @@ public class TokenBucketImpl implements TokenBucket {
     }
 
     /**
-     * Retrieves or creates a token bucket for the specified client key.
-     *
-     * @param clientKey  the unique client key
-     * @param size       the maximum number of tokens in the bucket
-     * @param refillRate the rate at which tokens are added (tokens per second)
-     * @return the token bucket for the specified client key
+     * Keeps the number of tokens the client has used, so a larger bucket grants the difference in size right
+     * away and a smaller one may start empty; the new rate applies from now on.
      */
-    public static TokenBucket getBucket(String clientKey, long size, long refillRate) {
-        return buckets.compute(clientKey, (k, existingBucket) -> {
-            return Objects.requireNonNullElseGet(existingBucket, () -> new TokenBucketImpl(size, refillRate));
-        });
+    @Override
+    LocalBucket rescale(BucketLimits newLimits) {
+        TokenBucketImpl rescaled = new TokenBucketImpl(newLimits, timeSource());
+        long currentTime = timeSource().millis();
+        long refilled = BucketState.refill(state.get(), BucketState.relative(currentTime, epoch), size, refillRate);
+        long used = size - BucketState.tokens(refilled);
+        long tokens = Math.max(0, rescaled.size - used);
+        rescaled.state.set(BucketState.pack(tokens, BucketState.relative(currentTime, rescaled.epoch)));
+        return rescaled;
     }
 
-    /**
-     * Performs cleanup of expired buckets to avoid memory leaks.
-     */
-    private static synchronized void cleanUpBuckets() {
-        long now = System.currentTimeMillis();
-        buckets.forEach((key, bucket) -> {
-            if (bucket.isExpired(now)) {
-                buckets.remove(key);
-            }
-        });
+    @Override
+    boolean isExpired(long idleTtlMillis) {
+        long current = state.get();
+        long now = BucketState.relative(timeSource().millis(), epoch);
+        return now - BucketState.timestamp(current) > idleTtlMillis && isFull(current, now);
     }
 
-    /**
-     * Determines if the bucket has expired.
-     *
-     * @param currentTime the current time in milliseconds
-     * @return true if the bucket has expired, false otherwise
-     */
-    private boolean isExpired(long currentTime) {
-        return currentTime - lastRefillTimestamp.get() > CLEANUP_INTERVAL_MS;
+    @Override
+    boolean isFull() {
+        return isFull(state.get(), BucketState.relative(timeSource().millis(), epoch));
+    }
+
+    private boolean isFull(long current, long now) {
+        return BucketState.tokens(BucketState.refill(current, now, size, refillRate)) >= size;
     }
 }
@@ -0,0 +1,24 @@
+package ua.com.pragmasoft.ratelimiter.token_bucket;
+
+/**
+ * Shared token budget that instances lease batches of tokens from, see {@link LeasingBucketStore}.
+ */
+public interface TokenLeaseSource {
+
+    /**
+     * Takes up to the requested number of tokens from the shared bucket of the client key.
+     *
+     * @param clientKey the unique client key
+     * @param requested the number of tokens wanted
+     * @return the number of tokens granted, between 0 and {@code requested}
+     */
+    long lease(String clientKey, long requested);
+
+    /**
+     * Returns unused tokens to the shared bucket of the client key. Tokens above the bucket size are discarded.
+     *
+     * @param clientKey the unique client key
+     * @param tokens    the number of tokens to return
+     */
+    void release(String clientKey, long tokens);
+}
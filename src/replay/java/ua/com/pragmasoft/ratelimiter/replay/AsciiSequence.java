@@ -0,0 +1,53 @@
+package ua.com.pragmasoft.ratelimiter.replay;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link CharSequence} view of a region of a byte buffer holding single-byte text, so that the client key strategy
+ * and the route matcher read a mapped log in place. Only absolute reads are used, so several threads can share the
+ * buffer. A view can be moved to another region with {@link #set(int, int)} instead of creating a new one per line.
+ */
+final class AsciiSequence implements CharSequence {
+
+    private final ByteBuffer buffer;
+    private int from;
+    private int to;
+
+    AsciiSequence(ByteBuffer buffer) {
+        this(buffer, 0, buffer.limit());
+    }
+
+    private AsciiSequence(ByteBuffer buffer, int from, int to) {
+        this.buffer = buffer;
+        this.from = from;
+        this.to = to;
+    }
+
+    void set(int from, int to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public int length() {
+        return to - from;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(from + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new AsciiSequence(buffer, from + start, from + end);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length()];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,102 @@
+package ua.com.pragmasoft.ratelimiter.replay;
+
+/**
+ * Request and rejection counts per client key, in open-addressing primitive arrays, so that a replay over millions
+ * of keys allocates nothing per request. Not thread-safe: each shard of a replay owns its counters.
+ */
+final class KeyCounters {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Receives the counts of one key.
+     */
+    @FunctionalInterface
+    interface Visitor {
+
+        void visit(long key, long requests, long rejected);
+    }
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] requests = new long[INITIAL_CAPACITY];
+    private long[] rejected = new long[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Counts one request of a key.
+     *
+     * @param key      the client key
+     * @param rejected {@code true} if the limiter rejected the request
+     */
+    void record(long key, boolean rejected) {
+        int slot = slot(keys, requests, key);
+        if (requests[slot] == 0) {
+            keys[slot] = key;
+            size++;
+        }
+        requests[slot]++;
+        if (rejected) {
+            this.rejected[slot]++;
+        }
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Returns the number of distinct keys counted.
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Passes the counts of every key to the visitor, in no particular order.
+     *
+     * @param visitor the visitor
+     */
+    void forEach(Visitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (requests[slot] != 0) {
+                visitor.visit(keys[slot], requests[slot], rejected[slot]);
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a key, or the empty slot where it belongs. A slot is taken once it has counted a request, so
+     * every key value, zero included, can be stored.
+     */
+    private static int slot(long[] keys, long[] requests, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (requests[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldRequests = requests;
+        long[] oldRejected = rejected;
+        keys = new long[oldKeys.length * 2];
+        requests = new long[oldKeys.length * 2];
+        rejected = new long[oldKeys.length * 2];
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldRequests[old] != 0) {
+                int slot = slot(keys, requests, oldKeys[old]);
+                keys[slot] = oldKeys[old];
+                requests[slot] = oldRequests[old];
+                rejected[slot] = oldRejected[old];
+            }
+        }
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,121 @@
+package ua.com.pragmasoft.ratelimiter.replay;
+
+import ua.com.pragmasoft.ratelimiter.client_key.IpAddressParser;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link TrafficReplay}.
+ *
+ * @param requests               the number of requests replayed
+ * @param rejected               the number of requests the limiter rejected
+ * @param malformed              the number of lines that could not be parsed, which were skipped
+ * @param bytes                  the size of the log in bytes
+ * @param keys                   the number of distinct client keys
+ * @param keysWithRejections     the number of keys that saw at least one rejection
+ * @param rejectionRateHistogram the number of keys per whole percentage of rejected requests, from 0 to 100
+ * @param topKeys                the keys with the most rejections, most first
+ * @param peakBuckets            the most buckets the stores held at once, sampled before every eviction sweep
+ * @param peakAtMillis           the simulated time of the peak, from the first request of the log
+ * @param simulatedMillis        the time the log spans, from its first to its last request
+ * @param threads                the number of threads the replay ran on
+ * @param wallNanos              the real time of the whole replay, reading the log included
+ * @param decisionNanos          the real time the shards spent deciding requests, summed over the threads
+ */
+public record ReplayReport(long requests, long rejected, long malformed, long bytes, long keys,
+                           long keysWithRejections, long[] rejectionRateHistogram, List<KeyStats> topKeys,
+                           long peakBuckets, long peakAtMillis, long simulatedMillis, int threads, long wallNanos,
+                           long decisionNanos) {
+
+    /**
+     * The counts of one client key.
+     *
+     * @param key      the client key, as produced by the client key strategy
+     * @param requests the number of requests of the key
+     * @param rejected the number of them the limiter rejected
+     */
+    public record KeyStats(long key, long requests, long rejected) {
+
+        /**
+         * Returns the share of the requests of the key that were rejected.
+         *
+         * @return the rejection rate, between 0 and 1
+         */
+        public double rejectionRate() {
+            return (double) rejected / requests;
+        }
+    }
+
+    /**
+     * Returns the share of all requests that were rejected.
+     *
+     * @return the rejection rate, between 0 and 1
+     */
+    public double rejectionRate() {
+        return requests == 0 ? 0 : (double) rejected / requests;
+    }
+
+    /**
+     * Returns the per-key rejection rate below which the given share of the keys falls, to whole percents.
+     *
+     * @param quantile the share of the keys, between 0 and 1
+     * @return the rejection rate in percent
+     */
+    public int keyRejectionRatePercentile(double quantile) {
+        long threshold = (long) Math.ceil(quantile * keys);
+        long cumulative = 0;
+        for (int percent = 0; percent < rejectionRateHistogram.length; percent++) {
+            cumulative += rejectionRateHistogram[percent];
+            if (cumulative >= Math.max(1, threshold)) {
+                return percent;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the rate at which the log was read and replayed.
+     *
+     * @return requests per second of real time
+     */
+    public double throughputPerSecond() {
+        return wallNanos == 0 ? 0 : requests * (double) TimeUnit.SECONDS.toNanos(1) / wallNanos;
+    }
+
+    /**
+     * Returns the rate at which one thread decides requests through the client key strategy, the route matcher and
+     * the bucket store, without parsing and eviction.
+     *
+     * @return decisions per second and thread
+     */
+    public double decisionsPerSecond() {
+        return decisionNanos == 0 ? 0 : requests * (double) TimeUnit.SECONDS.toNanos(1) / decisionNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Replayed %d requests (%d malformed lines skipped) from %.1f MB in %.2f s "
+                        + "on %d threads: %.0f requests/s, %.1f MB/s%n", requests, malformed, bytes / 1e6,
+                wallNanos / 1e9, threads, throughputPerSecond(), bytes / 1e6 / Math.max(1e-9, wallNanos / 1e9)));
+        report.append(String.format("Limiter throughput: %.0f decisions/s per thread%n", decisionsPerSecond()));
+        report.append(String.format("Simulated %.1f s of traffic; peak bucket map size %d at +%.1f s%n",
+                simulatedMillis / 1e3, peakBuckets, peakAtMillis / 1e3));
+        report.append(String.format("Rejected %d requests (%.2f%%); %d of %d keys saw rejections%n", rejected,
+                rejectionRate() * 100, keysWithRejections, keys));
+        report.append(String.format("Per-key rejection rate: p50 %d%%, p90 %d%%, p99 %d%%, p99.9 %d%%, max %d%%%n",
+                keyRejectionRatePercentile(0.5), keyRejectionRatePercentile(0.9),
+                keyRejectionRatePercentile(0.99), keyRejectionRatePercentile(0.999),
+                keyRejectionRatePercentile(1)));
+        if (!topKeys.isEmpty()) {
+            report.append(String.format("%-42s %12s %12s %8s%n", "Top keys by rejections", "requests", "rejected",
+                    "rate"));
+            for (KeyStats stats : topKeys) {
+                report.append(String.format("%-42s %12d %12d %7.2f%%%n", IpAddressParser.describe(stats.key()),
+                        stats.requests(), stats.rejected(), stats.rejectionRate() * 100));
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,647 @@
+package ua.com.pragmasoft.ratelimiter.replay;
+
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.HeaderClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RouteLimit;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketEvictor;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays a recorded access log through the limiter in simulated time, to tune the limits offline before they are
+ * shipped.
+ * <p>
+ * Every line of the log holds a client key, a timestamp and a request path, separated by spaces or tabs; further
+ * fields are ignored, as is a query string on the path. The timestamp is either in epoch milliseconds or in epoch
+ * seconds with a fraction, as nginx writes {@code $msec}. Blank lines and lines starting with {@code #} are skipped.
+ * <pre>
+ * 203.0.113.7 1718000000123 /api/orders
+ * 2001:db8::1 1718000000.125 /api/orders?page=2
+ * </pre>
+ * The key goes through {@link ClientKeyStrategy#getClientKeyHash(CharSequence, int, int)} and the path through
+ * {@link RateLimitPolicy#resolve}, so the decisions are those of the filter for the same requests. Only the route
+ * limits are applied; the levels of a policy need the other headers of the request, which a log does not have.
+ * <p>
+ * The log is memory-mapped in segments and read once. The keys are split into shards by hash, one per thread, and
+ * every shard has its own policy and bucket stores on its own {@link ManualTimeSource}, which follows the
+ * timestamps of the shard's requests. A segment is replayed in two parallel phases: each thread first parses a slice
+ * of the segment and sorts its requests by shard, then each shard decides its requests, slice by slice, so that
+ * every key sees its requests in log order. Idle buckets are swept by a {@link BucketEvictor} at fixed simulated
+ * intervals, and the bucket counts sampled before each sweep add up to the peak size of the bucket maps.
+ * <p>
+ * Run it with {@code mvn -Preplay compile exec:exec -Dreplay.args="access.log --size 50 --refill 2000"}; see
+ * {@link #main(String[])} for the options. The tool is compiled only in the {@code replay} profile and is not part of
+ * the application jar.
+ */
+public class TrafficReplay {
+
+    private static final String USAGE = """
+            Usage: TrafficReplay <log> [options]
+              --size <tokens>           bucket size (default 50)
+              --refill <tokens/s>       refill rate (default 2000)
+              --algorithm <name>        token-bucket, gcra, sliding-window or sliding-log (default token-bucket)
+              --store <map|compact>     bucket store type (default map)
+              --capacity <slots>        slots of the compact store over all shards (default 1048576)
+              --key <ip|header>         key clients on the field as an IP address or as a header value (default ip)
+              --ipv4-prefix <bits>      IPv4 prefix the ip keys are aggregated by (default 32)
+              --ipv6-prefix <bits>      IPv6 prefix the ip keys are aggregated by (default 128)
+              --idle-ttl-ms <ms>        idle time after which a full bucket is evicted (default 60000)
+              --max-entries <count>     most buckets kept before eviction gets eager (default 1000000)
+              --sweep-ms <ms>           simulated time between eviction sweeps (default idle TTL / 10)
+              --threads <count>         threads and key shards (default: available processors)
+              --segment-mb <MB>         size of the mapped segments of the log (default 64)
+              --top <count>             keys listed in the report (default 20)
+            """;
+
+    /**
+     * Creates the policy of one shard on the shard's simulated clock.
+     */
+    @FunctionalInterface
+    public interface PolicyFactory {
+
+        /**
+         * Creates a policy whose bucket stores read the given clock.
+         *
+         * @param timeSource the simulated clock of the shard
+         * @return the policy
+         */
+        RateLimitPolicy create(TimeSource timeSource);
+    }
+
+    /**
+     * How a replay runs.
+     *
+     * @param threads             the number of threads, which is also the number of key shards
+     * @param idleTtlMillis       the idle time after which a refilled bucket is evicted
+     * @param maxEntries          the most buckets kept over all shards before eviction gets eager
+     * @param sweepIntervalMillis the simulated time between two eviction sweeps
+     * @param segmentBytes        the size of the segments the log is mapped in; every line must fit into one
+     * @param method              the HTTP method the rules see, as access logs often do not record it
+     * @param topKeys             the number of keys with the most rejections to report
+     */
+    public record Options(int threads, long idleTtlMillis, int maxEntries, long sweepIntervalMillis,
+                          int segmentBytes, String method, int topKeys) {
+
+        /**
+         * Validates the options.
+         *
+         * @throws IllegalArgumentException if a count or a duration is not positive
+         */
+        public Options {
+            if (threads < 1 || idleTtlMillis < 1 || maxEntries < 1 || sweepIntervalMillis < 1 || segmentBytes < 1
+                    || topKeys < 0) {
+                throw new IllegalArgumentException("Replay options must be positive");
+            }
+        }
+
+        /**
+         * Returns the defaults of the command line: the eviction settings of {@code application.properties}, one
+         * thread per processor and 64 MB segments.
+         *
+         * @return the default options
+         */
+        public static Options defaults() {
+            long idleTtlMillis = 60_000;
+            return new Options(Runtime.getRuntime().availableProcessors(), idleTtlMillis, 1_000_000,
+                    idleTtlMillis / 10, 64 << 20, "GET", 20);
+        }
+    }
+
+    private final ClientKeyStrategy keyStrategy;
+    private final PolicyFactory policyFactory;
+    private final Options options;
+
+    /**
+     * Constructs a {@link TrafficReplay}.
+     *
+     * @param keyStrategy   the strategy deriving the client key from the key field of the log
+     * @param policyFactory the factory of the policy of every shard
+     * @param options       how the replay runs
+     */
+    public TrafficReplay(ClientKeyStrategy keyStrategy, PolicyFactory policyFactory, Options options) {
+        this.keyStrategy = keyStrategy;
+        this.policyFactory = policyFactory;
+        this.options = options;
+    }
+
+    /**
+     * Replays the command line options against the log given as the first argument and prints the report.
+     *
+     * @param args the log and the options, as listed by running without arguments
+     * @throws IOException          if the log cannot be read
+     * @throws InterruptedException if the replay is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        long size = 50;
+        long refillRate = 2000;
+        LimiterAlgorithm algorithm = LimiterAlgorithm.TOKEN_BUCKET;
+        String storeType = "map";
+        int capacity = 1 << 20;
+        String key = "ip";
+        int ipv4Prefix = 32;
+        int ipv6Prefix = 128;
+        Options defaults = Options.defaults();
+        long idleTtlMillis = defaults.idleTtlMillis();
+        int maxEntries = defaults.maxEntries();
+        long sweepIntervalMillis = 0;
+        int threads = defaults.threads();
+        int segmentBytes = defaults.segmentBytes();
+        int topKeys = defaults.topKeys();
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--size" -> size = Long.parseLong(value);
+                    case "--refill" -> refillRate = Long.parseLong(value);
+                    case "--algorithm" ->
+                            algorithm = LimiterAlgorithm.valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+                    case "--store" -> storeType = value;
+                    case "--capacity" -> capacity = Integer.parseInt(value);
+                    case "--key" -> key = value;
+                    case "--ipv4-prefix" -> ipv4Prefix = Integer.parseInt(value);
+                    case "--ipv6-prefix" -> ipv6Prefix = Integer.parseInt(value);
+                    case "--idle-ttl-ms" -> idleTtlMillis = Long.parseLong(value);
+                    case "--max-entries" -> maxEntries = Integer.parseInt(value);
+                    case "--sweep-ms" -> sweepIntervalMillis = Long.parseLong(value);
+                    case "--threads" -> threads = Integer.parseInt(value);
+                    case "--segment-mb" -> segmentBytes = Math.toIntExact((long) Integer.parseInt(value) << 20);
+                    case "--top" -> topKeys = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            ClientKeyStrategy keyStrategy = switch (key) {
+                case "ip" -> new IPClientKeyStrategy(ipv4Prefix, ipv6Prefix);
+                case "header" -> new HeaderClientKeyStrategy("X-Api-Key");
+                default -> throw new IllegalArgumentException("Unknown key type " + key);
+            };
+            Options options = new Options(threads, idleTtlMillis, maxEntries,
+                    sweepIntervalMillis > 0 ? sweepIntervalMillis : Math.max(1, idleTtlMillis / 10), segmentBytes,
+                    defaults.method(), topKeys);
+            long bucketSize = size;
+            long bucketRefillRate = refillRate;
+            LimiterAlgorithm bucketAlgorithm = algorithm;
+            // every shard holds its share of the keys, so it gets its share of the slots
+            int shardCapacity = Math.max(1, capacity / threads);
+            PolicyFactory policyFactory = switch (storeType) {
+                case "map" -> timeSource -> RateLimitPolicy.of(
+                        new ConcurrentMapBucketStore(bucketSize, bucketRefillRate, bucketAlgorithm, timeSource));
+                case "compact" -> {
+                    if (algorithm != LimiterAlgorithm.TOKEN_BUCKET) {
+                        throw new IllegalArgumentException("The compact store only holds token buckets");
+                    }
+                    yield timeSource -> RateLimitPolicy.of(
+                            new CompactBucketStore(bucketSize, bucketRefillRate, shardCapacity, timeSource));
+                }
+                default -> throw new IllegalArgumentException("Unknown store type " + storeType);
+            };
+            TrafficReplay replay = new TrafficReplay(keyStrategy, policyFactory, options);
+            System.out.printf("Replaying %s with size=%d, refill=%d/s, algorithm=%s, store=%s%n", args[0], size,
+                    refillRate, algorithm, storeType);
+            System.out.print(replay.replay(Path.of(args[0])));
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Replays a log.
+     *
+     * @param log the access log
+     * @return the report
+     * @throws IOException          if the log cannot be read, or holds a line longer than a segment
+     * @throws InterruptedException if the calling thread is interrupted while the replay runs
+     */
+    public ReplayReport replay(Path log) throws IOException, InterruptedException {
+        int threads = options.threads();
+        Shard[] shards = new Shard[threads];
+        for (int s = 0; s < threads; s++) {
+            shards[s] = new Shard(policyFactory, options);
+        }
+        Batch[][] batches = new Batch[threads][threads];
+        for (Batch[] slice : batches) {
+            for (int s = 0; s < threads; s++) {
+                slice[s] = new Batch();
+            }
+        }
+        long[] malformed = new long[threads];
+        long bytes;
+        long origin = Long.MIN_VALUE;
+        long firstMillis = Long.MAX_VALUE;
+        long lastMillis = Long.MIN_VALUE;
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            bytes = channel.size();
+            long position = 0;
+            while (position < bytes) {
+                long remaining = bytes - position;
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(remaining, options.segmentBytes()));
+                int end = segment.limit() == remaining ? segment.limit() : lastLineEnd(segment);
+                if (end == 0) {
+                    throw new IOException("The line at byte " + position + " of " + log
+                            + " is longer than a segment of " + options.segmentBytes() + " bytes");
+                }
+                int[] bounds = slices(segment, end, threads);
+                AsciiSequence text = new AsciiSequence(segment);
+
+                List<Callable<Void>> parse = new ArrayList<>(threads);
+                for (int c = 0; c < threads; c++) {
+                    int slice = c;
+                    parse.add(() -> {
+                        malformed[slice] += parse(segment, text, bounds[slice], bounds[slice + 1], batches[slice]);
+                        return null;
+                    });
+                }
+                invokeAll(pool, parse);
+
+                for (Batch[] slice : batches) {
+                    for (Batch batch : slice) {
+                        if (batch.size > 0) {
+                            // simulated time starts at the earliest request of the first segment
+                            firstMillis = Math.min(firstMillis, batch.minMillis);
+                            lastMillis = Math.max(lastMillis, batch.maxMillis);
+                        }
+                    }
+                }
+                if (origin == Long.MIN_VALUE && firstMillis != Long.MAX_VALUE) {
+                    origin = firstMillis;
+                }
+
+                List<Callable<Void>> decide = new ArrayList<>(threads);
+                long segmentOrigin = origin;
+                for (int s = 0; s < threads; s++) {
+                    Shard shard = shards[s];
+                    int index = s;
+                    decide.add(() -> {
+                        AsciiSequence path = new AsciiSequence(segment);
+                        for (Batch[] slice : batches) {
+                            shard.decide(slice[index], segmentOrigin, path);
+                            slice[index].clear();
+                        }
+                        return null;
+                    });
+                }
+                invokeAll(pool, decide);
+                position += end;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long simulatedMillis = origin == Long.MIN_VALUE ? 0 : Math.max(0, lastMillis - origin);
+        for (Shard shard : shards) {
+            shard.finish(simulatedMillis);
+        }
+        return report(shards, Arrays.stream(malformed).sum(), bytes, simulatedMillis, System.nanoTime() - start);
+    }
+
+    private ReplayReport report(Shard[] shards, long malformed, long bytes, long simulatedMillis, long wallNanos) {
+        long requests = 0;
+        long rejected = 0;
+        long keys = 0;
+        long decisionNanos = 0;
+        long[] histogram = new long[101];
+        int samples = 0;
+        for (Shard shard : shards) {
+            requests += shard.requests;
+            rejected += shard.rejected;
+            keys += shard.counters.size();
+            decisionNanos += shard.decisionNanos;
+            samples = Math.max(samples, shard.sampleCount);
+        }
+        Comparator<ReplayReport.KeyStats> byRejections = Comparator.comparingLong(ReplayReport.KeyStats::rejected)
+                .thenComparingLong(ReplayReport.KeyStats::requests);
+        PriorityQueue<ReplayReport.KeyStats> top = new PriorityQueue<>(byRejections);
+        for (Shard shard : shards) {
+            shard.counters.forEach((key, keyRequests, keyRejected) -> {
+                histogram[(int) (keyRejected * 100 / keyRequests)]++;
+                if (keyRejected == 0 || options.topKeys() == 0) {
+                    return;
+                }
+                ReplayReport.KeyStats stats = new ReplayReport.KeyStats(key, keyRequests, keyRejected);
+                if (top.size() < options.topKeys()) {
+                    top.add(stats);
+                } else if (byRejections.compare(stats, top.peek()) > 0) {
+                    top.poll();
+                    top.add(stats);
+                }
+            });
+        }
+        long keysWithRejections = keys - histogram[0];
+        long peakBuckets = 0;
+        long peakAtMillis = 0;
+        for (int i = 0; i < samples; i++) {
+            long buckets = 0;
+            for (Shard shard : shards) {
+                buckets += i < shard.sampleCount ? shard.samples[i] : 0;
+            }
+            if (buckets > peakBuckets) {
+                peakBuckets = buckets;
+                peakAtMillis = Math.min(simulatedMillis, (i + 1) * options.sweepIntervalMillis());
+            }
+        }
+        List<ReplayReport.KeyStats> topKeys = new ArrayList<>(top);
+        topKeys.sort(byRejections.reversed());
+        return new ReplayReport(requests, rejected, malformed, bytes, keys, keysWithRejections, histogram,
+                List.copyOf(topKeys), peakBuckets, peakAtMillis, simulatedMillis, shards.length, wallNanos,
+                decisionNanos);
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks) throws InterruptedException {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Replay task failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the end of the last complete line of a segment, 0 if it has none.
+     */
+    private static int lastLineEnd(MappedByteBuffer segment) {
+        for (int i = segment.limit() - 1; i >= 0; i--) {
+            if (segment.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Splits a segment into slices of about the same size that start at the beginning of a line.
+     */
+    private static int[] slices(MappedByteBuffer segment, int end, int count) {
+        int[] bounds = new int[count + 1];
+        bounds[count] = end;
+        for (int c = 1; c < count; c++) {
+            int bound = Math.max(bounds[c - 1], (int) ((long) end * c / count));
+            while (bound < end && bound > 0 && segment.get(bound - 1) != '\n') {
+                bound++;
+            }
+            bounds[c] = bound;
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses the lines of a slice into the batch of the shard of each key.
+     *
+     * @return the number of malformed lines
+     */
+    private long parse(MappedByteBuffer segment, AsciiSequence text, int from, int to, Batch[] batches) {
+        long malformed = 0;
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && segment.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (!parseLine(segment, text, lineStart, lineEnd, batches)) {
+                malformed++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return malformed;
+    }
+
+    private boolean parseLine(MappedByteBuffer segment, AsciiSequence text, int from, int to, Batch[] batches) {
+        int i = skipBlanks(segment, from, to);
+        if (i == to || segment.get(i) == '#') {
+            return true;
+        }
+        int keyStart = i;
+        while (i < to && !isBlank(segment.get(i))) {
+            i++;
+        }
+        int keyEnd = i;
+        i = skipBlanks(segment, i, to);
+
+        long seconds = 0;
+        int digits = 0;
+        while (i < to && isDigit(segment.get(i)) && digits < 18) {
+            seconds = seconds * 10 + (segment.get(i++) - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            return false;
+        }
+        long millis = seconds;
+        if (i < to && segment.get(i) == '.') {
+            i++;
+            long fraction = 0;
+            int scale = 1000;
+            while (i < to && isDigit(segment.get(i))) {
+                if (scale > 1) {
+                    scale /= 10;
+                    fraction += (segment.get(i) - '0') * scale;
+                }
+                i++;
+            }
+            millis = seconds * 1000 + fraction;
+        }
+        if (i == to || !isBlank(segment.get(i))) {
+            return false;
+        }
+        i = skipBlanks(segment, i, to);
+        int pathStart = i;
+        while (i < to && !isBlank(segment.get(i)) && segment.get(i) != '?') {
+            i++;
+        }
+        if (i == pathStart) {
+            return false;
+        }
+        long key = keyStrategy.getClientKeyHash(text, keyStart, keyEnd);
+        batches[shardOf(key, batches.length)].add(key, millis, pathStart, i);
+        return true;
+    }
+
+    private static int skipBlanks(MappedByteBuffer segment, int from, int to) {
+        int i = from;
+        while (i < to && isBlank(segment.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int shardOf(long key, int shards) {
+        return (int) (((key * 0x9E3779B97F4A7C15L) >>> 33) % shards);
+    }
+
+    /**
+     * The requests of one slice of a segment that belong to one shard, in log order.
+     */
+    private static final class Batch {
+
+        private long[] keys = new long[256];
+        private long[] millis = new long[256];
+        private long[] paths = new long[256];
+        private int size;
+        private long minMillis;
+        private long maxMillis;
+
+        void add(long key, long timestamp, int pathStart, int pathEnd) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                millis = Arrays.copyOf(millis, size * 2);
+                paths = Arrays.copyOf(paths, size * 2);
+            }
+            minMillis = size == 0 ? timestamp : Math.min(minMillis, timestamp);
+            maxMillis = size == 0 ? timestamp : Math.max(maxMillis, timestamp);
+            keys[size] = key;
+            millis[size] = timestamp;
+            paths[size] = (long) pathStart << 32 | pathEnd;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * The buckets and counts of the keys of one shard, on the shard's own simulated clock. Only the thread deciding
+     * the shard's requests touches it.
+     */
+    private static final class Shard {
+
+        private final ManualTimeSource clock = new ManualTimeSource();
+        private final RateLimitPolicy policy;
+        private final List<BucketStore> stores;
+        private final BucketEvictor evictor;
+        private final String method;
+        private final long sweepIntervalMillis;
+        private final KeyCounters counters = new KeyCounters();
+        private long nowMillis;
+        private long nextSweepMillis;
+        private long[] samples = new long[64];
+        private int sampleCount;
+        private long requests;
+        private long rejected;
+        private long decisionNanos;
+
+        Shard(PolicyFactory policyFactory, Options options) {
+            this.policy = policyFactory.create(clock);
+            this.stores = policy.getStores();
+            List<ConcurrentMapBucketStore> maps = stores.stream()
+                    .filter(ConcurrentMapBucketStore.class::isInstance)
+                    .map(ConcurrentMapBucketStore.class::cast)
+                    .distinct()
+                    .toList();
+            // the bound applies to all shards together, and keys spread evenly over them
+            int maxEntries = Math.max(1, options.maxEntries() / options.threads());
+            this.evictor = maps.isEmpty() ? null
+                    : new BucketEvictor(maps, options.idleTtlMillis(), maxEntries, Long.MAX_VALUE,
+                    options.sweepIntervalMillis());
+            this.method = options.method();
+            this.sweepIntervalMillis = options.sweepIntervalMillis();
+            this.nextSweepMillis = sweepIntervalMillis;
+        }
+
+        void decide(Batch batch, long origin, AsciiSequence path) {
+            long start = System.nanoTime();
+            long sweepNanos = 0;
+            for (int i = 0; i < batch.size; i++) {
+                long at = batch.millis[i] - origin;
+                if (at > nowMillis) {
+                    sweepNanos += advanceTo(at);
+                }
+                long key = batch.keys[i];
+                long packedPath = batch.paths[i];
+                path.set((int) (packedPath >>> 32), (int) packedPath);
+                RouteLimit limit = policy.resolve(path, method, null);
+                boolean allowed = AcquireResult.isAllowed(limit.store().tryAcquire(key, limit.cost()));
+                counters.record(key, !allowed);
+                if (!allowed) {
+                    rejected++;
+                }
+            }
+            requests += batch.size;
+            decisionNanos += System.nanoTime() - start - sweepNanos;
+        }
+
+        /**
+         * Moves the clock to the end of the log and takes the last sample, so that every shard ends on the same
+         * simulated time.
+         */
+        void finish(long endMillis) {
+            if (endMillis > nowMillis) {
+                advanceTo(endMillis);
+            }
+            sample();
+        }
+
+        /**
+         * Moves the clock forward, stopping at every sweep on the way to sample the bucket count and evict.
+         *
+         * @return the real time spent sweeping
+         */
+        private long advanceTo(long at) {
+            long start = System.nanoTime();
+            while (nextSweepMillis <= at) {
+                clock.advance(Duration.ofMillis(nextSweepMillis - nowMillis));
+                nowMillis = nextSweepMillis;
+                sample();
+                if (evictor != null) {
+                    evictor.sweepSlice();
+                }
+                nextSweepMillis += sweepIntervalMillis;
+            }
+            clock.advance(Duration.ofMillis(at - nowMillis));
+            nowMillis = at;
+            return System.nanoTime() - start;
+        }
+
+        private void sample() {
+            long buckets = 0;
+            for (BucketStore store : stores) {
+                buckets += store.getBucketCount();
+            }
+            if (sampleCount == samples.length) {
+                samples = Arrays.copyOf(samples, sampleCount * 2);
+            }
+            samples[sampleCount++] = buckets;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.IpAddressParser;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.replay.ReplayReport;
+import ua.com.pragmasoft.ratelimiter.replay.TrafficReplay;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficReplayTest {
+
+    private static final long START = 1_718_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testBurstBeyondTheBucketIsRejected() throws Exception {
+        StringBuilder log = new StringBuilder("# client timestamp path\n\n");
+        for (int i = 0; i < 100; i++) {
+            log.append("10.0.0.1 ").append(START).append(" /api/orders?page=").append(i).append('\n');
+        }
+        for (int i = 0; i < 100; i++) {
+            // one request per 10 ms stays within a refill of 100 per second
+            log.append("10.0.0.2\t").append(START + i * 10L).append("\t/api/orders 200 512\n");
+        }
+        log.append("10.0.0.3 not-a-time /\n");
+
+        ReplayReport report = replay(write(log), 10, 100, options(2, 1 << 20));
+
+        assertEquals(200, report.requests());
+        assertEquals(90, report.rejected());
+        assertEquals(1, report.malformed());
+        assertEquals(2, report.keys());
+        assertEquals(1, report.keysWithRejections());
+        assertEquals(990, report.simulatedMillis());
+        assertEquals(List.of(new ReplayReport.KeyStats(IpAddressParser.parse("10.0.0.1", 0, 8, 32, 128), 100, 90)),
+                report.topKeys());
+        assertEquals(90, report.keyRejectionRatePercentile(1));
+        assertEquals(0, report.keyRejectionRatePercentile(0.5));
+    }
+
+    @Test
+    void testNginxSecondsAndPrefixAggregation() throws Exception {
+        String log = """
+                192.168.1.10 1718000000.000 /a
+                192.168.1.20 1718000000.0004 /a
+                192.168.1.30 1718000000.5 /a
+                """;
+
+        ReplayReport perAddress = replay(write(log), 1, 1, options(1, 1 << 20));
+        ReplayReport perSubnet = new TrafficReplay(new IPClientKeyStrategy(24, 64),
+                clock -> RateLimitPolicy.of(new ConcurrentMapBucketStore(1, 1, LimiterAlgorithm.TOKEN_BUCKET, clock)),
+                options(1, 1 << 20)).replay(write(log));
+
+        assertEquals(0, perAddress.rejected());
+        assertEquals(3, perAddress.keys());
+        assertEquals(500, perAddress.simulatedMillis());
+        assertEquals(2, perSubnet.rejected());
+        assertEquals(1, perSubnet.keys());
+    }
+
+    @Test
+    void testRoutesResolveTheirOwnLimits() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            log.append("10.0.0.1 ").append(START).append(" /search\n");
+            log.append("10.0.0.1 ").append(START).append(" /home\n");
+        }
+        List<RateLimitRule> rules = List.of(new RateLimitRule("search", "/search", null, null, 2, 1, 1,
+                LimiterAlgorithm.TOKEN_BUCKET));
+
+        ReplayReport report = new TrafficReplay(new IPClientKeyStrategy(),
+                clock -> new RateLimitPolicy(rules,
+                        (namespace, size, refillRate, algorithm) ->
+                                new ConcurrentMapBucketStore(size, refillRate, algorithm, clock),
+                        new ConcurrentMapBucketStore(50, 1, LimiterAlgorithm.TOKEN_BUCKET, clock), null),
+                options(1, 1 << 20)).replay(write(log));
+
+        assertEquals(8, report.rejected());
+    }
+
+    @Test
+    void testIdleBucketsAreEvicted() throws Exception {
+        StringBuilder log = new StringBuilder();
+        // a new client every second, each gone after one request
+        for (int i = 0; i < 600; i++) {
+            log.append("10.0.").append(i / 256).append('.').append(i % 256).append(' ')
+                    .append(START + i * 1000L).append(" /\n");
+        }
+        TrafficReplay.Options options = new TrafficReplay.Options(4, 60_000, 1_000_000, 6_000, 1 << 20, "GET", 5);
+
+        ReplayReport report = replay(write(log), 50, 2000, options);
+
+        assertEquals(600, report.keys());
+        assertTrue(report.peakBuckets() >= 60 && report.peakBuckets() <= 67, () -> "peak " + report.peakBuckets());
+        assertTrue(report.topKeys().isEmpty());
+    }
+
+    @Test
+    void testShardsAndSegmentsDoNotChangeTheDecisions() throws Exception {
+        SplittableRandom random = new SplittableRandom(11);
+        Path log = directory.resolve("zipf.log");
+        try (BufferedWriter writer = Files.newBufferedWriter(log)) {
+            for (int i = 0; i < 50_000; i++) {
+                int client = Math.min(random.nextInt(1000), random.nextInt(1000));
+                writer.write("172.16." + client / 256 + "." + client % 256 + " " + (START + i / 10) + " /api\n");
+            }
+        }
+
+        ReplayReport single = replay(log, 5, 20, options(1, 64 << 20));
+        ReplayReport sharded = replay(log, 5, 20, options(8, 4096));
+
+        assertEquals(50_000, sharded.requests());
+        assertTrue(single.rejected() > 0);
+        assertEquals(single.rejected(), sharded.rejected());
+        assertEquals(single.keys(), sharded.keys());
+        assertEquals(single.keysWithRejections(), sharded.keysWithRejections());
+        assertEquals(single.topKeys(), sharded.topKeys());
+        assertEquals(single.peakBuckets(), sharded.peakBuckets());
+    }
+
+    @Test
+    void testLineLongerThanASegmentFails() throws Exception {
+        Path log = write("10.0.0.1 " + START + " /" + "a".repeat(200) + "\n10.0.0.1 " + START + " /\n");
+
+        assertThrows(IOException.class, () -> replay(log, 1, 1, options(1, 100)));
+    }
+
+    private static ReplayReport replay(Path log, long size, long refillRate, TrafficReplay.Options options)
+            throws IOException, InterruptedException {
+        return new TrafficReplay(new IPClientKeyStrategy(), clock -> RateLimitPolicy.of(
+                new ConcurrentMapBucketStore(size, refillRate, LimiterAlgorithm.TOKEN_BUCKET, clock)), options)
+                .replay(log);
+    }
+
+    private static TrafficReplay.Options options(int threads, int segmentBytes) {
+        return new TrafficReplay.Options(threads, 60_000, 1_000_000, 6_000, segmentBytes, "GET", 5);
+    }
+
+    private Path write(CharSequence content) throws IOException {
+        return Files.writeString(Files.createTempFile(directory, "access", ".log"), content);
+    }
+}
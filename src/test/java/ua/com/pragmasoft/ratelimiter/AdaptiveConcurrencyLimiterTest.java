@@ -0,0 +1,210 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ua.com.pragmasoft.ratelimiter.concurrency.AdaptiveConcurrencyLimiter;
+import ua.com.pragmasoft.ratelimiter.concurrency.ConcurrencyAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the {@link AdaptiveConcurrencyLimiter} with a simulated slow backend on a manual clock, so overload runs of
+ * many seconds take milliseconds and always produce the same numbers.
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @ParameterizedTest
+    @EnumSource(ConcurrencyAlgorithm.class)
+    void testKeepsLatencyBoundedUnderOverload(ConcurrencyAlgorithm algorithm) {
+        ManualTimeSource clock = new ManualTimeSource();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(algorithm, 20, 1, 1000, 100 * MS,
+                50 * MS, clock);
+        // 10 workers of 10 ms each serve 1000 requests/s; 2000 requests/s are offered for 30 s
+        Simulation simulation = new Simulation(limiter, clock, 10, 10 * MS);
+
+        simulation.run(500_000, 30_000 * MS);
+
+        long p99 = simulation.percentile(0.99);
+        assertTrue(p99 <= 100 * MS, "p99 " + p99 / MS + " ms under overload with " + algorithm);
+        assertTrue(simulation.admittedPerSecond() >= 850,
+                "Only " + simulation.admittedPerSecond() + " requests/s admitted by " + algorithm);
+        assertTrue(limiter.getShedCount() > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ConcurrencyAlgorithm.class)
+    void testFollowsABackendThatBecomesSlowerForGood(ConcurrencyAlgorithm algorithm) {
+        ManualTimeSource clock = new ManualTimeSource();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(algorithm, 20, 1, 1000, 100 * MS,
+                50 * MS, clock);
+        Simulation simulation = new Simulation(limiter, clock, 10, 10 * MS);
+        // from 10 s on every request takes 20 ms, halving the capacity to 500 requests/s
+        simulation.slowDownAt(10_000 * MS, 20 * MS);
+
+        simulation.run(500_000, 60_000 * MS);
+
+        long p99 = simulation.percentile(0.99);
+        assertTrue(p99 <= 100 * MS, "p99 " + p99 / MS + " ms after the slowdown with " + algorithm);
+        assertTrue(simulation.admittedPerSecond() >= 425,
+                "Only " + simulation.admittedPerSecond() + " requests/s admitted by " + algorithm);
+    }
+
+    @Test
+    void testUnlimitedBackendQueuesWithoutBound() {
+        ManualTimeSource clock = new ManualTimeSource();
+        AdaptiveConcurrencyLimiter unlimited = new AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm.GRADIENT,
+                1_000_000, 1_000_000, 1_000_000, 100 * MS, 50 * MS, clock);
+        Simulation simulation = new Simulation(unlimited, clock, 10, 10 * MS);
+
+        simulation.run(500_000, 30_000 * MS);
+
+        assertTrue(simulation.percentile(0.99) > 10_000 * MS, "Without shedding the queue grows for the whole run");
+    }
+
+    @Test
+    void testLimitRecoversWhenTheBackendIsFastAgain() {
+        ManualTimeSource clock = new ManualTimeSource();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm.AIMD, 20, 1, 1000,
+                100 * MS, 50 * MS, clock);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            clock.advance(Duration.ofMillis(2));
+            limiter.release(200 * MS, false);
+        }
+        int shrunk = limiter.getLimit();
+        assertTrue(shrunk < 20, "Slow responses must shrink the limit, got " + shrunk);
+
+        for (int i = 0; i < 4000; i++) {
+            int admitted = 0;
+            while (admitted < limiter.getLimit() && limiter.tryAcquire()) {
+                admitted++;
+            }
+            clock.advance(Duration.ofMillis(1));
+            for (int j = 0; j < admitted; j++) {
+                limiter.release(MS, false);
+            }
+        }
+
+        assertTrue(limiter.getLimit() > shrunk, "The limit must grow back");
+    }
+
+    @Test
+    void testShedsBeyondTheLimitAndRejectsBadBounds() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm.GRADIENT, 2, 1, 10,
+                100 * MS, 50 * MS);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(MS, false);
+        assertTrue(limiter.tryAcquire());
+
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getShedCount());
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm.AIMD, 5, 0, 10, MS, MS));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm.AIMD, 20, 1, 10, MS, MS));
+    }
+
+    /**
+     * A backend of a fixed number of workers with a fixed service time, serving admitted requests first come first
+     * served; requests beyond the free workers wait in its queue. Arrivals are evenly spaced.
+     */
+    private static final class Simulation {
+
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final ManualTimeSource clock;
+        private final long serviceNanos;
+        private long slowFrom = Long.MAX_VALUE;
+        private long slowServiceNanos;
+        private final PriorityQueue<Long> freeWorkers = new PriorityQueue<>();
+        private final PriorityQueue<long[]> completions = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        private long[] latencies = new long[1024];
+        private int latencyCount;
+        private long now;
+        private long measuredFrom;
+        private long measuredUntil;
+        private long admitted;
+
+        Simulation(AdaptiveConcurrencyLimiter limiter, ManualTimeSource clock, int workers, long serviceNanos) {
+            this.limiter = limiter;
+            this.clock = clock;
+            this.serviceNanos = serviceNanos;
+            for (int i = 0; i < workers; i++) {
+                freeWorkers.add(0L);
+            }
+        }
+
+        void slowDownAt(long time, long serviceNanos) {
+            this.slowFrom = time;
+            this.slowServiceNanos = serviceNanos;
+        }
+
+        /**
+         * Offers requests at the given rate until the given time. Latencies are recorded after the first third of
+         * the run, once the limit has settled.
+         */
+        void run(long intervalNanos, long durationNanos) {
+            measuredFrom = durationNanos / 3;
+            measuredUntil = durationNanos;
+            for (long arrival = 0; arrival < durationNanos; arrival += intervalNanos) {
+                completeUntil(arrival);
+                advanceTo(arrival);
+                if (limiter.tryAcquire()) {
+                    long start = Math.max(arrival, freeWorkers.poll());
+                    long completion = start + (arrival >= slowFrom ? slowServiceNanos : serviceNanos);
+                    freeWorkers.add(completion);
+                    completions.add(new long[]{completion, arrival});
+                }
+            }
+            completeUntil(Long.MAX_VALUE);
+        }
+
+        private void completeUntil(long time) {
+            while (!completions.isEmpty() && completions.peek()[0] <= time) {
+                long[] request = completions.poll();
+                advanceTo(request[0]);
+                long latency = request[0] - request[1];
+                limiter.release(latency, false);
+                if (request[1] >= measuredFrom && request[1] < measuredUntil) {
+                    record(latency);
+                }
+            }
+        }
+
+        private void advanceTo(long time) {
+            if (time > now) {
+                clock.advance(Duration.ofNanos(time - now));
+                now = time;
+            }
+        }
+
+        private void record(long latency) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            }
+            latencies[latencyCount++] = latency;
+            admitted++;
+        }
+
+        long percentile(double quantile) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+        }
+
+        long admittedPerSecond() {
+            return admitted * TimeUnit.SECONDS.toNanos(1) / (measuredUntil - measuredFrom);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketEvictor;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketEvictorTest {
+
+    private static final long SLICE_BUDGET = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testSweepEvictsRefilledIdleBuckets() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(1, 0);
+        TokenBucket drained = store.getBucket("drained");
+        drained.tryAcquire(1);
+        TokenBucket full = store.getBucket("full");
+        BucketEvictor evictor = new BucketEvictor(store, -1, Integer.MAX_VALUE, SLICE_BUDGET, 100);
+
+        evictor.sweepSlice();
+
+        assertSame(drained, store.getBucket("drained"), "Drained bucket must be kept");
+        assertNotSame(full, store.getBucket("full"), "Refilled idle bucket must be evicted");
+        assertEquals(1, evictor.getEvictedCount());
+        assertEquals(1, evictor.getSweepCount());
+    }
+
+    @Test
+    void testEvictionKeepsEveryRemainingPrimitiveKeyReachable() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(1, 0);
+        for (long key = -5000; key < 5000; key++) {
+            store.tryAcquire(key, key % 2 == 0 ? 1 : 0);
+        }
+        BucketEvictor evictor = new BucketEvictor(store, -1, Integer.MAX_VALUE, SLICE_BUDGET, 100);
+
+        assertEquals(5000, evictor.sweepSlice());
+
+        assertEquals(5000, store.getBucketCount());
+        for (long key = -5000; key < 5000; key += 2) {
+            assertFalse(AcquireResult.isAllowed(store.tryAcquire(key, 1)), "Drained bucket must be kept");
+        }
+        assertEquals(5000, store.getBucketCount());
+    }
+
+    @Test
+    void testSweepKeepsRecentBuckets() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5, 10);
+        TokenBucket bucket = store.getBucket("recent");
+        BucketEvictor evictor = new BucketEvictor(store, TimeUnit.HOURS.toMillis(1), Integer.MAX_VALUE, SLICE_BUDGET, 100);
+
+        evictor.sweepSlice();
+
+        assertSame(bucket, store.getBucket("recent"));
+    }
+
+    @Test
+    void testSweepEnforcesMaxEntries() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5, 10);
+        for (int i = 0; i < 100; i++) {
+            store.getBucket("client-" + i);
+        }
+        BucketEvictor evictor = new BucketEvictor(store, TimeUnit.HOURS.toMillis(1), 10, SLICE_BUDGET, 100);
+
+        evictor.sweepSlice();
+
+        assertTrue(store.getBucketCount() <= 10, "Bucket count must not exceed the cap after a sweep");
+    }
+
+    @Test
+    void testSweepCoversEveryStoreOfEveryAlgorithm() {
+        ConcurrentMapBucketStore tokenBuckets = new ConcurrentMapBucketStore(1, 0);
+        ConcurrentMapBucketStore gcra = new ConcurrentMapBucketStore(1, 1000, LimiterAlgorithm.GCRA);
+        ConcurrentMapBucketStore slidingLog = new ConcurrentMapBucketStore(1, 1000, LimiterAlgorithm.SLIDING_LOG);
+        tokenBuckets.getBucket("idle");
+        gcra.getBucket("idle");
+        slidingLog.getBucket("idle");
+        BucketEvictor evictor = new BucketEvictor(List.of(tokenBuckets, gcra, slidingLog), -1, Integer.MAX_VALUE,
+                SLICE_BUDGET, 100);
+
+        evictor.sweepSlice();
+
+        assertEquals(3, evictor.getEvictedCount());
+        assertEquals(1, evictor.getSweepCount());
+        assertEquals(0, tokenBuckets.getBucketCount() + gcra.getBucketCount() + slidingLog.getBucketCount());
+    }
+}
@@ -0,0 +1,126 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketSnapshotter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketSnapshotterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRestoresDrainedBucketsAfterRestart() {
+        CompactBucketStore before = new CompactBucketStore(5, 0, 1024);
+        before.tryAcquire("10.0.0.1", 5);
+        before.tryAcquire("10.0.0.2", 2);
+        before.tryAcquire("10.0.0.3", 0);
+
+        assertEquals(2, new BucketSnapshotter(Map.of("default", before), directory, 1000).write());
+
+        CompactBucketStore after = new CompactBucketStore(5, 0, 1024);
+        assertEquals(2, new BucketSnapshotter(Map.of("default", after), directory, 1000).restore());
+        assertFalse(AcquireResult.isAllowed(after.tryAcquire("10.0.0.1", 1)), "Drained client must stay drained");
+        assertEquals(2, AcquireResult.remainingTokens(after.tryAcquire("10.0.0.2", 1)));
+        assertEquals(4, AcquireResult.remainingTokens(after.tryAcquire("10.0.0.3", 1)));
+    }
+
+    @Test
+    void testDropsBucketsThatRefilledSinceTheSnapshot() {
+        ManualTimeSource clock = new ManualTimeSource();
+        CompactBucketStore before = new CompactBucketStore(2, 100, 1024, clock);
+        before.tryAcquire("10.0.0.1", 2);
+        // a snapshot written 50 ms after the drain, as seen by the restarted instance
+        clock.advance(Duration.ofMillis(50));
+        new BucketSnapshotter(Map.of("default", before), directory, 1000).write();
+
+        CompactBucketStore after = new CompactBucketStore(2, 100, 1024);
+        assertEquals(0, new BucketSnapshotter(Map.of("default", after), directory, 1000).restore());
+        assertEquals(0, after.getBucketCount());
+    }
+
+    @Test
+    void testStoresAreRestoredByNamespace() {
+        CompactBucketStore search = new CompactBucketStore(1, 0, 1024);
+        CompactBucketStore login = new CompactBucketStore(1, 0, 1024);
+        search.tryAcquire("10.0.0.1", 1);
+        new BucketSnapshotter(Map.of("search", search, "login", login), directory, 1000).write();
+
+        CompactBucketStore restoredSearch = new CompactBucketStore(1, 0, 1024);
+        CompactBucketStore restoredLogin = new CompactBucketStore(1, 0, 1024);
+        new BucketSnapshotter(Map.of("search", restoredSearch, "login", restoredLogin), directory, 1000).restore();
+
+        assertFalse(AcquireResult.isAllowed(restoredSearch.tryAcquire("10.0.0.1", 1)));
+        assertTrue(AcquireResult.isAllowed(restoredLogin.tryAcquire("10.0.0.1", 1)));
+    }
+
+    @Test
+    void testLevelStoresOfThePolicyAreSnapshotted() {
+        RateLimitPolicy before = policy();
+        before.getLevels().get(0).store().tryAcquire(42L, 1);
+
+        assertEquals(1, new BucketSnapshotter(compactStores(before), directory, 1000).write());
+        assertTrue(Files.exists(directory.resolve("subnet.snapshot")));
+
+        RateLimitPolicy after = policy();
+        assertEquals(1, new BucketSnapshotter(compactStores(after), directory, 1000).restore());
+        assertFalse(AcquireResult.isAllowed(after.getLevels().get(0).store().tryAcquire(42L, 1)),
+                "A drained level bucket must stay drained");
+    }
+
+    private static RateLimitPolicy policy() {
+        List<RateLimitRule> rules = List.of(new RateLimitRule("search", "/search", null, null, 5, 0, 1,
+                LimiterAlgorithm.TOKEN_BUCKET));
+        LimitLevel subnet = new LimitLevel("subnet", new IPClientKeyStrategy(24, 64), new CompactBucketStore(1, 0, 64));
+        return new RateLimitPolicy(rules, List.of(subnet),
+                (namespace, size, refillRate, algorithm) -> new CompactBucketStore(size, refillRate, 64),
+                new CompactBucketStore(5, 0, 64), null);
+    }
+
+    private static Map<String, CompactBucketStore> compactStores(RateLimitPolicy policy) {
+        Map<String, CompactBucketStore> stores = new LinkedHashMap<>();
+        policy.getStoresByName().forEach((name, store) -> stores.put(name, (CompactBucketStore) store));
+        assertEquals(List.of("default", "search", "subnet"), List.copyOf(stores.keySet()));
+        return stores;
+    }
+
+    @Test
+    void testIgnoresForeignOrTruncatedFiles() throws Exception {
+        Files.write(directory.resolve("default.snapshot"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        CompactBucketStore store = new CompactBucketStore(5, 0, 1024);
+
+        assertEquals(0, new BucketSnapshotter(Map.of("default", store), directory, 1000).restore());
+        assertEquals(0, new BucketSnapshotter(Map.of("missing", store), directory, 1000).restore());
+    }
+
+    @Test
+    void testStopWritesFinalSnapshot() {
+        CompactBucketStore store = new CompactBucketStore(5, 0, 1024);
+        BucketSnapshotter snapshotter = new BucketSnapshotter(Map.of("default", store), directory, 60_000);
+        snapshotter.start();
+        store.tryAcquire("10.0.0.1", 3);
+
+        snapshotter.stop();
+
+        assertTrue(Files.exists(directory.resolve("default.snapshot")));
+        assertEquals(1, snapshotter.getWriteCount());
+        assertEquals(0, snapshotter.getFailedWriteCount());
+    }
+}
@@ -3,9 +3,14 @@ package ua.com.pragmasoft.ratelimiter;
 import jakarta.servlet.http.HttpServletRequest;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyHash;
 import ua.com.pragmasoft.ratelimiter.client_key.IPClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.IpAddressParser;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class ClientIPExtractorTest {
 
@@ -41,4 +46,88 @@ public class ClientIPExtractorTest {
         Mockito.when(request.getRemoteAddr()).thenReturn("192.168.0.4");
         assertEquals("192.168.0.4", ipClientKeyStrategy.getClientKey(request));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetClientKeyHash_XForwardedForIgnoresProxiesAndWhitespace() {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getHeader("X-Forwarded-For")).thenReturn(" 192.168.0.1 , 192.168.0.2");
+        assertEquals(parse("192.168.0.1"), ipClientKeyStrategy.getClientKeyHash(request));
+    }
+
+    @Test
+    public void testGetClientKeyHash_RemoteAddr() {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getRemoteAddr()).thenReturn("192.168.0.4");
+        assertEquals(parse("192.168.0.4"), ipClientKeyStrategy.getClientKeyHash(request));
+        assertNotEquals(parse("192.168.0.5"), ipClientKeyStrategy.getClientKeyHash(request));
+    }
+
+    @Test
+    public void testGetClientKeyHash_NotAnAddressIsHashed() {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getHeader("X-Real-IP")).thenReturn("unknown");
+        assertEquals(ClientKeyHash.of("unknown"), ipClientKeyStrategy.getClientKeyHash(request));
+    }
+
+    @Test
+    public void testGetClientKeyHash_PrefixAggregation() {
+        IPClientKeyStrategy subnetStrategy = new IPClientKeyStrategy(24, 64);
+        HttpServletRequest first = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(first.getHeader("X-Forwarded-For")).thenReturn("10.1.2.3");
+        HttpServletRequest second = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(second.getHeader("X-Forwarded-For")).thenReturn("10.1.2.200");
+        HttpServletRequest other = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(other.getHeader("X-Forwarded-For")).thenReturn("10.1.3.3");
+        assertEquals(subnetStrategy.getClientKeyHash(first), subnetStrategy.getClientKeyHash(second));
+        assertNotEquals(subnetStrategy.getClientKeyHash(first), subnetStrategy.getClientKeyHash(other));
+    }
+
+    @Test
+    public void testGetClientKeyHash_RawValueMatchesRequest() {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getHeader("X-Real-IP")).thenReturn("192.168.0.7");
+        String line = "x  192.168.0.7 \tunknown";
+        assertEquals(ipClientKeyStrategy.getClientKeyHash(request), ipClientKeyStrategy.getClientKeyHash(line, 1, 15));
+        assertEquals(ClientKeyHash.of("unknown"), ipClientKeyStrategy.getClientKeyHash(line, 16, line.length()));
+    }
+
+    @Test
+    public void testParseIpv6() {
+        assertEquals(parse("2001:0db8:0000:0000:0000:0000:0000:0001"), parse("2001:db8::1"));
+        assertEquals(parse("::1"), parse("0:0:0:0:0:0:0:1"));
+        assertNotEquals(parse("2001:db8::1"), parse("2001:db8::2"));
+        assertEquals(parse("192.168.0.1"), parse("::ffff:192.168.0.1"));
+        assertEquals(parse("fe80::1"), parse("fe80::1%eth0"));
+        assertEquals(IpAddressParser.parse("2001:db8:1:2::1", 0, 15, 32, 64),
+                IpAddressParser.parse("2001:db8:1:2:ffff::9", 0, 20, 32, 64));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertEquals(IpAddressParser.NOT_AN_ADDRESS, parse("256.1.1.1"));
+        assertEquals(IpAddressParser.NOT_AN_ADDRESS, parse("1.2.3"));
+        assertEquals(IpAddressParser.NOT_AN_ADDRESS, parse("1::2::3"));
+        assertEquals(IpAddressParser.NOT_AN_ADDRESS, parse("1:2:3:4:5:6:7:8:9"));
+        assertEquals(IpAddressParser.NOT_AN_ADDRESS, parse("localhost"));
+    }
+
+    private static long parse(String address) {
+        return IpAddressParser.parse(address, 0, address.length(), 32, 128);
+    }
+
+    @Test
+    public void testReactiveClientKey_XForwardedFor() {
+        MockServerHttpRequest request = MockServerHttpRequest.get("/")
+                .header("X-Forwarded-For", " 192.168.0.1 , 192.168.0.2").build();
+        assertEquals("192.168.0.1", ipClientKeyStrategy.getClientKey(request));
+        assertEquals(parse("192.168.0.1"), ipClientKeyStrategy.getClientKeyHash(request));
+    }
+
+    @Test
+    public void testReactiveClientKey_RemoteAddress() {
+        MockServerHttpRequest request = MockServerHttpRequest.get("/")
+                .remoteAddress(new InetSocketAddress("192.168.0.4", 8080)).build();
+        assertEquals("192.168.0.4", ipClientKeyStrategy.getClientKey(request));
+        assertEquals(parse("192.168.0.4"), ipClientKeyStrategy.getClientKeyHash(request));
+    }
+}
@@ -0,0 +1,101 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactBucketStoreTest {
+
+    @Test
+    void testBucketsAreIsolatedPerKey() {
+        CompactBucketStore store = new CompactBucketStore(2, 0, 1024);
+
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("10.0.0.1", 2)));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire("10.0.0.1", 1)));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("10.0.0.2", 1)));
+        assertEquals(2, store.getBucketCount());
+    }
+
+    @Test
+    void testRemainingTokens() {
+        CompactBucketStore store = new CompactBucketStore(5, 10, 1024);
+
+        long result = store.getBucket("10.0.0.1").tryAcquire(2);
+
+        assertEquals(3, AcquireResult.remainingTokens(result));
+    }
+
+    @Test
+    void testCapacityIsFixed() {
+        CompactBucketStore store = new CompactBucketStore(1, 0, 16);
+
+        for (int i = 0; i < 1000; i++) {
+            store.tryAcquire("10.0." + i / 256 + "." + i % 256, 1);
+        }
+
+        assertEquals(16, store.getCapacity());
+        assertTrue(store.getBucketCount() <= 16);
+    }
+
+    @Test
+    void testOverflowFallsBackToSharedBucket() {
+        CompactBucketStore store = new CompactBucketStore(1, 0, 16);
+        for (int i = 0; i < 16; i++) {
+            store.tryAcquire("drained-" + i, 1);
+        }
+
+        long first = store.tryAcquire("overflow-1", 1);
+        long second = store.tryAcquire("overflow-2", 1);
+
+        assertTrue(AcquireResult.isAllowed(first));
+        assertFalse(AcquireResult.isAllowed(second), "Overflowing keys must share one bucket");
+    }
+
+    @Test
+    void testReusesRefilledSlots() {
+        CompactBucketStore store = new CompactBucketStore(1, 0, 16);
+        for (int i = 0; i < 16; i++) {
+            store.tryAcquire("idle-" + i, 0);
+        }
+
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("new-client-1", 1)));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("new-client-2", 1)), "Refilled slots must be taken over");
+        assertEquals(16, store.getBucketCount());
+    }
+
+    @Test
+    void testLoweredLimitCapsExistingBuckets() {
+        CompactBucketStore store = new CompactBucketStore(10, 0, 1024);
+        store.tryAcquire("10.0.0.1", 4);
+
+        store.updateLimits(new BucketLimits(3, 0));
+
+        assertEquals(2, AcquireResult.remainingTokens(store.tryAcquire("10.0.0.1", 1)));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire("10.0.0.2", 4)));
+        assertThrows(IllegalArgumentException.class, () -> store.updateLimits(new BucketLimits(Long.MAX_VALUE, 0)));
+    }
+
+    @Test
+    void testBatchMatchesSingleDecisions() {
+        CompactBucketStore store = new CompactBucketStore(3, 0, 1024);
+        long[] keys = new long[130];
+        int[] tokens = new int[130];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 1 + i % 65;
+            tokens[i] = 2;
+        }
+        long[] results = new long[130];
+
+        long[] admitted = store.tryAcquireAll(keys, tokens, results);
+
+        assertEquals(3, admitted.length);
+        assertEquals(65, AcquireResult.allowedCount(admitted), "Only the first request of each key fits");
+        assertTrue(AcquireResult.isAllowed(admitted, 64));
+        assertFalse(AcquireResult.isAllowed(admitted, 129));
+        assertEquals(1, AcquireResult.remainingTokens(results[129]));
+        assertThrows(IllegalArgumentException.class, () -> store.tryAcquireAll(keys, new int[1], null));
+    }
+}
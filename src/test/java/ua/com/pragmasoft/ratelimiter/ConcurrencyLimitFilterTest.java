@@ -0,0 +1,72 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ua.com.pragmasoft.ratelimiter.concurrency.AdaptiveConcurrencyLimiter;
+import ua.com.pragmasoft.ratelimiter.concurrency.ConcurrencyAlgorithm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ConcurrencyLimitFilterTest {
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    @Mock
+    private FilterChain filterChain;
+
+    @Mock
+    private ServletOutputStream outputStream;
+
+    private AdaptiveConcurrencyLimiter limiter;
+    private ConcurrencyLimitFilter filter;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        when(response.getOutputStream()).thenReturn(outputStream);
+        limiter = new AdaptiveConcurrencyLimiter(ConcurrencyAlgorithm.GRADIENT, 1, 1, 10,
+                TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(500));
+        filter = new ConcurrencyLimitFilter(limiter, 503);
+    }
+
+    @Test
+    void testShedsRequestsBeyondTheLimit() throws Exception {
+        doAnswer(invocation -> {
+            filter.doFilterInternal(request, response, mock(FilterChain.class));
+            return null;
+        }).when(filterChain).doFilter(request, response);
+
+        filter.doFilterInternal(request, response, filterChain);
+
+        verify(response).setStatus(503);
+        verify(response).setHeader("Retry-After", "1");
+        assertEquals(1, limiter.getShedCount());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testReleasesWhenTheChainFails() throws Exception {
+        doThrow(new ServletException("downstream failed")).when(filterChain).doFilter(request, response);
+
+        assertThrows(ServletException.class, () -> filter.doFilterInternal(request, response, filterChain));
+
+        assertEquals(0, limiter.getInFlight());
+        filter.doFilterInternal(request, response, mock(FilterChain.class));
+        verify(response, never()).setStatus(503);
+    }
+}
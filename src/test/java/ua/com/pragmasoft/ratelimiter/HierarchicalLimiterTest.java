@@ -0,0 +1,141 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.HierarchicalLimiter;
+import ua.com.pragmasoft.ratelimiter.token_bucket.SharedBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.StripedTokenBucket;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class HierarchicalLimiterTest {
+
+    private static final HierarchicalLimiter.LevelKeys<long[]> KEYS = (keys, level) -> keys[level];
+
+    @Test
+    void testRejectionByLaterLevelRefundsEarlierLevels() {
+        BucketStore client = new CompactBucketStore(5, 0, 1024);
+        BucketStore global = new SharedBucketStore(1, 0, 1);
+        HierarchicalLimiter limiter = new HierarchicalLimiter(List.of(client, global));
+
+        assertTrue(AcquireResult.isAllowed(limiter.tryAcquire(new long[]{1, 0}, KEYS, 1)));
+        assertFalse(AcquireResult.isAllowed(limiter.tryAcquire(new long[]{1, 0}, KEYS, 1)));
+        assertFalse(AcquireResult.isAllowed(limiter.tryAcquire(new long[]{1, 0}, KEYS, 1)));
+
+        assertEquals(4, AcquireResult.remainingTokens(client.tryAcquire(1, 0)),
+                "Rejected requests must not consume client tokens");
+    }
+
+    @Test
+    void testStopsAtFirstRejectingLevel() {
+        BucketStore client = new CompactBucketStore(1, 0, 1024);
+        BucketStore global = mock(BucketStore.class);
+        when(global.tryAcquire(anyLong(), anyInt())).thenReturn(AcquireResult.allowed(10));
+        HierarchicalLimiter limiter = new HierarchicalLimiter(List.of(global));
+
+        assertTrue(AcquireResult.isAllowed(limiter.tryAcquire(client, 7, new long[]{0}, KEYS, 1)));
+        assertFalse(AcquireResult.isAllowed(limiter.tryAcquire(client, 7, new long[]{0}, KEYS, 1)));
+
+        verify(global, times(1)).tryAcquire(anyLong(), anyInt());
+        verify(global, never()).refund(anyLong(), anyInt());
+    }
+
+    @Test
+    void testReportsTightestLevel() {
+        BucketStore client = new ConcurrentMapBucketStore(10, 0);
+        BucketStore subnet = new CompactBucketStore(3, 0, 1024);
+        HierarchicalLimiter limiter = new HierarchicalLimiter(List.of(subnet));
+
+        long result = limiter.tryAcquire(client, 1, new long[]{1}, KEYS, 1);
+
+        assertTrue(AcquireResult.isAllowed(result));
+        assertEquals(2, AcquireResult.remainingTokens(result));
+    }
+
+    @Test
+    void testStripedBucketAdmitsExactlyItsSizeUnderContention() throws InterruptedException {
+        StripedTokenBucket bucket = new StripedTokenBucket(1000, 0, 8);
+        int threads = 8;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 500; i++) {
+                    if (AcquireResult.isAllowed(bucket.tryAcquire(1))) {
+                        admitted.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(8, bucket.getStripeCount());
+        assertEquals(1000, admitted.get());
+    }
+
+    @Test
+    void testStripedBucketRefundIsCappedAtSize() {
+        StripedTokenBucket bucket = new StripedTokenBucket(4, 0, 2);
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(2)));
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(2)));
+
+        bucket.refund(10);
+
+        int admitted = 0;
+        while (AcquireResult.isAllowed(bucket.tryAcquire(1))) {
+            admitted++;
+        }
+        assertEquals(4, admitted);
+    }
+
+    @Test
+    void testStripedBucketBorrowsFromOtherStripes() {
+        StripedTokenBucket bucket = new StripedTokenBucket(8, 0, 4);
+
+        long result = bucket.tryAcquire(6);
+
+        assertTrue(AcquireResult.isAllowed(result), "A request larger than one stripe must be assembled from several");
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(2)));
+        assertFalse(AcquireResult.isAllowed(bucket.tryAcquire(1)));
+    }
+
+    @Test
+    void testStripedBucketRejectionLeavesTokensInPlace() {
+        StripedTokenBucket bucket = new StripedTokenBucket(8, 0, 4);
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(3)));
+
+        long denied = bucket.tryAcquire(6);
+
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertEquals(AcquireResult.MAX_RETRY_AFTER_NANOS, AcquireResult.retryAfterNanos(denied));
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(5)), "Borrowed tokens must be put back on rejection");
+    }
+
+    @Test
+    void testStripedBucketRetryAfterCoversMissingTokens() {
+        StripedTokenBucket bucket = new StripedTokenBucket(4, 4, 4);
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(4)));
+
+        long denied = bucket.tryAcquire(2);
+
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertTrue(AcquireResult.retryAfterNanos(denied) >= TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(AcquireResult.retryAfterNanos(denied) <= TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+}
@@ -0,0 +1,252 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import redis.clients.jedis.JedisPool;
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyHash;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LeasingBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenLeaseSource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Simulates several instances sharing one global budget, each serving requests from its own {@link LeasingBucketStore}.
+ */
+class LeasingBucketStoreTest {
+
+    private static final int INSTANCES = 4;
+    private static final int THREADS_PER_INSTANCE = 4;
+    private static final long MAX_LEASE = 16;
+
+    /**
+     * Fixed global budget without refill.
+     */
+    private static class FixedBudget implements TokenLeaseSource {
+        long tokens;
+
+        FixedBudget(long tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public synchronized long lease(String clientKey, long requested) {
+            long granted = Math.min(tokens, requested);
+            tokens -= granted;
+            return granted;
+        }
+
+        @Override
+        public synchronized void release(String clientKey, long released) {
+            tokens += released;
+        }
+    }
+
+    @Test
+    @Timeout(20)
+    void testClusterNeverExceedsFixedBudget() throws InterruptedException {
+        FixedBudget budget = new FixedBudget(1000);
+        List<LeasingBucketStore> instances = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            instances.add(new LeasingBucketStore(budget, 0, MAX_LEASE, 10));
+        }
+
+        int admitted = hammer(instances, 500, 0);
+        instances.forEach(LeasingBucketStore::close);
+
+        assertTrue(admitted <= 1000, "Cluster admitted " + admitted + " of a budget of 1000");
+        assertTrue(admitted >= 1000 - INSTANCES * MAX_LEASE, "Stranded tokens must be bounded by the lease size");
+        assertEquals(1000 - admitted, budget.tokens, "Unused leases must be returned on close");
+    }
+
+    @Test
+    @Timeout(30)
+    void testClusterStaysWithinRefillingGlobalLimit() throws InterruptedException, IOException {
+        RedisServer server = RedisServer.newRedisServer().start();
+        try (JedisPool pool = new JedisPool(server.getHost(), server.getBindPort())) {
+            long size = 50;
+            long refillRate = 200;
+            RedisBucketStore global = new RedisBucketStore(pool, size, refillRate, "lease:", 60000);
+            List<LeasingBucketStore> instances = new ArrayList<>();
+            for (int i = 0; i < INSTANCES; i++) {
+                instances.add(new LeasingBucketStore(global, refillRate, MAX_LEASE, 20));
+            }
+
+            long start = System.nanoTime();
+            int admitted = hammer(instances, 200, 1);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            instances.forEach(LeasingBucketStore::close);
+
+            long limit = size + refillRate * (elapsedMillis + 1) / 1000;
+            assertTrue(admitted <= limit, "Cluster admitted " + admitted + " with a global limit of " + limit);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void testIdleLeaseIsReturned() {
+        FixedBudget budget = new FixedBudget(100);
+        ManualTimeSource clock = new ManualTimeSource();
+        LeasingBucketStore first = new LeasingBucketStore(budget, 0, MAX_LEASE, 10, clock);
+        LeasingBucketStore second = new LeasingBucketStore(budget, 0, MAX_LEASE, 10, clock);
+
+        assertTrue(AcquireResult.isAllowed(first.tryAcquire("client", 1)));
+        first.releaseIdleLeases();
+        assertEquals(1, first.getBucketCount(), "A lease in use must be kept");
+        clock.advance(Duration.ofMillis(50));
+        first.releaseIdleLeases();
+        int admitted = 0;
+        while (AcquireResult.isAllowed(second.tryAcquire("client", 1))) {
+            admitted++;
+        }
+
+        assertEquals(99, admitted);
+        assertEquals(0, first.getBucketCount());
+        first.close();
+        second.close();
+    }
+
+    @Test
+    @Timeout(10)
+    void testTokensGrantedToAReleasedLeaseAreReturned() throws Exception {
+        CountDownLatch leasing = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        FixedBudget budget = new FixedBudget(100) {
+            @Override
+            public long lease(String clientKey, long requested) {
+                leasing.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.lease(clientKey, 8);
+            }
+        };
+        ManualTimeSource clock = new ManualTimeSource();
+        LeasingBucketStore store = new LeasingBucketStore(budget, 0, MAX_LEASE, 10, clock);
+
+        CompletableFuture<Long> result = store.tryAcquireAsync(42, 1);
+        leasing.await();
+        clock.advance(Duration.ofMillis(50));
+        store.releaseIdleLeases();
+        released.countDown();
+
+        assertTrue(AcquireResult.isAllowed(result.get()));
+        assertEquals(0, store.getBucketCount());
+        assertEquals(99, budget.tokens, "Tokens granted after the lease was released must go back to the budget");
+        store.close();
+    }
+
+    @Test
+    void testFreshLeaseOnANegativeClockIsServed() {
+        FixedBudget budget = new FixedBudget(100);
+        LeasingBucketStore store = new LeasingBucketStore(budget, 0, MAX_LEASE, 10, () -> Long.MIN_VALUE / 2);
+
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+        store.close();
+    }
+
+    @Test
+    void testStringAndPrimitiveKeysShareOneLease() {
+        List<String> sharedKeys = new ArrayList<>();
+        FixedBudget budget = new FixedBudget(100) {
+            @Override
+            public synchronized long lease(String clientKey, long requested) {
+                sharedKeys.add(clientKey);
+                return super.lease(clientKey, requested);
+            }
+        };
+        LeasingBucketStore store = new LeasingBucketStore(budget, 0, MAX_LEASE, 60000);
+        long keyHash = ClientKeyHash.of("client");
+
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire(keyHash, 1)));
+
+        assertEquals(1, store.getBucketCount(), "Both forms of the key must reach the same lease");
+        assertFalse(sharedKeys.isEmpty());
+        assertTrue(sharedKeys.stream().allMatch(Long.toHexString(keyHash)::equals),
+                "The shared budget must be keyed by the hexadecimal primitive key");
+        store.close();
+    }
+
+    @Test
+    void testPolicyClosesRuleStoresOnASharedScheduler() {
+        ScheduledExecutorService scheduler = LeasingBucketStore.newScheduler();
+        ManualTimeSource clock = new ManualTimeSource();
+        Map<String, FixedBudget> budgets = new ConcurrentHashMap<>();
+        FixedBudget defaultBudget = new FixedBudget(100);
+        LeasingBucketStore defaultStore = new LeasingBucketStore(defaultBudget, 0, MAX_LEASE, 10, clock, scheduler);
+        List<RateLimitRule> rules = List.of(
+                new RateLimitRule("search", "/search", null, null, 100, 0, 1, LimiterAlgorithm.TOKEN_BUCKET),
+                new RateLimitRule("orders", "/orders", null, null, 100, 0, 1, LimiterAlgorithm.TOKEN_BUCKET));
+        RateLimitPolicy policy = new RateLimitPolicy(rules, (namespace, size, refillRate, algorithm) ->
+                new LeasingBucketStore(budgets.computeIfAbsent(namespace, name -> new FixedBudget(size)), refillRate,
+                        MAX_LEASE, 10, clock, scheduler), defaultStore, null);
+
+        for (String path : List.of("/search", "/orders", "/home")) {
+            assertTrue(AcquireResult.isAllowed(policy.resolve(path, "GET", null).store().tryAcquire("client", 1)));
+        }
+        policy.close();
+
+        assertEquals(99, budgets.get("search").tokens, "Leases of the rules must be returned");
+        assertEquals(99, budgets.get("orders").tokens);
+        assertEquals(1, defaultStore.getBucketCount(), "The default store belongs to the caller");
+        assertFalse(scheduler.isShutdown(), "A shared scheduler must outlive the stores");
+        defaultStore.close();
+        assertEquals(99, defaultBudget.tokens);
+        assertEquals(0, defaultStore.getBucketCount());
+        scheduler.shutdownNow();
+    }
+
+    private static int hammer(List<LeasingBucketStore> instances, int requestsPerThread, long pauseMillis)
+            throws InterruptedException {
+        AtomicInteger admitted = new AtomicInteger();
+        int threads = instances.size() * THREADS_PER_INSTANCE;
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            LeasingBucketStore instance = instances.get(i % instances.size());
+            executor.submit(() -> {
+                try {
+                    for (int j = 0; j < requestsPerThread; j++) {
+                        if (AcquireResult.isAllowed(instance.tryAcquire("client", 1))) {
+                            admitted.incrementAndGet();
+                        }
+                        if (pauseMillis > 0) {
+                            TimeUnit.MILLISECONDS.sleep(pauseMillis);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        return admitted.get();
+    }
+}
@@ -1,31 +1,53 @@
 package ua.com.pragmasoft.ratelimiter;
 
 import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockHttpServletRequest;
 import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.GlobalClientKeyStrategy;
 import ua.com.pragmasoft.ratelimiter.exception.RateLimitExceededException;
+import ua.com.pragmasoft.ratelimiter.metrics.LimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.SharedBucketStore;
 import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.*;
 
 class LimitRateFilterTest {
 
-    @InjectMocks
     private LimitRateFilter limitRateFilter;
 
     @Mock
     private ClientKeyStrategy clientKeyStrategy;
 
+    @Mock
+    private BucketStore bucketStore;
+
+    @Mock
+    private LimiterMetrics metrics;
+
     @Mock
     private TokenBucket tokenBucket;
 
@@ -39,24 +61,118 @@ class LimitRateFilterTest {
     private FilterChain filterChain;
 
     @Mock
-    private PrintWriter writer;
+    private ServletOutputStream outputStream;
 
     @BeforeEach
     void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
-        when(response.getWriter()).thenReturn(writer);
-        when(clientKeyStrategy.getClientKey(request)).thenReturn("clientKey");
-        limitRateFilter.size = 5;
-        limitRateFilter.refillRate = 10;
+        limitRateFilter = new LimitRateFilter(clientKeyStrategy, bucketStore, metrics);
+        when(response.getOutputStream()).thenReturn(outputStream);
+        when(clientKeyStrategy.getClientKeyHash(request)).thenReturn(42L);
     }
 
     @Test
     void testDoFilterInternal_Success() throws Exception {
-        when(tokenBucket.getToken(1)).thenReturn(true);
+        when(bucketStore.tryAcquire(42L, 1)).thenReturn(AcquireResult.allowed(4));
         limitRateFilter.doFilterInternal(request, response, filterChain);
         verify(filterChain).doFilter(request, response);
         verify(response, never()).setStatus(429);
+        verify(metrics).recordDecision(eq(42L), eq(AcquireResult.allowed(4)), anyLong());
+    }
+
+    @Test
+    void testDoFilterInternal_Rejected() throws Exception {
+        when(bucketStore.tryAcquire(42L, 1)).thenReturn(AcquireResult.denied(0, 1_000_000_000L));
+        limitRateFilter.doFilterInternal(request, response, filterChain);
+        verify(filterChain, never()).doFilter(request, response);
+        verify(response).setStatus(429);
+        verify(response).setHeader("Retry-After", "1");
+        verify(response).setContentLength(RejectionWriter.REJECTION_MESSAGE.length());
+        verify(outputStream).write(aryEq(RejectionWriter.REJECTION_MESSAGE.getBytes(StandardCharsets.UTF_8)), eq(0),
+                eq(RejectionWriter.REJECTION_MESSAGE.length()));
+        verify(response, never()).setHeader(eq("RateLimit-Limit"), anyString());
+    }
+
+    @Test
+    void testDoFilterInternal_RejectedWithRateLimitHeaders() throws Exception {
+        when(bucketStore.supportsLimits()).thenReturn(true);
+        when(bucketStore.getLimits()).thenReturn(new BucketLimits(10, 5));
+        when(bucketStore.tryAcquire(42L, 1)).thenReturn(AcquireResult.denied(0, 1_500_000_000L));
+
+        limitRateFilter.doFilterInternal(request, response, filterChain);
+
+        verify(response).setHeader("Retry-After", "2");
+        verify(response).setHeader("RateLimit-Limit", "10");
+        verify(response).setHeader("RateLimit-Remaining", "0");
+        verify(response).setHeader("RateLimit-Reset", "2");
+    }
+
+    @Test
+    void testRejectionWriterReusesHeaderValues() {
+        assertSame(RejectionWriter.decimal(42), RejectionWriter.decimal(42));
+        assertEquals("4095", RejectionWriter.decimal(RejectionWriter.CACHED_VALUES - 1));
+        assertEquals("1000000", RejectionWriter.decimal(1_000_000));
+    }
+
+    @Test
+    void testDoFilterInternal_MatchedRuleUsesItsNamespaceAndCost() throws Exception {
+        BucketStore searchStore = mock(BucketStore.class);
+        RateLimitRule search = new RateLimitRule("search", "/api/search/**", Set.of("GET"), "free",
+                10, 5, 3, LimiterAlgorithm.TOKEN_BUCKET);
+        RateLimitPolicy policy = new RateLimitPolicy(List.of(search),
+                (namespace, size, refillRate, algorithm) -> searchStore, bucketStore, "X-Api-Tier");
+        limitRateFilter = new LimitRateFilter(clientKeyStrategy, policy, metrics);
+        when(request.getRequestURI()).thenReturn("/app/api/search/books");
+        when(request.getContextPath()).thenReturn("/app");
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getHeader("X-Api-Tier")).thenReturn("free");
+        when(searchStore.tryAcquire(42L, 3)).thenReturn(AcquireResult.allowed(7));
+
+        limitRateFilter.doFilterInternal(request, response, filterChain);
+
+        verify(filterChain).doFilter(request, response);
+        verify(bucketStore, never()).tryAcquire(anyLong(), anyInt());
+    }
+
+    @Test
+    void testDoFilterInternal_RejectingLevelRefundsClientTokens() throws Exception {
+        BucketStore subnetStore = mock(BucketStore.class);
+        ClientKeyStrategy subnetKey = mock(ClientKeyStrategy.class);
+        RateLimitPolicy policy = new RateLimitPolicy(List.of(), List.of(new LimitLevel("subnet", subnetKey, subnetStore)),
+                (namespace, size, refillRate, algorithm) -> bucketStore, bucketStore, null);
+        limitRateFilter = new LimitRateFilter(clientKeyStrategy, policy, metrics);
+        when(subnetKey.getClientKeyHash(request)).thenReturn(7L);
+        when(bucketStore.tryAcquire(42L, 1)).thenReturn(AcquireResult.allowed(4));
+        when(subnetStore.tryAcquire(7L, 1)).thenReturn(AcquireResult.denied(0, 1_000_000_000L));
+
+        limitRateFilter.doFilterInternal(request, response, filterChain);
+
+        verify(filterChain, never()).doFilter(request, response);
+        verify(response).setStatus(429);
+        verify(bucketStore).refund(42L, 1);
     }
+
+    @Test
+    void testDoFilterInternal_RejectingLevelReportsItsOwnLimit() throws Exception {
+        ConcurrentMapBucketStore routeStore = new ConcurrentMapBucketStore(10, 0);
+        RateLimitPolicy policy = new RateLimitPolicy(List.of(),
+                List.of(new LimitLevel("global", new GlobalClientKeyStrategy(), new SharedBucketStore(1, 0, 1))),
+                (namespace, size, refillRate, algorithm) -> routeStore, routeStore, null);
+        limitRateFilter = new LimitRateFilter(clientKeyStrategy, policy, metrics);
+        MockHttpServletRequest first = new MockHttpServletRequest("GET", "/");
+        MockHttpServletRequest second = new MockHttpServletRequest("GET", "/");
+        when(clientKeyStrategy.getClientKeyHash(any(HttpServletRequest.class))).thenReturn(42L);
+
+        limitRateFilter.doFilterInternal(first, response, filterChain);
+        limitRateFilter.doFilterInternal(second, response, filterChain);
+
+        verify(filterChain).doFilter(first, response);
+        verify(response).setStatus(429);
+        verify(response).setHeader("RateLimit-Limit", "1");
+        verify(response).setHeader("RateLimit-Remaining", "0");
+        verify(response, never()).setHeader("RateLimit-Limit", "10");
+    }
+
     @Test
     void testGetTokenThrowsRateLimitExceededException() throws RateLimitExceededException {
         doThrow(new RateLimitExceededException("Rate limit exceeded. Try again later.", 1000L, "Exceeded the allowed rate limit."))
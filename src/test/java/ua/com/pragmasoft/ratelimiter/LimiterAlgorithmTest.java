@@ -0,0 +1,181 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyHash;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the common contract of every {@link LimiterAlgorithm}.
+ */
+class LimiterAlgorithmTest {
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testAdmitsBurstThenDenies(LimiterAlgorithm algorithm) {
+        TokenBucket bucket = algorithm.create(10, 5);
+
+        for (int i = 0; i < 10; i++) {
+            long result = bucket.tryAcquire(1);
+            assertTrue(AcquireResult.isAllowed(result), "Request " + i + " of the burst must be admitted");
+            assertEquals(9 - i, AcquireResult.remainingTokens(result));
+        }
+        long denied = bucket.tryAcquire(1);
+
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertEquals(0, AcquireResult.remainingTokens(denied));
+        assertTrue(AcquireResult.retryAfterNanos(denied) > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testAdmitsAgainAfterRetryAfter(LimiterAlgorithm algorithm) {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket bucket = algorithm.create(2, 100, clock);
+        bucket.tryAcquire(2);
+        long denied = bucket.tryAcquire(1);
+        assertFalse(AcquireResult.isAllowed(denied));
+
+        clock.advance(Duration.ofNanos(AcquireResult.retryAfterNanos(denied)).minusMillis(1));
+        assertFalse(AcquireResult.isAllowed(bucket.tryAcquire(1)), "Admitted before the retry-after elapsed");
+        clock.advance(Duration.ofMillis(1));
+
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(1)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testRequestLargerThanSizeIsNeverAdmitted(LimiterAlgorithm algorithm) {
+        TokenBucket bucket = algorithm.create(5, 10);
+
+        long result = bucket.tryAcquire(6);
+
+        assertFalse(AcquireResult.isAllowed(result));
+        assertEquals(AcquireResult.MAX_RETRY_AFTER_NANOS, AcquireResult.retryAfterNanos(result));
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(5)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testConcurrentCallersNeverExceedTheLimit(LimiterAlgorithm algorithm) throws InterruptedException {
+        int size = 1000;
+        TokenBucket bucket = algorithm.create(size, 0);
+        int threads = 16;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    if (AcquireResult.isAllowed(bucket.tryAcquire(1))) {
+                        admitted.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        executor.shutdown();
+
+        assertEquals(size, admitted.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testRescaleKeepsUsedTokens(LimiterAlgorithm algorithm) {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(10, 1, algorithm);
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 10)));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+
+        store.updateLimits(new BucketLimits(20, 1));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 1)), "Raised limit must grant token " + i);
+        }
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+
+        store.updateLimits(new BucketLimits(5, 1));
+
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("fresh", 5)));
+        assertEquals(new BucketLimits(5, 1), store.getLimits());
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testRefundReturnsTokens(LimiterAlgorithm algorithm) {
+        TokenBucket bucket = algorithm.create(5, 1);
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(5)));
+        assertFalse(AcquireResult.isAllowed(bucket.tryAcquire(2)));
+
+        bucket.refund(2);
+
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(2)), "Refunded tokens must be admitted again");
+        assertFalse(AcquireResult.isAllowed(bucket.tryAcquire(1)));
+    }
+
+    @Test
+    void testSlidingWindowRefundAcrossRolloverStaysWithinSize() {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket bucket = LimiterAlgorithm.SLIDING_WINDOW.create(10, 10, clock);
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(5)));
+        clock.advance(Duration.ofSeconds(1).plusNanos(1000));
+        assertTrue(AcquireResult.isAllowed(bucket.tryAcquire(5)), "The previous window weighs almost fully");
+
+        // rolls back the first acquire, whose window has just ended
+        bucket.refund(5);
+
+        int admitted = 0;
+        while (AcquireResult.isAllowed(bucket.tryAcquire(1))) {
+            admitted++;
+        }
+        assertEquals(5, admitted, "The sliding window must hold no more than its size");
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testBatchSharesBucketsWithSingleCalls(LimiterAlgorithm algorithm) {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(3, 1, algorithm);
+        long[] results = new long[5];
+
+        long[] admitted = store.tryAcquireAll(new long[]{7, 7, 7, 8, 7}, new int[]{1, 1, 1, 3, 1}, results);
+
+        assertEquals(0b01111, admitted[0]);
+        assertFalse(AcquireResult.isAllowed(results[4]));
+        assertTrue(AcquireResult.retryAfterNanos(results[4]) > 0);
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire(7L, 1)));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire(8L, 1)));
+        assertEquals(2, store.getBucketCount());
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    void testPrimitiveAndStringKeysShareBuckets(LimiterAlgorithm algorithm) {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(3, 1, algorithm);
+        long keyHash = ClientKeyHash.of("client");
+
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire(keyHash, 2)));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire(keyHash, 1)));
+
+        store.refund(keyHash, 1);
+
+        assertTrue(AcquireResult.isAllowed(store.getBucket("client").tryAcquire(1)));
+        assertEquals(1, store.getBucketCount());
+    }
+}
@@ -0,0 +1,335 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives {@link TokenBucket} implementations with many threads and checks every key against an independent oracle:
+ * the tokens a bucket admits can never exceed {@code size + refillRate * elapsed}.
+ * <p>
+ * Time is simulated with a {@link ManualTimeSource} and advances in ticks. In every tick each thread sends the
+ * requests given by the {@link ArrivalPattern} to keys drawn from a {@link KeySampler}, then waits at a barrier that
+ * moves the clock forward by one tick. The offered load of a run is fixed by its seed, and the oracle does not depend
+ * on the order in which the threads interleave within a tick, so a violation is a race in the bucket rather than
+ * flaky timing. Every call is also timed on the real clock, for throughput and latency percentiles.
+ */
+final class LoadHarness {
+
+    private LoadHarness() {
+    }
+
+    /**
+     * Creates the bucket of one key on the simulated clock.
+     */
+    @FunctionalInterface
+    interface BucketFactory {
+
+        TokenBucket create(int key, TimeSource timeSource);
+    }
+
+    /**
+     * Picks the key of the next request.
+     */
+    @FunctionalInterface
+    interface KeySampler {
+
+        int next(SplittableRandom random);
+
+        /**
+         * Returns a sampler choosing every key with the same probability.
+         */
+        static KeySampler uniform(int keys) {
+            return random -> random.nextInt(keys);
+        }
+
+        /**
+         * Returns a sampler choosing key {@code k} with a probability proportional to {@code 1 / (k + 1)^exponent},
+         * so that a few hot keys receive most of the requests.
+         */
+        static KeySampler zipfian(int keys, double exponent) {
+            double[] cumulative = new double[keys];
+            double sum = 0;
+            for (int k = 0; k < keys; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            double total = sum;
+            return random -> {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                return Math.min(keys - 1, index >= 0 ? index : -index - 1);
+            };
+        }
+    }
+
+    /**
+     * How many requests each thread sends in a tick.
+     */
+    enum ArrivalPattern {
+
+        /**
+         * The same number of requests in every tick.
+         */
+        STEADY {
+            @Override
+            int requests(int tick, int ticks, int perTick) {
+                return perTick;
+            }
+        },
+
+        /**
+         * Ten ticks' worth of requests in every tenth tick and none in between.
+         */
+        BURSTS {
+            @Override
+            int requests(int tick, int ticks, int perTick) {
+                return tick % 10 == 0 ? perTick * 10 : 0;
+            }
+        },
+
+        /**
+         * From no requests in the first tick to twice the average in the last.
+         */
+        RAMP {
+            @Override
+            int requests(int tick, int ticks, int perTick) {
+                return (int) (2L * perTick * tick / Math.max(1, ticks - 1));
+            }
+        };
+
+        abstract int requests(int tick, int ticks, int perTick);
+    }
+
+    /**
+     * A load to run.
+     *
+     * @param threads     the number of threads sending requests
+     * @param keys        the number of keys, each with its own bucket
+     * @param sampler     the key distribution
+     * @param arrivals    the arrival pattern
+     * @param ticks       the number of ticks
+     * @param tick        the simulated time between ticks
+     * @param perTick     the average number of requests per thread and tick
+     * @param tokens      the tokens each request takes
+     * @param refundEvery every how many admissions a thread rolls one back with a refund, 0 for never
+     * @param seed        the seed of the key choices
+     */
+    record LoadProfile(int threads, int keys, KeySampler sampler, ArrivalPattern arrivals, int ticks, Duration tick,
+                       int perTick, int tokens, int refundEvery, long seed) {
+    }
+
+    /**
+     * The outcome of a run.
+     *
+     * @param requests       the number of requests sent
+     * @param admitted       the number of requests admitted and not refunded
+     * @param admittedTokens the tokens admitted per key, net of refunds
+     * @param offeredTokens  the tokens requested per key
+     * @param violations     the keys whose admitted tokens exceed the oracle bound, with both numbers
+     * @param wallNanos      the real time spent sending requests, barriers included
+     * @param latencyNanos   the sorted real durations of all calls
+     */
+    record LoadReport(long requests, long admitted, long[] admittedTokens, long[] offeredTokens,
+                      List<String> violations, long wallNanos, long[] latencyNanos) {
+
+        double throughputPerSecond() {
+            return requests * (double) TimeUnit.SECONDS.toNanos(1) / wallNanos;
+        }
+
+        long percentileNanos(double quantile) {
+            if (latencyNanos.length == 0) {
+                return 0;
+            }
+            return latencyNanos[(int) Math.min(latencyNanos.length - 1,
+                    Math.max(0, Math.ceil(quantile * latencyNanos.length) - 1))];
+        }
+
+        /**
+         * Returns the share of the tokens the oracle allows that were admitted, over the keys whose offered tokens
+         * exceed the bound. Close to 1 for a bucket that neither loses refills nor rejects too eagerly.
+         */
+        double saturatedUtilization(long size, long refillRate, Duration elapsed) {
+            long bound = bound(size, refillRate, elapsed);
+            long allowed = 0;
+            long admittedOnSaturated = 0;
+            for (int key = 0; key < offeredTokens.length; key++) {
+                if (offeredTokens[key] > bound) {
+                    allowed += bound;
+                    admittedOnSaturated += admittedTokens[key];
+                }
+            }
+            return allowed == 0 ? 1 : (double) admittedOnSaturated / allowed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d admitted, %.0f calls/s, p50 %d ns, p99 %d ns, p99.9 %d ns",
+                    requests, admitted, throughputPerSecond(), percentileNanos(0.5), percentileNanos(0.99),
+                    percentileNanos(0.999));
+        }
+    }
+
+    /**
+     * Returns the most tokens a bucket of the given limits may admit over the elapsed time.
+     */
+    static long bound(long size, long refillRate, Duration elapsed) {
+        return size + refillRate * elapsed.toNanos() / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Runs a load against one fresh bucket per key and checks each against the oracle.
+     *
+     * @param profile    the load
+     * @param size       the size the buckets are configured with
+     * @param refillRate the refill rate the buckets are configured with, in tokens per second
+     * @param factory    the factory of the buckets
+     * @return the report
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the load to finish
+     */
+    static LoadReport run(LoadProfile profile, long size, long refillRate, BucketFactory factory)
+            throws InterruptedException {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket[] buckets = new TokenBucket[profile.keys()];
+        for (int key = 0; key < buckets.length; key++) {
+            buckets[key] = factory.create(key, clock);
+        }
+        AtomicLongArray admittedTokens = new AtomicLongArray(profile.keys());
+        AtomicLongArray offeredTokens = new AtomicLongArray(profile.keys());
+        CyclicBarrier barrier = new CyclicBarrier(profile.threads(), () -> clock.advance(profile.tick()));
+        Worker[] workers = new Worker[profile.threads()];
+        Thread[] threads = new Thread[profile.threads()];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(profile, buckets, admittedTokens, offeredTokens, barrier,
+                    new SplittableRandom(profile.seed() * 31 + i));
+            threads[i] = new Thread(workers[i], "load-" + i);
+            threads[i].setUncaughtExceptionHandler((thread, e) -> {
+                failure.compareAndSet(null, e);
+                barrier.reset();
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long wallNanos = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw new IllegalStateException("Load thread failed", failure.get());
+        }
+
+        // the last requests were sent one tick before the clock stopped
+        long bound = bound(size, refillRate, profile.tick().multipliedBy(profile.ticks() - 1));
+        long[] admitted = new long[profile.keys()];
+        long[] offered = new long[profile.keys()];
+        List<String> violations = new ArrayList<>();
+        for (int key = 0; key < admitted.length; key++) {
+            admitted[key] = admittedTokens.get(key);
+            offered[key] = offeredTokens.get(key);
+            if (admitted[key] > bound) {
+                violations.add("key " + key + " admitted " + admitted[key] + " tokens, bound " + bound);
+            }
+        }
+        long requests = 0;
+        long admittedRequests = 0;
+        int latencyCount = 0;
+        for (Worker worker : workers) {
+            requests += worker.requests;
+            admittedRequests += worker.admitted;
+            latencyCount += worker.latencyCount;
+        }
+        long[] latencies = new long[latencyCount];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.latencyCount);
+            offset += worker.latencyCount;
+        }
+        Arrays.sort(latencies);
+        return new LoadReport(requests, admittedRequests, admitted, offered, violations, wallNanos, latencies);
+    }
+
+    private static final class Worker implements Runnable {
+
+        private final LoadProfile profile;
+        private final TokenBucket[] buckets;
+        private final AtomicLongArray admittedTokens;
+        private final AtomicLongArray offeredTokens;
+        private final CyclicBarrier barrier;
+        private final SplittableRandom random;
+        private long[] latencies = new long[1024];
+        private int latencyCount;
+        private long requests;
+        private long admitted;
+
+        Worker(LoadProfile profile, TokenBucket[] buckets, AtomicLongArray admittedTokens,
+               AtomicLongArray offeredTokens, CyclicBarrier barrier, SplittableRandom random) {
+            this.profile = profile;
+            this.buckets = buckets;
+            this.admittedTokens = admittedTokens;
+            this.offeredTokens = offeredTokens;
+            this.barrier = barrier;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            int tokens = profile.tokens();
+            long sinceRefund = 0;
+            for (int tick = 0; tick < profile.ticks(); tick++) {
+                int count = profile.arrivals().requests(tick, profile.ticks(), profile.perTick());
+                for (int i = 0; i < count; i++) {
+                    int key = profile.sampler().next(random);
+                    TokenBucket bucket = buckets[key];
+                    long start = System.nanoTime();
+                    long result = bucket.tryAcquire(tokens);
+                    record(System.nanoTime() - start);
+                    requests++;
+                    offeredTokens.addAndGet(key, tokens);
+                    if (!AcquireResult.isAllowed(result)) {
+                        continue;
+                    }
+                    if (profile.refundEvery() > 0 && ++sinceRefund == profile.refundEvery()) {
+                        sinceRefund = 0;
+                        bucket.refund(tokens);
+                    } else {
+                        admitted++;
+                        admittedTokens.addAndGet(key, tokens);
+                    }
+                }
+                await();
+            }
+        }
+
+        private void record(long nanos) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            }
+            latencies[latencyCount++] = nanos;
+        }
+
+        private void await() {
+            try {
+                barrier.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException("Another load thread failed", e);
+            }
+        }
+    }
+}
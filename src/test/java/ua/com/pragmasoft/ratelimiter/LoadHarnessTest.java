@@ -0,0 +1,153 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import ua.com.pragmasoft.ratelimiter.LoadHarness.ArrivalPattern;
+import ua.com.pragmasoft.ratelimiter.LoadHarness.KeySampler;
+import ua.com.pragmasoft.ratelimiter.LoadHarness.LoadProfile;
+import ua.com.pragmasoft.ratelimiter.LoadHarness.LoadReport;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CompactBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+import ua.com.pragmasoft.ratelimiter.token_bucket.StripedTokenBucket;
+import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucket;
+
+import java.time.Duration;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the {@link LoadHarness} against every bucket implementation: hundreds of threads, hot keys, bursts and
+ * refunds, each checked against the {@code size + rate * elapsed} oracle.
+ */
+class LoadHarnessTest {
+
+    private static final long SIZE = 10;
+    private static final long RATE = 1000;
+    private static final Duration TICK = Duration.ofMillis(1);
+    private static final int TICKS = 100;
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    @Timeout(60)
+    void testZipfianKeysNeverOverdraw(LimiterAlgorithm algorithm) throws InterruptedException {
+        LoadProfile profile = new LoadProfile(64, 1000, KeySampler.zipfian(1000, 1.1), ArrivalPattern.STEADY,
+                TICKS, TICK, 20, 1, 0, 1);
+
+        LoadReport report = LoadHarness.run(profile, SIZE, RATE, (key, clock) -> algorithm.create(SIZE, RATE, clock));
+
+        assertEquals(64L * TICKS * 20, report.requests());
+        assertEquals(0, report.violations().size(), () -> algorithm + ": " + report.violations());
+        assertTrue(report.admitted() > 0, report::toString);
+    }
+
+    @ParameterizedTest
+    @EnumSource(LimiterAlgorithm.class)
+    @Timeout(60)
+    void testHotKeyUnderBurstsAndRefundsNeverOverdraws(LimiterAlgorithm algorithm) throws InterruptedException {
+        LoadProfile profile = new LoadProfile(256, 1, KeySampler.uniform(1), ArrivalPattern.BURSTS, TICKS, TICK, 2,
+                1, 3, 2);
+
+        LoadReport report = LoadHarness.run(profile, SIZE, RATE, (key, clock) -> algorithm.create(SIZE, RATE, clock));
+
+        assertEquals(0, report.violations().size(), () -> algorithm + ": " + report.violations());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = LimiterAlgorithm.class, names = {"TOKEN_BUCKET", "GCRA"})
+    @Timeout(60)
+    void testSaturatedHotKeyGetsItsWholeRate(LimiterAlgorithm algorithm) throws InterruptedException {
+        LoadProfile profile = new LoadProfile(128, 1, KeySampler.uniform(1), ArrivalPattern.STEADY, TICKS, TICK, 1,
+                1, 0, 3);
+
+        LoadReport report = LoadHarness.run(profile, SIZE, RATE, (key, clock) -> algorithm.create(SIZE, RATE, clock));
+
+        assertEquals(0, report.violations().size(), () -> algorithm + ": " + report.violations());
+        double utilization = report.saturatedUtilization(SIZE, RATE, TICK.multipliedBy(TICKS - 1));
+        assertTrue(utilization >= 0.95, () -> algorithm + " lost refills: utilization " + utilization);
+    }
+
+    @Test
+    @Timeout(60)
+    void testStripedBucketNeverOverdraws() throws InterruptedException {
+        long size = 64;
+        LoadProfile profile = new LoadProfile(256, 1, KeySampler.uniform(1), ArrivalPattern.RAMP, TICKS, TICK, 2, 1,
+                5, 4);
+
+        LoadReport report = LoadHarness.run(profile, size, RATE,
+                (key, clock) -> new StripedTokenBucket(size, RATE, 8, clock));
+
+        assertEquals(0, report.violations().size(), report.violations()::toString);
+        assertTrue(report.admitted() > 0, report::toString);
+    }
+
+    @Test
+    @Timeout(60)
+    void testCompactStoreNeverOverdraws() throws InterruptedException {
+        int keys = 500;
+        LoadProfile profile = new LoadProfile(128, keys, KeySampler.zipfian(keys, 1.2), ArrivalPattern.BURSTS, TICKS,
+                TICK, 4, 2, 4, 5);
+        CompactBucketStore[] store = new CompactBucketStore[1];
+
+        LoadReport report = LoadHarness.run(profile, SIZE, RATE, (key, clock) -> {
+            if (store[0] == null) {
+                store[0] = new CompactBucketStore(SIZE, RATE, 1024, clock);
+            }
+            CompactBucketStore compact = store[0];
+            long keyHash = key + 1;
+            return new TokenBucket() {
+                @Override
+                public long tryAcquire(int tokensForBucket) {
+                    return compact.tryAcquire(keyHash, tokensForBucket);
+                }
+
+                @Override
+                public void refund(int tokens) {
+                    compact.refund(keyHash, tokens);
+                }
+            };
+        });
+
+        assertEquals(0, report.violations().size(), report.violations()::toString);
+    }
+
+    @Test
+    @Timeout(60)
+    void testOracleCatchesCheckThenActRace() throws InterruptedException {
+        LoadProfile profile = new LoadProfile(64, 1, KeySampler.uniform(1), ArrivalPattern.STEADY, 10, TICK, 4, 1, 0,
+                6);
+
+        LoadReport report = LoadHarness.run(profile, SIZE, 0, (key, clock) -> new TokenBucket() {
+            private long tokens = SIZE;
+
+            @Override
+            public long tryAcquire(int tokensForBucket) {
+                if (tokens < tokensForBucket) {
+                    return AcquireResult.denied(tokens, AcquireResult.MAX_RETRY_AFTER_NANOS);
+                }
+                Thread.yield();
+                tokens -= tokensForBucket;
+                return AcquireResult.allowed(Math.max(0, tokens));
+            }
+        });
+
+        assertFalse(report.violations().isEmpty(), "An unsynchronised bucket must be caught overdrawing");
+    }
+
+    @Test
+    void testZipfianSamplerFavoursLowKeys() {
+        KeySampler sampler = KeySampler.zipfian(100, 1.0);
+        SplittableRandom random = new SplittableRandom(7);
+        int[] counts = new int[100];
+        for (int i = 0; i < 100_000; i++) {
+            counts[sampler.next(random)]++;
+        }
+
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[9] && counts[9] > counts[99]);
+        // with exponent 1 the first key takes 1 / H(100), about 19% of the requests
+        assertEquals(0.19, counts[0] / 100_000.0, 0.01);
+    }
+}
@@ -0,0 +1,113 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import ua.com.pragmasoft.ratelimiter.client_key.IpAddressParser;
+import ua.com.pragmasoft.ratelimiter.metrics.MicrometerLimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.metrics.RateLimiterEndpoint;
+import ua.com.pragmasoft.ratelimiter.metrics.TopKeysSketch;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MicrometerLimiterMetricsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5, 10);
+
+    @Test
+    void testRecordDecision() {
+        MicrometerLimiterMetrics metrics = new MicrometerLimiterMetrics(registry, store, new TopKeysSketch(3, 256));
+        store.getBucket("client");
+
+        metrics.recordDecision(1, AcquireResult.allowed(4), 1_000);
+        metrics.recordDecision(2, AcquireResult.denied(0, 1_000_000), 2_000);
+        metrics.recordDecision(2, AcquireResult.denied(0, 1_000_000), 2_000);
+
+        assertEquals(1, registry.get("ratelimiter.decisions").tag("outcome", "allowed").counter().count());
+        assertEquals(2, registry.get("ratelimiter.decisions").tag("outcome", "rejected").counter().count());
+        assertEquals(3, registry.get("ratelimiter.decision.time").timer().count());
+        assertEquals(5_000, registry.get("ratelimiter.decision.time").timer().totalTime(TimeUnit.NANOSECONDS));
+        assertEquals(1, registry.get("ratelimiter.buckets").gauge().value());
+        assertEquals(List.of(new TopKeysSketch.KeyCount(2, 2)), metrics.getTopRejectedKeys());
+    }
+
+    @Test
+    void testStoreWithoutLocalBucketsRegistersNoBucketGauges() {
+        BucketStore remote = Mockito.mock(BucketStore.class);
+        Mockito.when(remote.tracksBuckets()).thenReturn(false);
+
+        new MicrometerLimiterMetrics(registry, remote, null);
+
+        assertNull(registry.find("ratelimiter.buckets").gauge());
+        assertNull(registry.find("ratelimiter.buckets.memory").gauge());
+        assertNotNull(registry.find("ratelimiter.decisions").counter());
+    }
+
+    @Test
+    void testTopKeysSketchKeepsHeavyHitters() {
+        TopKeysSketch sketch = new TopKeysSketch(3, 1024);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(i);
+            if (i % 2 == 0) {
+                sketch.add(7);
+            }
+            if (i % 4 == 0) {
+                sketch.add(11);
+            }
+        }
+
+        List<TopKeysSketch.KeyCount> top = sketch.topKeys();
+
+        assertEquals(7, top.get(0).key());
+        assertTrue(top.get(0).count() >= 500);
+        assertEquals(11, top.get(1).key());
+        assertTrue(top.get(1).count() >= 250);
+    }
+
+    @Test
+    void testTopKeysSketchKeepsHeavyHittersUnderAFloodOfDistinctKeys() {
+        TopKeysSketch sketch = new TopKeysSketch(3, 1 << 16);
+        for (int i = 0; i < 100_000; i++) {
+            sketch.add(1_000_000 + i);
+            if (i % 10 == 0) {
+                sketch.add(7);
+            }
+        }
+
+        List<TopKeysSketch.KeyCount> top = sketch.topKeys();
+
+        assertEquals(7, top.get(0).key());
+        assertTrue(top.get(0).count() >= 10_000);
+        assertEquals(3, top.size());
+    }
+
+    @Test
+    void testEndpointListsPseudonymsUnlessKeysAreExposed() {
+        MicrometerLimiterMetrics metrics = new MicrometerLimiterMetrics(registry, store, new TopKeysSketch(3, 256));
+        long address = IpAddressParser.parse("10.0.0.1", 0, 8, 32, 128);
+        metrics.recordDecision(address, AcquireResult.denied(0, 1_000_000), 1_000);
+
+        RateLimiterEndpoint endpoint = new RateLimiterEndpoint(store, metrics);
+        Object hidden = topClient(endpoint);
+
+        assertNotEquals("10.0.0.1", hidden);
+        assertFalse(hidden.toString().contains(Long.toHexString(address)));
+        assertEquals(hidden, topClient(endpoint), "A pseudonym must stay stable between reads");
+        assertEquals("10.0.0.1", topClient(new RateLimiterEndpoint(store, metrics, true)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object topClient(RateLimiterEndpoint endpoint) {
+        List<Map<String, Object>> top = (List<Map<String, Object>>) endpoint.summary().get("topRejectedClients");
+        return top.get(0).get("client");
+    }
+}
@@ -0,0 +1,78 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import ua.com.pragmasoft.ratelimiter.config.RateLimitPolicyEndpoint;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.policy.RouteLimit;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitPolicyTest {
+
+    private RateLimitPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        RateLimitRule search = new RateLimitRule("search", "/api/search/**", Set.of("GET"), null, 4, 0, 2,
+                LimiterAlgorithm.TOKEN_BUCKET);
+        policy = new RateLimitPolicy(List.of(search),
+                (namespace, size, refillRate, algorithm) -> new ConcurrentMapBucketStore(size, refillRate, algorithm),
+                new ConcurrentMapBucketStore(10, 0), null);
+    }
+
+    @Test
+    void testUpdateKeepsBucketsAndPublishesNewCost() {
+        RouteLimit before = policy.resolve("/api/search/books", "GET", null);
+        assertTrue(AcquireResult.isAllowed(before.store().tryAcquire("client", before.cost())));
+
+        policy.update("search", new BucketLimits(6, 0), 1);
+
+        RouteLimit after = policy.resolve("/api/search/books", "GET", null);
+        assertSame(before.store(), after.store());
+        assertEquals(1, after.cost());
+        assertEquals(new BucketLimits(6, 0), after.store().getLimits());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(AcquireResult.isAllowed(after.store().tryAcquire("client", after.cost())));
+        }
+        assertFalse(AcquireResult.isAllowed(after.store().tryAcquire("client", after.cost())),
+                "The tokens used before the update must still count");
+    }
+
+    @Test
+    void testUpdateDefaultRule() {
+        policy.update(RateLimitPolicy.DEFAULT_RULE, new BucketLimits(1, 0), 1);
+
+        RouteLimit limit = policy.resolve("/other", "GET", null);
+        assertTrue(AcquireResult.isAllowed(limit.store().tryAcquire("client", 1)));
+        assertFalse(AcquireResult.isAllowed(limit.store().tryAcquire("client", 1)));
+    }
+
+    @Test
+    void testUpdateRejectsUnknownRuleAndNegativeCost() {
+        assertThrows(IllegalArgumentException.class, () -> policy.update("missing", new BucketLimits(1, 1), 1));
+        assertThrows(IllegalArgumentException.class, () -> policy.update("search", new BucketLimits(1, 1), -1));
+    }
+
+    @Test
+    void testEndpointMergesPartialUpdates() {
+        RateLimitPolicyEndpoint endpoint = new RateLimitPolicyEndpoint(policy);
+
+        Map<String, Object> updated = endpoint.update("search", null, 7L, null);
+
+        assertEquals(Map.of("size", 4L, "refill", 7L, "cost", 2), updated);
+        assertEquals(Set.of(RateLimitPolicy.DEFAULT_RULE, "search"), endpoint.limits().keySet());
+        assertThrows(InvalidEndpointRequestException.class, () -> endpoint.update("missing", 1L, null, null));
+        assertThrows(InvalidEndpointRequestException.class, () -> endpoint.update("search", -1L, null, null));
+    }
+}
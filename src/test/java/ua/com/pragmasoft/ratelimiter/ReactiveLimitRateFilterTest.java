@@ -0,0 +1,153 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import ua.com.pragmasoft.ratelimiter.client_key.ClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.GlobalClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.client_key.ReactiveClientKeyStrategy;
+import ua.com.pragmasoft.ratelimiter.metrics.LimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.policy.LimitLevel;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitPolicy;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketLimits;
+import ua.com.pragmasoft.ratelimiter.token_bucket.BucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ConcurrentMapBucketStore;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReactiveLimitRateFilterTest {
+
+    @Mock
+    private ReactiveClientKeyStrategy clientKeyStrategy;
+
+    @Mock
+    private BucketStore bucketStore;
+
+    @Mock
+    private LimiterMetrics metrics;
+
+    @Mock
+    private WebFilterChain chain;
+
+    private ReactiveLimitRateFilter filter;
+    private MockServerWebExchange exchange;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        filter = new ReactiveLimitRateFilter(clientKeyStrategy, bucketStore, metrics);
+        exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        when(clientKeyStrategy.getClientKeyHash(exchange.getRequest())).thenReturn(42L);
+        when(chain.filter(exchange)).thenReturn(Mono.empty());
+    }
+
+    @Test
+    void testFilter_Success() {
+        when(bucketStore.tryAcquireAsync(42L, 1))
+                .thenReturn(CompletableFuture.completedFuture(AcquireResult.allowed(4)));
+        filter.filter(exchange, chain).block();
+        verify(chain).filter(exchange);
+        assertNull(exchange.getResponse().getStatusCode());
+        verify(metrics).recordDecision(eq(42L), eq(AcquireResult.allowed(4)), anyLong());
+    }
+
+    @Test
+    void testFilter_Rejected() {
+        when(bucketStore.supportsLimits()).thenReturn(true);
+        when(bucketStore.getLimits()).thenReturn(new BucketLimits(10, 5));
+        when(bucketStore.tryAcquireAsync(42L, 1))
+                .thenReturn(CompletableFuture.completedFuture(AcquireResult.denied(0, 1_000_000_000L)));
+        filter.filter(exchange, chain).block();
+        verify(chain, never()).filter(exchange);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, exchange.getResponse().getStatusCode());
+        assertEquals("1", exchange.getResponse().getHeaders().getFirst("Retry-After"));
+        assertEquals("10", exchange.getResponse().getHeaders().getFirst("RateLimit-Limit"));
+        assertEquals("0", exchange.getResponse().getHeaders().getFirst("RateLimit-Remaining"));
+        assertEquals("1", exchange.getResponse().getHeaders().getFirst("RateLimit-Reset"));
+        assertEquals("Rate limit exceeded: Exceeded the allowed rate limit.",
+                exchange.getResponse().getBodyAsString().block());
+    }
+
+    @Test
+    void testFilter_LocalStoreDecidesSynchronously() {
+        when(bucketStore.decidesLocally()).thenReturn(true);
+        when(bucketStore.tryAcquire(42L, 1)).thenReturn(AcquireResult.allowed(4));
+        filter.filter(exchange, chain).block();
+        verify(chain).filter(exchange);
+        verify(bucketStore, never()).tryAcquireAsync(anyLong(), anyInt());
+    }
+
+    @Test
+    void testFilter_WaitsForAsyncDecisionWithoutBlocking() {
+        CompletableFuture<Long> decision = new CompletableFuture<>();
+        when(bucketStore.tryAcquireAsync(42L, 1)).thenReturn(decision);
+        Mono<Void> result = filter.filter(exchange, chain);
+        verify(chain, never()).filter(exchange);
+        decision.complete(AcquireResult.allowed(0));
+        result.block();
+        verify(chain).filter(exchange);
+    }
+
+    @Test
+    void testFilter_RejectingLevelRefundsRouteTokens() {
+        ConcurrentMapBucketStore routeStore = new ConcurrentMapBucketStore(10, 0);
+        RateLimitPolicy policy = new RateLimitPolicy(List.of(),
+                List.of(new LimitLevel("global", new GlobalClientKeyStrategy(), new ConcurrentMapBucketStore(1, 0))),
+                (namespace, size, refillRate, algorithm) -> routeStore, routeStore, null);
+        filter = new ReactiveLimitRateFilter(clientKeyStrategy, policy, metrics);
+        when(clientKeyStrategy.getClientKeyHash(any())).thenReturn(42L);
+        when(chain.filter(any())).thenReturn(Mono.empty());
+
+        MockServerWebExchange first = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        filter.filter(first, chain).block();
+        MockServerWebExchange second = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        filter.filter(second, chain).block();
+
+        assertNull(first.getResponse().getStatusCode());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, second.getResponse().getStatusCode());
+        assertEquals("1", second.getResponse().getHeaders().getFirst("RateLimit-Limit"),
+                "The limit must be the one of the rejecting level");
+        assertTrue(AcquireResult.isAllowed(routeStore.tryAcquire(42L, 9)), "The route tokens must be refunded");
+    }
+
+    @Test
+    void testFilter_RemoteLevelIsAskedOffTheEventLoop() {
+        BucketStore levelStore = mock(BucketStore.class);
+        when(levelStore.tryAcquire(anyLong(), eq(1))).thenAnswer(invocation -> {
+            assertTrue(Thread.currentThread().getName().startsWith("boundedElastic"));
+            return AcquireResult.allowed(0);
+        });
+        when(bucketStore.decidesLocally()).thenReturn(true);
+        when(bucketStore.tryAcquire(42L, 1)).thenReturn(AcquireResult.allowed(4));
+        RateLimitPolicy policy = new RateLimitPolicy(List.of(),
+                List.of(new LimitLevel("global", new GlobalClientKeyStrategy(), levelStore)),
+                (namespace, size, refillRate, algorithm) -> bucketStore, bucketStore, null);
+        filter = new ReactiveLimitRateFilter(clientKeyStrategy, policy, metrics);
+
+        filter.filter(exchange, chain).block();
+
+        verify(chain).filter(exchange);
+        verify(levelStore).tryAcquire(anyLong(), eq(1));
+    }
+
+    @Test
+    void testLevelWithServletOnlyKeyStrategyFailsAtStartup() {
+        RateLimitPolicy policy = new RateLimitPolicy(List.of(),
+                List.of(new LimitLevel("servlet", mock(ClientKeyStrategy.class), bucketStore)),
+                (namespace, size, refillRate, algorithm) -> bucketStore, bucketStore, null);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new ReactiveLimitRateFilter(clientKeyStrategy, policy, metrics));
+    }
+}
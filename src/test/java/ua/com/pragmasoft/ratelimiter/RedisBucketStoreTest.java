@@ -0,0 +1,250 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import com.github.fppt.jedismock.RedisServer;
+import com.github.fppt.jedismock.operations.server.MockExecutor;
+import com.github.fppt.jedismock.server.ServiceOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import ua.com.pragmasoft.ratelimiter.metrics.MicrometerLimiterMetrics;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisBucketStore;
+import ua.com.pragmasoft.ratelimiter.token_bucket.RedisFallback;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests of {@link RedisBucketStore} against an in-process Redis protocol server with a Lua engine.
+ */
+class RedisBucketStoreTest {
+
+    private RedisServer server;
+    private JedisPool pool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        pool = new JedisPool(server.getHost(), server.getBindPort());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void stopServer() throws IOException {
+        server.stop();
+        server = null;
+    }
+
+    @Test
+    void testAllowsUpToSizeThenDenies() {
+        RedisBucketStore store = new RedisBucketStore(pool, 3, 0, "test:", 60000);
+
+        assertEquals(2, AcquireResult.remainingTokens(store.tryAcquire("client", 1)));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 2)));
+        long denied = store.tryAcquire("client", 1);
+
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertEquals(AcquireResult.MAX_RETRY_AFTER_NANOS, AcquireResult.retryAfterNanos(denied));
+        assertTrue(AcquireResult.isAllowed(store.tryAcquire("other", 1)), "Buckets must be isolated per key");
+    }
+
+    @Test
+    void testRetryAfter() {
+        RedisBucketStore store = new RedisBucketStore(pool, 1, 10, "test:", 60000);
+
+        store.tryAcquire("client", 1);
+        long denied = store.tryAcquire("client", 1);
+
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertTrue(AcquireResult.retryAfterNanos(denied) > 0);
+        assertTrue(AcquireResult.retryAfterNanos(denied) <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void testInstancesShareTheBudget() {
+        RedisBucketStore first = new RedisBucketStore(pool, 10, 0, "shared:", 60000);
+        RedisBucketStore second = new RedisBucketStore(pool, 10, 0, "shared:", 60000);
+        int allowed = 0;
+
+        for (int i = 0; i < 20; i++) {
+            RedisBucketStore store = i % 2 == 0 ? first : second;
+            if (AcquireResult.isAllowed(store.tryAcquire("client", 1))) {
+                allowed++;
+            }
+        }
+
+        assertEquals(10, allowed);
+    }
+
+    @Test
+    void testPipelinedBatch() {
+        RedisBucketStore store = new RedisBucketStore(pool, 2, 0, "batch:", 60000);
+
+        long[] results = store.tryAcquireAll(new String[]{"a", "b", "a", "a"}, new int[]{1, 2, 1, 1});
+
+        assertTrue(AcquireResult.isAllowed(results[0]));
+        assertTrue(AcquireResult.isAllowed(results[1]));
+        assertTrue(AcquireResult.isAllowed(results[2]));
+        assertFalse(AcquireResult.isAllowed(results[3]));
+    }
+
+    @Test
+    void testAsyncDecisionRunsOffTheCallingThread() {
+        RedisBucketStore store = new RedisBucketStore(pool, 1, 0, "async:", 60000);
+        Thread caller = Thread.currentThread();
+
+        long first = store.tryAcquireAsync(42L, 1)
+                .thenApply(result -> {
+                    assertNotSame(caller, Thread.currentThread());
+                    return result;
+                })
+                .join();
+
+        assertTrue(AcquireResult.isAllowed(first));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquireAsync(42L, 1).join()));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire(42L, 1)), "Async and sync calls share one bucket");
+    }
+
+    @Test
+    void testCloseShutsDownOnlyAnOwnedExecutor() {
+        ExecutorService shared = Executors.newSingleThreadExecutor();
+        try {
+            new RedisBucketStore(pool, 1, 0, "shared:", 60000, shared).close();
+            assertFalse(shared.isShutdown(), "A shared executor belongs to the caller");
+
+            RedisBucketStore owning = new RedisBucketStore(pool, 1, 0, "owned:", 60000);
+            owning.close();
+            assertThrows(RejectedExecutionException.class, () -> owning.tryAcquireAsync(42L, 1));
+        } finally {
+            shared.shutdownNow();
+        }
+    }
+
+    @Test
+    void testReloadsFlushedScript() {
+        RedisBucketStore store = new RedisBucketStore(pool, 5, 0, "test:", 60000);
+        store.tryAcquire("client", 1);
+        try (Jedis jedis = pool.getResource()) {
+            jedis.scriptFlush();
+        }
+
+        assertEquals(3, AcquireResult.remainingTokens(store.tryAcquire("client", 1)));
+    }
+
+    @Test
+    void testBatchIsOneRoundTripAndReloadsAFlushedScript() throws IOException {
+        List<String> commands = new CopyOnWriteArrayList<>();
+        Set<String> scriptCommands = Set.of("evalsha", "eval", "script");
+        RedisServer recording = RedisServer.newRedisServer()
+                .setOptions(ServiceOptions.withInterceptor((state, command, params) -> {
+                    if (scriptCommands.contains(command.toLowerCase(Locale.ROOT))) {
+                        commands.add(command.toLowerCase(Locale.ROOT));
+                    }
+                    return MockExecutor.proceed(state, command, params);
+                }))
+                .start();
+        try (JedisPool recordingPool = new JedisPool(recording.getHost(), recording.getBindPort())) {
+            RedisBucketStore store = new RedisBucketStore(recordingPool, 2, 0, "batch:", 60000);
+            store.tryAcquire("warm", 1);
+            commands.clear();
+
+            store.tryAcquireAll(new String[]{"a", "b"}, new int[]{1, 1});
+            assertEquals(List.of("evalsha", "evalsha"), commands, "A batch must not check the script first");
+
+            try (Jedis jedis = recordingPool.getResource()) {
+                jedis.scriptFlush();
+            }
+            commands.clear();
+            long[] results = store.tryAcquireAll(new String[]{"a", "b", "a"}, new int[]{1, 1, 1});
+
+            assertEquals(List.of("evalsha", "evalsha", "evalsha", "script", "evalsha", "evalsha", "evalsha"),
+                    commands);
+            assertTrue(AcquireResult.isAllowed(results[0]));
+            assertTrue(AcquireResult.isAllowed(results[1]));
+            assertFalse(AcquireResult.isAllowed(results[2]));
+        } finally {
+            recording.stop();
+        }
+    }
+
+    @Test
+    void testBatchOfPrimitiveKeysReturnsAdmissionBitmap() {
+        RedisBucketStore store = new RedisBucketStore(pool, 2, 0, "batch:", 60000);
+        long[] results = new long[4];
+
+        long[] admitted = store.tryAcquireAllAsync(new long[]{1, 2, 1, 1}, new int[]{1, 3, 1, 1}, results).join();
+
+        assertEquals(2, AcquireResult.allowedCount(admitted));
+        assertTrue(AcquireResult.isAllowed(admitted, 0));
+        assertFalse(AcquireResult.isAllowed(admitted, 1));
+        assertTrue(AcquireResult.isAllowed(admitted, 2));
+        assertFalse(AcquireResult.isAllowed(admitted, 3));
+        assertEquals(AcquireResult.MAX_RETRY_AFTER_NANOS, AcquireResult.retryAfterNanos(results[1]));
+        assertFalse(AcquireResult.isAllowed(store.tryAcquire(1L, 1)), "Batch and single calls share one bucket");
+    }
+
+    @Test
+    void testUnavailableRedisFailsWithoutAFallback() throws IOException {
+        RedisBucketStore store = new RedisBucketStore(pool, 2, 0, "down:", 60000);
+        stopServer();
+
+        assertThrows(JedisConnectionException.class, () -> store.tryAcquire("client", 1));
+    }
+
+    @Test
+    void testUnavailableRedisFailsOpen() throws IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RedisFallback fallback = new RedisFallback(RedisFallback.Mode.ADMIT, 1000);
+            RedisBucketStore store = new RedisBucketStore(pool, 2, 0, "down:", 60000, executor, fallback);
+            stopServer();
+
+            assertTrue(AcquireResult.isAllowed(store.tryAcquire("client", 1)));
+            assertTrue(AcquireResult.isAllowed(store.tryAcquireAsync(42L, 1).join()));
+            assertEquals(5, store.lease("client", 5));
+            store.refund(42L, 1);
+            long[] results = store.tryAcquireAll(new String[]{"a", "b"}, new int[]{1, 1});
+
+            assertTrue(AcquireResult.isAllowed(results[0]) && AcquireResult.isAllowed(results[1]));
+            assertEquals(6, fallback.getCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testUnavailableRedisFailsClosedWithRetryAfter() throws IOException {
+        RedisFallback fallback = new RedisFallback(RedisFallback.Mode.REJECT, 1500);
+        RedisBucketStore store = new RedisBucketStore(pool, 2, 0, "down:", 60000, Runnable::run, fallback);
+        stopServer();
+
+        long denied = store.tryAcquire("client", 1);
+
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), AcquireResult.retryAfterNanos(denied));
+        assertEquals(0, store.lease("client", 5));
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerLimiterMetrics.bindRedisFallback(registry, fallback);
+        assertEquals(2, registry.get("ratelimiter.redis.fallbacks").tag("mode", "reject").functionCounter().count());
+    }
+}
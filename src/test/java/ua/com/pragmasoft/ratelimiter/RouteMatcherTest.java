@@ -0,0 +1,102 @@
+package ua.com.pragmasoft.ratelimiter;
+
+import org.junit.jupiter.api.Test;
+import ua.com.pragmasoft.ratelimiter.policy.RateLimitRule;
+import ua.com.pragmasoft.ratelimiter.policy.RouteMatcher;
+import ua.com.pragmasoft.ratelimiter.token_bucket.LimiterAlgorithm;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteMatcherTest {
+
+    private static RateLimitRule rule(String name, String path, Set<String> methods, String tier) {
+        return new RateLimitRule(name, path, methods, tier, 10, 5, 1, LimiterAlgorithm.TOKEN_BUCKET);
+    }
+
+    private static RateLimitRule rule(String name, String path) {
+        return rule(name, path, Set.of(), null);
+    }
+
+    @Test
+    void testLiteralWildcardAndTailPatterns() {
+        RouteMatcher matcher = new RouteMatcher(List.of(
+                rule("login", "/api/login"),
+                rule("user", "/api/users/{id}"),
+                rule("files", "/files/**")));
+
+        assertEquals(0, matcher.match("/api/login", "POST", null));
+        assertEquals(1, matcher.match("/api/users/42", "GET", null));
+        assertEquals(2, matcher.match("/files", "GET", null));
+        assertEquals(2, matcher.match("/files/a/b/c.txt", "GET", null));
+        assertEquals(-1, matcher.match("/api/users/42/orders", "GET", null));
+        assertEquals(-1, matcher.match("/api", "GET", null));
+        assertEquals(-1, matcher.match("/", "GET", null));
+    }
+
+    @Test
+    void testFirstDeclaredRuleWins() {
+        RouteMatcher matcher = new RouteMatcher(List.of(
+                rule("any-user", "/api/users/*"),
+                rule("me", "/api/users/me"),
+                rule("everything", "/**")));
+
+        assertEquals(0, matcher.match("/api/users/me", "GET", null));
+        assertEquals(0, matcher.match("/api/users/7", "GET", null));
+        assertEquals(2, matcher.match("/api/orders", "GET", null));
+    }
+
+    @Test
+    void testLiteralFallsBackToWildcardSiblingWithoutBacktracking() {
+        RouteMatcher matcher = new RouteMatcher(List.of(
+                rule("me-settings", "/users/me/settings"),
+                rule("user-orders", "/users/*/orders")));
+
+        assertEquals(1, matcher.match("/users/me/orders", "GET", null));
+        assertEquals(0, matcher.match("/users/me/settings", "GET", null));
+        assertEquals(1, matcher.match("/users/5/orders", "GET", null));
+        assertEquals(-1, matcher.match("/users/5/settings", "GET", null));
+    }
+
+    @Test
+    void testEveryLiteralSiblingIsFound() {
+        List<String> segments = List.of("zeta", "a", "orders", "b", "users", "ab", "ba", "login", "Z", "ordersx");
+        List<RateLimitRule> rules = segments.stream().map(segment -> rule(segment, "/api/" + segment)).toList();
+        RouteMatcher matcher = new RouteMatcher(rules);
+
+        for (int i = 0; i < segments.size(); i++) {
+            assertEquals(i, matcher.match("/api/" + segments.get(i), "GET", null), segments.get(i));
+        }
+        assertEquals(-1, matcher.match("/api/order", "GET", null));
+        assertEquals(-1, matcher.match("/api/c", "GET", null));
+        assertEquals(-1, matcher.match("/api/userz", "GET", null));
+    }
+
+    @Test
+    void testMethodAndTierConstraints() {
+        RouteMatcher matcher = new RouteMatcher(List.of(
+                rule("free-writes", "/api/**", Set.of("post", "PUT"), "free"),
+                rule("writes", "/api/**", Set.of("POST", "PUT"), null),
+                rule("reads", "/api/**")));
+
+        assertEquals(0, matcher.match("/api/items", "POST", "free"));
+        assertEquals(1, matcher.match("/api/items", "POST", "pro"));
+        assertEquals(1, matcher.match("/api/items", "PUT", null));
+        assertEquals(2, matcher.match("/api/items", "GET", "free"));
+    }
+
+    @Test
+    void testRepeatedAndTrailingSlashes() {
+        RouteMatcher matcher = new RouteMatcher(List.of(rule("login", "/api/login")));
+
+        assertEquals(0, matcher.match("//api//login/", "GET", null));
+    }
+
+    @Test
+    void testUnsupportedPatternsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new RouteMatcher(List.of(rule("mid", "/a/**/b"))));
+        assertThrows(IllegalArgumentException.class, () -> new RouteMatcher(List.of(rule("partial", "/a/*.json"))));
+    }
+}
@@ -4,8 +4,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import ua.com.pragmasoft.ratelimiter.exception.RateLimitExceededException;
+import ua.com.pragmasoft.ratelimiter.token_bucket.AcquireResult;
+import ua.com.pragmasoft.ratelimiter.token_bucket.CachedTimeSource;
+import ua.com.pragmasoft.ratelimiter.token_bucket.ManualTimeSource;
 import ua.com.pragmasoft.ratelimiter.token_bucket.TokenBucketImpl;
 
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -35,11 +41,80 @@ class TokenBucketImplTest {
     }
 
     @Test
-    void testRefillTokens() throws InterruptedException, RateLimitExceededException {
-        bucket.getToken(5);
-        TimeUnit.SECONDS.sleep(1);
+    void testRefillTokens() throws RateLimitExceededException {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucketImpl bucket = new TokenBucketImpl(10, 5, clock);
+        bucket.getToken(10);
+        assertThrows(RateLimitExceededException.class, () -> bucket.getToken(1));
+
+        clock.advance(Duration.ofSeconds(1));
+
         bucket.getToken(5);
-        assertDoesNotThrow(() -> bucket.getToken(1));
+        assertThrows(RateLimitExceededException.class, () -> bucket.getToken(1));
+    }
+
+    @Test
+    void testManualTimeSourceRejectsGoingBack() {
+        ManualTimeSource clock = new ManualTimeSource();
+        clock.advance(Duration.ofMillis(3));
+
+        assertEquals(3, clock.millis());
+        assertThrows(IllegalArgumentException.class, () -> clock.advance(Duration.ofMillis(-1)));
+    }
+
+    @Test
+    @Timeout(10)
+    void testCachedTimeSourceMovesOnlyWhileStarted() throws InterruptedException {
+        CachedTimeSource clock = new CachedTimeSource(TimeUnit.MICROSECONDS.toNanos(100));
+        long initial = clock.nanoTime();
+        clock.start();
+        try {
+            while (clock.nanoTime() == initial) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        } finally {
+            clock.stop();
+        }
+        TimeUnit.MILLISECONDS.sleep(5);
+        long stopped = clock.nanoTime();
+        TimeUnit.MILLISECONDS.sleep(5);
+
+        assertTrue(stopped > initial);
+        assertEquals(stopped, clock.nanoTime(), "A stopped clock must keep its last reading");
+        assertThrows(IllegalArgumentException.class, () -> new CachedTimeSource(0));
+    }
+
+    @Test
+    @Timeout(10)
+    void testCachedTimeSourceRestartLeavesOneTicker() throws InterruptedException {
+        Set<Thread> before = tickers();
+        CachedTimeSource clock = new CachedTimeSource(TimeUnit.SECONDS.toNanos(1));
+        clock.start();
+        try {
+            clock.stop();
+            clock.start();
+            Set<Thread> started = tickers();
+            started.removeAll(before);
+            while (started.size() > 1) {
+                TimeUnit.MILLISECONDS.sleep(1);
+                started.removeIf(thread -> !thread.isAlive());
+            }
+            assertEquals(1, started.size(), "Only the current ticker may keep running");
+            clock.stop();
+            started.iterator().next().join();
+        } finally {
+            clock.stop();
+        }
+    }
+
+    private static Set<Thread> tickers() {
+        Set<Thread> tickers = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("time-source-ticker") && thread.isAlive()) {
+                tickers.add(thread);
+            }
+        }
+        return tickers;
     }
 
     @Test
@@ -112,4 +187,68 @@ class TokenBucketImplTest {
 
         assertTrue(exceededCount.get() > 0, "At least one request should have exceeded the rate limit");
     }
-}
\ No newline at end of file
+
+    @Test
+    @Timeout(10)
+    void testNoOverdrawUnderContention() throws InterruptedException {
+        long size = 100;
+        TokenBucketImpl bucket = new TokenBucketImpl(size, 0);
+        int numThreads = 32;
+        int requestsPerThread = 1000;
+        AtomicInteger successfulRequests = new AtomicInteger(0);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+        for (int i = 0; i < numThreads; i++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < requestsPerThread; j++) {
+                        try {
+                            bucket.getToken(1);
+                            successfulRequests.incrementAndGet();
+                        } catch (RateLimitExceededException ignored) {
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        latch.await();
+        executor.shutdown();
+
+        assertEquals(size, successfulRequests.get(), "Concurrent requests must not overdraw the bucket");
+    }
+
+    @Test
+    void testConstructor_SizeTooLarge() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketImpl(Long.MAX_VALUE, 10));
+    }
+
+    @Test
+    void testTryAcquire_EncodesDecision() {
+        long allowed = bucket.tryAcquire(4);
+        assertTrue(AcquireResult.isAllowed(allowed));
+        assertEquals(6, AcquireResult.remainingTokens(allowed));
+        assertEquals(0, AcquireResult.retryAfterNanos(allowed));
+
+        long denied = bucket.tryAcquire(8);
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertEquals(6, AcquireResult.remainingTokens(denied));
+        assertTrue(AcquireResult.retryAfterNanos(denied) > 0);
+        assertTrue(AcquireResult.retryAfterNanos(denied) <= TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    void testTryAcquire_NeverSatisfiable() {
+        long denied = bucket.tryAcquire(11);
+        assertFalse(AcquireResult.isAllowed(denied));
+        assertEquals(AcquireResult.MAX_RETRY_AFTER_NANOS, AcquireResult.retryAfterNanos(denied));
+    }
+}
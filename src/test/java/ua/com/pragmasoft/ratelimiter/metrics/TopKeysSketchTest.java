@@ -0,0 +1,23 @@
+package ua.com.pragmasoft.ratelimiter.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads candidate tables that concurrent updates can leave behind, which the public API cannot set up on purpose.
+ */
+class TopKeysSketchTest {
+
+    @Test
+    void testKeyInTwoSlotsIsReportedOnceWithItsHighestCount() {
+        long[] keys = {7, 5, 7, 0};
+        long[] counts = {3, 6, 9, 0};
+
+        List<TopKeysSketch.KeyCount> top = TopKeysSketch.topKeys(keys, counts);
+
+        assertEquals(List.of(new TopKeysSketch.KeyCount(7, 9), new TopKeysSketch.KeyCount(5, 6)), top);
+    }
+}